@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+/**
+ * Thrown when a build is not admitted to the queue of a resource label, because the queue is full
+ * or the build would wait too long, see {@link org.jenkins.plugins.reservableresources.model.LabelPolicy}.
+ */
+public class AdmissionRejectedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+    
+    private final boolean reschedule;
+    private final int rescheduleDelayInSeconds;
+    
+    public AdmissionRejectedException(
+            final String message,
+            final boolean reschedule,
+            final int rescheduleDelayInSeconds) {
+
+        super(message);
+        
+        this.reschedule = reschedule;
+        this.rescheduleDelayInSeconds = rescheduleDelayInSeconds;
+    }
+
+    /**
+     * Checks whether the build should be scheduled again.
+     * 
+     * @return true if the build should be rescheduled, false if it should just fail.
+     */
+    public boolean isReschedule() {
+    
+        return reschedule;
+    }
+
+    public int getRescheduleDelayInSeconds() {
+    
+        return rescheduleDelayInSeconds;
+    }
+}
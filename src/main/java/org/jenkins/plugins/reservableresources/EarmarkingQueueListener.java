@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jenkins.plugins.reservableresources.model.LabelPolicy;
+import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+
+import hudson.Extension;
+import hudson.model.BuildableItemWithBuildWrappers;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.LeftItem;
+import hudson.model.queue.QueueListener;
+
+/**
+ * Earmarks free resources for builds that became buildable in the Jenkins queue, for labels whose policy enables it,
+ * so that the builds take them as soon as they start instead of after executor assignment and checkout. Builds in
+ * their quiet period are not buildable yet, so the earmark hold starts once the quiet period is over.
+ * 
+ * @see ReservableResourcesManager#earmarkResources
+ * @see LabelPolicy#getEarmarkHoldInSeconds()
+ */
+@Extension
+public class EarmarkingQueueListener extends QueueListener {
+
+    @Override
+    public void onEnterBuildable(final BuildableItem item) {
+
+        if (!(item.task instanceof BuildableItemWithBuildWrappers)) {
+            return;
+        }
+        
+        final BuildableItemWithBuildWrappers project = (BuildableItemWithBuildWrappers) item.task;
+        final ReservableResourcesBuildWrapper buildWrapper = project.getBuildWrappersList()
+            .get(ReservableResourcesBuildWrapper.class);
+        
+        // Bundles, hand-offs and resources shared with configurations are acquired in a different way,
+        // which does not confirm earmarks.
+        if (buildWrapper == null
+                || buildWrapper.getGroupSettingKey() != null
+                || buildWrapper.getHandOffToken() != null
+                || buildWrapper.isShareWithConfigurations()) {
+            return;
+        }
+        
+        final ReservableResourcesConfiguration configuration = ReservableResourcesConfiguration.get();
+        final long now = System.currentTimeMillis();
+        
+        for (RequiredReservableResource requiredResource : buildWrapper.getResources()) {
+            final LabelPolicy labelPolicy = configuration.getLabelPolicy(requiredResource.getResourceLabel());
+            
+            if (labelPolicy == null || labelPolicy.getEarmarkHoldInSeconds() == 0) {
+                continue;
+            }
+            
+            ReservableResourcesManager.getInstance().earmarkResources(
+                item.getId(),
+                requiredResource,
+                project.asProject().getFullName(),
+                now + TimeUnit.SECONDS.toMillis(labelPolicy.getEarmarkHoldInSeconds()));
+        }
+    }
+
+    @Override
+    public void onLeft(final LeftItem item) {
+
+        // Started builds confirm their earmarks, while those of cancelled ones would just block others.
+        if (item.isCancelled()) {
+            ReservableResourcesManager.getInstance().dropEarmarks(item.getId());
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.ReservableResourcesManager.LOG_PREFIX;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.actions.HandOffTokenAction;
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction;
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction.AcquiredResource;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+
+/**
+ * Build step handing off resources acquired by {@link ReservableResourcesBuildWrapper} to a downstream build.
+ * The resources stay reserved after this build ends, and the downstream build claims them with the hand-off token
+ * exposed as an environment variable (see {@link ReservableResourcesBuildWrapper#setHandOffToken(String)}).
+ * Resources that are not claimed in time are released.
+ */
+public class HandOffReservableResourcesBuilder extends Builder {
+
+    private static final int DEFAULT_CLAIM_TIMEOUT_IN_MINUTES = 30;
+    private static final String DEFAULT_TOKEN_VARIABLE = "RESERVABLE_RESOURCES_HANDOFF_TOKEN";
+    
+    private String resourceLabel;
+    private int claimTimeoutInMinutes = DEFAULT_CLAIM_TIMEOUT_IN_MINUTES;
+    private String tokenVariable = DEFAULT_TOKEN_VARIABLE;
+    
+    @DataBoundConstructor
+    public HandOffReservableResourcesBuilder() {
+        
+        // All optional fields are set by data bound setters.
+    }
+
+    public String getResourceLabel() {
+    
+        return resourceLabel;
+    }
+
+    /**
+     * Sets the label of the resources to hand off.
+     * 
+     * @param resourceLabel The label or blank to hand off all resources of the build.
+     */
+    @DataBoundSetter
+    public void setResourceLabel(String resourceLabel) {
+    
+        this.resourceLabel = Util.fixEmptyAndTrim(resourceLabel);
+    }
+
+    public int getClaimTimeoutInMinutes() {
+    
+        return claimTimeoutInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setClaimTimeoutInMinutes(int claimTimeoutInMinutes) {
+    
+        if (claimTimeoutInMinutes < 1) {
+            throw new IllegalArgumentException(
+                "Given claim time-out in minutes (" + claimTimeoutInMinutes + ") is not positive.");
+        }
+        
+        this.claimTimeoutInMinutes = claimTimeoutInMinutes;
+    }
+
+    public String getTokenVariable() {
+    
+        return tokenVariable;
+    }
+
+    @DataBoundSetter
+    public void setTokenVariable(String tokenVariable) {
+    
+        this.tokenVariable = Util.fixEmptyAndTrim(tokenVariable) == null
+            ? DEFAULT_TOKEN_VARIABLE
+            : tokenVariable.trim();
+    }
+    
+    @Override
+    public BuildStepMonitor getRequiredMonitorService() {
+
+        return BuildStepMonitor.NONE;
+    }
+
+    @Override
+    public boolean perform(
+            final AbstractBuild<?, ?> build,
+            final Launcher launcher,
+            final BuildListener listener) {
+
+        final ReservableResourcesBuildAction action = build.getAction(ReservableResourcesBuildAction.class);
+        
+        final List<AcquiredResource> acquiredResources = action == null
+            ? Collections.emptyList()
+            : action.getAcquiredResources().stream()
+                .filter(acquiredResource -> resourceLabel == null || resourceLabel.equals(acquiredResource.label))
+                .filter(matchingResource -> !matchingResource.isReleased() && !matchingResource.shared)
+                .collect(Collectors.toList());
+        
+        if (acquiredResources.isEmpty()) {
+            listener.getLogger().println(LOG_PREFIX + "Build holds no reservable resources to hand off.");
+            return true;
+        }
+        
+        final String token;
+        
+        try {
+            token = ReservableResourcesManager.getInstance().handOffResources(
+                acquiredResources.stream().map(acquiredResource -> acquiredResource.nodeName).collect(Collectors.toList()),
+                build,
+                TimeUnit.MINUTES.toMillis(claimTimeoutInMinutes));
+        }
+        catch (IllegalStateException exception) {
+            listener.error(LOG_PREFIX + "Failed to hand off resources. " + exception.getMessage());
+            return false;
+        }
+        
+        // The resources are not released when this build ends.
+        acquiredResources.forEach(AcquiredResource::markReleased);
+        
+        build.addAction(new HandOffTokenAction(tokenVariable, token));
+        
+        for (AcquiredResource acquiredResource : acquiredResources) {
+            listener.getLogger().println(LOG_PREFIX + "Handed off the '" + acquiredResource.nodeName + "' resource.");
+        }
+        
+        listener.getLogger().println(LOG_PREFIX + "Downstream build has to claim the resources within "
+            + claimTimeoutInMinutes + " minutes with the token in the " + tokenVariable + " variable.");
+        
+        return true;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Hand off reservable resources to a downstream build";
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+
+            return true;
+        }
+        
+        public int defaultClaimTimeoutInMinutes() {
+            
+            return DEFAULT_CLAIM_TIMEOUT_IN_MINUTES;
+        }
+        
+        public String defaultTokenVariable() {
+            
+            return DEFAULT_TOKEN_VARIABLE;
+        }
+        
+        /**
+         * Checks that the claim time-out is given and is a positive number.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckClaimTimeoutInMinutes(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
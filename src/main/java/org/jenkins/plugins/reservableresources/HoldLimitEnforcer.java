@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.ReservableResourcesManager.LOG_PREFIX;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction;
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction.AcquiredResource;
+import org.jenkins.plugins.reservableresources.model.LabelPolicy;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Executor;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import jenkins.util.SystemProperties;
+
+/**
+ * Periodically checks how long the builds hold their resources and enforces the maximum hold time
+ * of the {@link LabelPolicy} of their label. Builds are warned in their log first; when the limit is reached
+ * they are either aborted or the resource is released under them and they are marked unstable.
+ */
+@Extension
+public class HoldLimitEnforcer extends AsyncPeriodicWork {
+
+    private static final Logger log = Logger.getLogger(HoldLimitEnforcer.class.getName());
+    
+    private static final long CHECK_INTERVAL_IN_SECONDS = SystemProperties.getLong(
+        HoldLimitEnforcer.class.getName() + ".checkIntervalInSeconds", 30L);
+    
+    private final Set<ReservedResource> warnedReservations = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<ReservedResource> enforcedReservations = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    
+    public HoldLimitEnforcer() {
+
+        super("Reservable resources hold limit enforcer");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+
+        return TimeUnit.SECONDS.toMillis(CHECK_INTERVAL_IN_SECONDS);
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+
+        final ReservableResourcesConfiguration configuration = ReservableResourcesConfiguration.get();
+        final List<ReservedResource> reservations = ReservableResourcesManager.getInstance().getBuildReservations();
+        final long now = System.currentTimeMillis();
+        
+        // Forget the reservations that ended.
+        warnedReservations.retainAll(reservations);
+        enforcedReservations.retainAll(reservations);
+        
+        for (ReservedResource reservation : reservations) {
+            final LabelPolicy labelPolicy = configuration.getLabelPolicy(reservation.getLabel());
+            
+            if (labelPolicy == null || labelPolicy.getMaxHoldInMinutes() == 0) {
+                continue;
+            }
+            
+            final long maxHoldInMillis = TimeUnit.MINUTES.toMillis(labelPolicy.getMaxHoldInMinutes());
+            final long heldInMillis = now - reservation.getReservedAt();
+            
+            if (heldInMillis >= maxHoldInMillis) {
+                if (enforcedReservations.add(reservation)) {
+                    enforce(reservation, labelPolicy, heldInMillis);
+                }
+            }
+            else if (heldInMillis >= maxHoldInMillis - TimeUnit.MINUTES.toMillis(labelPolicy.getHoldWarningInMinutes())
+                    && warnedReservations.add(reservation)) {
+                warn(reservation, maxHoldInMillis - heldInMillis);
+            }
+        }
+    }
+    
+    private static void warn(
+            final ReservedResource reservation,
+            final long remainingInMillis) {
+        
+        final AbstractBuild<?, ?> build = reservation.getReservedBy().getBuild();
+        
+        final String message = "Build is holding '" + reservation.getNode().getNodeName()
+            + "' close to the maximum hold time of '" + reservation.getLabel() + "' resources, the limit is reached in "
+            + Util.getTimeSpanString(remainingInMillis) + ".";
+        
+        log.info(build + ": " + message);
+        
+        printToBuildLog(build, message);
+    }
+    
+    private static void enforce(
+            final ReservedResource reservation,
+            final LabelPolicy labelPolicy,
+            final long heldInMillis) {
+        
+        final AbstractBuild<?, ?> build = reservation.getReservedBy().getBuild();
+        final String nodeName = reservation.getNode().getNodeName();
+        
+        final String message = "Build held '" + nodeName + "' for " + Util.getTimeSpanString(heldInMillis)
+            + ", which is over the maximum hold time of " + labelPolicy.getMaxHoldInMinutes() + " minutes of '"
+            + reservation.getLabel() + "' resources.";
+        
+        log.warning(build + ": " + message);
+        
+        printToBuildLog(build, message);
+        
+        switch (labelPolicy.getHoldLimitAction()) {
+            case RELEASE_RESOURCE:
+                markReleased(build, nodeName);
+                
+                ReservableResourcesManager.getInstance().releaseResource(reservation);
+                
+                build.setResult(Result.UNSTABLE);
+                
+                printToBuildLog(build, "Released the '" + nodeName + "' resource and marked the build unstable.");
+                break;
+                
+            case INTERRUPT_BUILD:
+            default:
+                final Executor executor = build.getExecutor();
+                
+                // Resources of the build are released by the build wrapper when the build stops.
+                if (executor != null) {
+                    executor.interrupt(Result.ABORTED, new ReservableResourcesInterruption(message));
+                }
+                break;
+        }
+    }
+    
+    /**
+     * Marks the resource as released in the build, so that the build does not release it again when it ends.
+     */
+    private static void markReleased(
+            final AbstractBuild<?, ?> build,
+            final String nodeName) {
+        
+        final ReservableResourcesBuildAction action = build.getAction(ReservableResourcesBuildAction.class);
+        
+        if (action == null) {
+            return;
+        }
+        
+        for (AcquiredResource acquiredResource : action.getAcquiredResources()) {
+            if (acquiredResource.nodeName.equals(nodeName)) {
+                acquiredResource.markReleased();
+            }
+        }
+    }
+    
+    private static void printToBuildLog(
+            final AbstractBuild<?, ?> build,
+            final String message) {
+        
+        final ReservableResourcesBuildAction action = build.getAction(ReservableResourcesBuildAction.class);
+        final PrintStream logger = action == null ? null : action.getLogger();
+        
+        if (logger != null) {
+            logger.println(LOG_PREFIX + message);
+        }
+    }
+}
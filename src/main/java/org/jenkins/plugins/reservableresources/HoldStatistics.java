@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cheap running statistics of resource hold durations. Keeps exponentially weighted moving average
+ * and a log-scaled histogram that is used as a quantile sketch; recording is constant time and memory.
+ */
+public final class HoldStatistics {
+
+    private static final double EWMA_WEIGHT = 0.2;
+    
+    private static final long FIRST_BUCKET_IN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final double BUCKET_GROWTH = 1.2;
+    
+    /**
+     * With 1 second first bucket and 20% growth the last bucket starts at 1.2^78 seconds, about 17 days.
+     */
+    private static final int BUCKET_COUNT = 80;
+    
+    private final long[] buckets = new long[BUCKET_COUNT];
+    
+    private double averageInMillis;
+    private long count;
+    
+    /**
+     * Records one hold duration.
+     * 
+     * @param durationInMillis The duration in milliseconds.
+     */
+    public synchronized void record(final long durationInMillis) {
+        
+        final long duration = Math.max(0, durationInMillis);
+        
+        averageInMillis = count == 0 ? duration : EWMA_WEIGHT * duration + (1 - EWMA_WEIGHT) * averageInMillis;
+        count++;
+        
+        buckets[bucketIndex(duration)]++;
+    }
+    
+    public synchronized long getCount() {
+        
+        return count;
+    }
+    
+    /**
+     * Gets the exponentially weighted moving average of the hold durations.
+     * 
+     * @return Average duration in milliseconds or 0 if nothing was recorded yet.
+     */
+    public synchronized long getAverage() {
+        
+        return Math.round(averageInMillis);
+    }
+    
+    /**
+     * Gets the approximate quantile of the hold durations, accurate to the width of one histogram bucket (20%).
+     * 
+     * @param quantile The quantile between 0 and 1, e.g. 0.9 for 90th percentile.
+     * 
+     * @return Duration in milliseconds or 0 if nothing was recorded yet.
+     */
+    public synchronized long getQuantile(final double quantile) {
+        
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Given quantile (" + quantile + ") is not between 0 and 1.");
+        }
+        
+        final long rank = (long) Math.ceil(quantile * count);
+        long cumulativeCount = 0;
+        
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            cumulativeCount += buckets[index];
+            
+            if (cumulativeCount > 0 && cumulativeCount >= rank) {
+                return bucketUpperBound(index);
+            }
+        }
+        
+        return 0;
+    }
+    
+    private static int bucketIndex(final long durationInMillis) {
+        
+        if (durationInMillis < FIRST_BUCKET_IN_MILLIS) {
+            return 0;
+        }
+        
+        int index = 1 + (int) (Math.log((double) durationInMillis / FIRST_BUCKET_IN_MILLIS) / Math.log(BUCKET_GROWTH));
+        
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+    
+    private static long bucketUpperBound(final int index) {
+        
+        return Math.round(FIRST_BUCKET_IN_MILLIS * Math.pow(BUCKET_GROWTH, index));
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        return "HoldStatistics [count=" + count + ", average=" + getAverage() + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.io.UnsupportedEncodingException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.lang.StringUtils;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.User;
+import hudson.tasks.Mailer;
+import jenkins.model.Jenkins;
+import jenkins.model.JenkinsLocationConfiguration;
+import jenkins.util.Timer;
+
+/**
+ * Sends an e-mail to the user whose manual reservation was preempted by a high priority build, to the address
+ * from the user's Mailer property.
+ * <p>
+ * The e-mail is sent in the background, since preemption happens while handing out resources.
+ */
+@Extension
+public class PreemptionMailNotifier extends ReservableResourcesListener {
+
+    private static final Logger log = Logger.getLogger(PreemptionMailNotifier.class.getName());
+    
+    @Override
+    public void onPreempted(
+            final ReservedResource preemptedResource,
+            final AbstractBuild<?, ?> build) {
+
+        final String userId = preemptedResource.getReservedBy().getDisplayName();
+        final String nodeName = preemptedResource.getNode().getNodeName();
+        final String buildName = build.getFullDisplayName();
+        
+        Timer.get().submit(() -> notifyHolder(userId, nodeName, buildName));
+    }
+    
+    private static void notifyHolder(
+            final String userId,
+            final String nodeName,
+            final String buildName) {
+        
+        final User user = User.getById(userId, false);
+        final Mailer.UserProperty mailProperty = user == null ? null : user.getProperty(Mailer.UserProperty.class);
+        final String address = mailProperty == null ? null : mailProperty.getAddress();
+        
+        if (StringUtils.isBlank(address)) {
+            log.fine("Not notifying " + userId + " about preemption of " + nodeName + ", there is no e-mail address.");
+            return;
+        }
+        
+        final String charset = Mailer.descriptor().getCharset();
+        final String rootUrl = Jenkins.get().getRootUrl();
+        
+        try {
+            MimeMessage message = new MimeMessage(Mailer.descriptor().createSession());
+            
+            message.setFrom(Mailer.stringToAddress(JenkinsLocationConfiguration.get().getAdminAddress(), charset));
+            message.setRecipient(Message.RecipientType.TO, Mailer.stringToAddress(address, charset));
+            message.setSubject("Your reservation of " + nodeName + " was preempted", charset);
+            message.setText(
+                "Your preemptible reservation of resource " + nodeName + " was taken over by " + buildName
+                    + ", which has a high priority and waited too long for a free resource.\n"
+                    + (rootUrl == null ? "" : "\nReservable resources: " + rootUrl + "reservable-resources/\n"),
+                charset);
+            
+            Transport.send(message);
+        }
+        catch (MessagingException | UnsupportedEncodingException exception) {
+            log.log(Level.WARNING, "Failed to notify " + userId + " about preemption of " + nodeName + ".", exception);
+        }
+    }
+}
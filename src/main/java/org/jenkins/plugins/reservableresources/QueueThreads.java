@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Creates the threads of the per label queues, which spend nearly all their time waiting for builds or
+ * free resources.
+ * <p>
+ * On Java 21 and newer these are virtual threads, so idle queues cost almost nothing. The plugin is compiled
+ * for Java 8, so the virtual thread builder is looked up by reflection when the queue is created, and platform
+ * threads are used on older Java versions. Platform threads can be used on Java 21 as well by setting the
+ * {@code virtual} system property of this class to false. Builds waiting for a resource are not affected, they
+ * wait on their own Jenkins executor threads.
+ */
+final class QueueThreads {
+
+    private static final Logger log = Logger.getLogger(QueueThreads.class.getName());
+    
+    private static final boolean VIRTUAL = SystemProperties.getBoolean(QueueThreads.class.getName() + ".virtual", true);
+    
+    private QueueThreads() {
+        
+    }
+    
+    /**
+     * Creates the factory of queue threads.
+     * 
+     * @param name Name of the threads.
+     * 
+     * @return The thread factory; never null.
+     */
+    static ThreadFactory newThreadFactory(final String name) {
+        
+        if (VIRTUAL) {
+            ThreadFactory threadFactory = newVirtualThreadFactory(name);
+            
+            if (threadFactory != null) {
+                return threadFactory;
+            }
+        }
+        
+        return new NamingThreadFactory(new DaemonThreadFactory(), name);
+    }
+    
+    /**
+     * Creates the factory of virtual threads, i.e. {@code Thread.ofVirtual().name(name + " #", 1).factory()}.
+     * 
+     * @return The thread factory or null if virtual threads are not available.
+     */
+    private static ThreadFactory newVirtualThreadFactory(final String name) {
+        
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            
+            // The builder implementation is not public, so its methods are called through the public interface.
+            Class<?> builderInterface = Class.forName("java.lang.Thread$Builder");
+            
+            builder = builderInterface.getMethod("name", String.class, long.class).invoke(builder, name + " #", 1L);
+            
+            return (ThreadFactory) builderInterface.getMethod("factory").invoke(builder);
+        }
+        catch (NoSuchMethodException exception) {
+            // Java older than 21.
+            return null;
+        }
+        catch (ReflectiveOperationException | RuntimeException exception) {
+            log.log(
+                Level.WARNING,
+                "Failed to create virtual threads for '" + name + "', using platform threads instead.",
+                exception);
+            
+            return null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.ReservableResourcesManager.LOG_PREFIX;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction;
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction.AcquiredResource;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Builder;
+
+/**
+ * Build step releasing resources acquired by {@link ReservableResourcesBuildWrapper} before the build ends,
+ * e.g. right after the tests, so that they are not held while the build archives artifacts and publishes reports.
+ * Released resources are marked in the {@link ReservableResourcesBuildAction}, so they are not released again
+ * when the build ends.
+ */
+public class ReleaseReservableResourcesBuilder extends Builder {
+
+    private String resourceLabel;
+    
+    @DataBoundConstructor
+    public ReleaseReservableResourcesBuilder() {
+        
+        // All optional fields are set by data bound setters.
+    }
+
+    public String getResourceLabel() {
+    
+        return resourceLabel;
+    }
+
+    /**
+     * Sets the label of the resources to release.
+     * 
+     * @param resourceLabel The label or blank to release all resources of the build.
+     */
+    @DataBoundSetter
+    public void setResourceLabel(String resourceLabel) {
+    
+        this.resourceLabel = Util.fixEmptyAndTrim(resourceLabel);
+    }
+    
+    @Override
+    public BuildStepMonitor getRequiredMonitorService() {
+
+        return BuildStepMonitor.NONE;
+    }
+
+    @Override
+    public boolean perform(
+            final AbstractBuild<?, ?> build,
+            final Launcher launcher,
+            final BuildListener listener) {
+
+        final ReservableResourcesBuildAction action = build.getAction(ReservableResourcesBuildAction.class);
+        
+        if (action == null) {
+            listener.getLogger().println(LOG_PREFIX + "Build did not acquire any reservable resources.");
+            return true;
+        }
+        
+        final List<AcquiredResource> acquiredResources = action.getAcquiredResources().stream()
+            .filter(acquiredResource -> resourceLabel == null || resourceLabel.equals(acquiredResource.label))
+            .filter(matchingResource -> !matchingResource.isReleased())
+            .collect(Collectors.toList());
+        
+        if (acquiredResources.isEmpty()) {
+            listener.getLogger().println(LOG_PREFIX + (resourceLabel == null
+                ? "Build holds no reservable resources."
+                : "Build holds no reservable resources from '" + resourceLabel + "'."));
+            return true;
+        }
+        
+        ReservableResourcesBuildWrapper.releaseAcquiredResources(build, listener.getLogger(), acquiredResources);
+        
+        return true;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Release reservable resources";
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+
+            return true;
+        }
+    }
+}
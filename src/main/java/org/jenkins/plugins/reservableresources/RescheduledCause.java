@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Cause;
+
+/**
+ * Cause of a build scheduled again, because the original build was not admitted to the queue
+ * of a resource label.
+ * 
+ * @see AdmissionRejectedException
+ */
+public final class RescheduledCause extends Cause {
+
+    private final String originalBuild;
+    private final String reason;
+    
+    public RescheduledCause(
+            final AbstractBuild<?, ?> originalBuild,
+            final String reason) {
+
+        this.originalBuild = originalBuild.getFullDisplayName();
+        this.reason = reason;
+    }
+
+    public String getOriginalBuild() {
+    
+        return originalBuild;
+    }
+
+    public String getReason() {
+    
+        return reason;
+    }
+
+    @Override
+    public String getShortDescription() {
+
+        return "Rescheduled " + originalBuild + " waiting for reservable resources: " + reason;
+    }
+}
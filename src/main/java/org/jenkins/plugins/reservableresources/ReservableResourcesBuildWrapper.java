@@ -1,222 +1,767 @@
-/*
- * Copyright (c) 2021 Maciek Siemczyk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-package org.jenkins.plugins.reservableresources;
-
-import static org.jenkins.plugins.reservableresources.ReservableResourcesManager.LOG_PREFIX;
-
-import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.TimeoutException;
-
-import org.jenkins.plugins.reservableresources.actions.BuildEnvironmentContributingAction;
-import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction;
-import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction.AcquiredResource;
-import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
-import org.kohsuke.stapler.DataBoundConstructor;
-import org.kohsuke.stapler.QueryParameter;
-
-import hudson.Extension;
-import hudson.Launcher;
-import hudson.model.AbstractBuild;
-import hudson.model.BuildListener;
-import hudson.model.Descriptor;
-import hudson.model.Executor;
-import hudson.model.Node;
-import hudson.model.Result;
-import hudson.model.Run;
-import hudson.tasks.BuildWrapper;
-import hudson.util.FormValidation;
-
-/**
- * Reservable resources build wrapper is responsible for acquiring and releasing
- * of the resources for the individual builds ({@link Run}).
- * 
- * @see BuildWrapper
- */
-public class ReservableResourcesBuildWrapper extends BuildWrapper {
-
-    private static final int DEFAULT_TIMEOUT_IN_MINUTES = 180;
-    
-    private final int timeoutInMinutes;
-    private final List<RequiredReservableResource> requiredResources;
-
-    @DataBoundConstructor
-    public ReservableResourcesBuildWrapper(
-            int timeoutInMinutes,
-            List<RequiredReservableResource> resources) {
-        
-        if (timeoutInMinutes < 1) {
-            throw new IllegalArgumentException("Given timeout in minutes (" + timeoutInMinutes + ") is not positive.");
-        }
-        
-        this.timeoutInMinutes = timeoutInMinutes;
-        this.requiredResources = resources;
-    }
-
-    public long getTimeoutInMinutes() {
-
-        return timeoutInMinutes;
-    }
-    
-    public List<RequiredReservableResource> getResources() {
-        
-        return requiredResources;
-    }
-
-    @Override
-    @SuppressWarnings("rawtypes")
-    public Environment setUp(
-            final AbstractBuild build, 
-            final Launcher launcher,
-            final BuildListener listener) throws IOException, InterruptedException {
-
-        final PrintStream logger = listener.getLogger();
-        
-        List<AcquiredResource> acquiredResources = new ArrayList<>(requiredResources.size());
-
-        try {
-            for (RequiredReservableResource requiredResource : requiredResources) {
-                final String label = requiredResource.getResourceLabel();
-                
-                logger.println(LOG_PREFIX + "Acquiring a resource from '" + label + "'...");
-
-                setBuildDescription(
-                    build,
-                    "Waiting for next available resource from '" + label + "'...");
-                
-                Node node = ReservableResourcesManager.getInstance()
-                    .acquireResource(timeoutInMinutes, requiredResource, build);
-                
-                acquiredResources.add(new AcquiredResource(label, node.getNodeName()));
-                
-                build.addAction(new BuildEnvironmentContributingAction(requiredResource.getEnvVariablePrefix(), node));
-                
-                logger.println(
-                    LOG_PREFIX + "Successfully acquired '" + node.getNodeName() + "' from '" + label + "'.");
-            }
-            
-            setBuildDescription(build, "");
-            
-            build.addAction(new ReservableResourcesBuildAction(acquiredResources));
-        }
-        catch (TimeoutException exception) {
-            final String message = "Aborted waiting for resource due "
-                + "to reaching time-out of " + timeoutInMinutes + " minutes.";
-            
-            logger.println(LOG_PREFIX + message);
-            
-            releaseAcquiredResources(logger, acquiredResources);
-            
-            setBuildDescription(build, message);
-            abortBuild(build, message);
-            return null;
-        }
-        catch (Exception exception) {
-            releaseAcquiredResources(logger, acquiredResources);
-            
-            // Re-throw the exception or the build will proceed.
-            throw exception;
-        }
-        
-        return new Environment() {
-            
-            @Override
-            public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
-
-                releaseAcquiredResources(logger, acquiredResources);
-                
-                return super.tearDown(build, listener);
-            }
-        };
-    }
-    
-    private void releaseAcquiredResources(final PrintStream logger, List<AcquiredResource> acquiredResources) {
-
-        for (AcquiredResource acquiredResource : acquiredResources) {
-            ReservableResourcesManager.getInstance().releaseResource(acquiredResource.nodeName);
-            
-            logger.println(LOG_PREFIX + "Released the '" + acquiredResource.nodeName + "' resource.");
-        }
-    }
-    
-    private void setBuildDescription(
-            final AbstractBuild<?, ?> build,
-            final String description) {
-    
-        try {
-            build.setDescription(description);
-        } catch (IOException ignoreException) {
-            // Not much we can do with this exception so ignore it.
-        }
-    }
-    
-    private void abortBuild(
-            final AbstractBuild<?, ?> build,
-            final String message) throws InterruptedException {
-
-        Executor executor = build.getExecutor();
-
-        if (executor == null) {
-            throw new InterruptedException(message);
-        }
-
-        // TODO: in the future maybe add CauseOfInterruption argument
-        executor.interrupt(Result.FAILURE);
-    }
-
-    @Extension
-    public static class DescriptorImpl extends Descriptor<BuildWrapper> {
-
-        @Override
-        public String getDisplayName() {
-
-            return "This build requires reservable resource(s)";
-        }
-        
-        public int defaultTimeout() {
-            
-            return DEFAULT_TIMEOUT_IN_MINUTES;
-        }
-        
-        /**
-         * Checks that the time-out is given and is a positive number.
-         *
-         * @param value The string value to validate.
-         * 
-         * @return the validation results.
-         */
-        public FormValidation doCheckTimeoutInMinutes(
-                @QueryParameter
-                final String value) {
-           
-            final FormValidation validateRequired = FormValidation.validateRequired(value);
-            
-            if (validateRequired != FormValidation.ok()) {
-                return validateRequired;
-            }
-            
-            return FormValidation.validatePositiveInteger(value);
-        }
-    }
-}
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.ReservableResourcesManager.LOG_PREFIX;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.actions.BuildEnvironmentContributingAction;
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction;
+import org.jenkins.plugins.reservableresources.actions.ReservableResourcesBuildAction.AcquiredResource;
+import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
+import org.jenkins.plugins.reservableresources.tracing.Span;
+import org.jenkins.plugins.reservableresources.tracing.Tracer;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Executor;
+import hudson.model.Node;
+import hudson.model.ParametersAction;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.tasks.BuildWrapper;
+import hudson.util.FormValidation;
+import net.sf.json.JSONObject;
+
+/**
+ * Reservable resources build wrapper is responsible for acquiring and releasing
+ * of the resources for the individual builds ({@link Run}).
+ * 
+ * @see BuildWrapper
+ */
+public class ReservableResourcesBuildWrapper extends BuildWrapper {
+
+    private static final int DEFAULT_TIMEOUT_IN_MINUTES = 180;
+    
+    private final int timeoutInMinutes;
+    private final List<RequiredReservableResource> requiredResources;
+    
+    private int priority;
+    private String groupSettingKey;
+    private boolean shareWithConfigurations;
+    private int maxConfigurationsPerResource;
+    private String handOffToken;
+
+    @DataBoundConstructor
+    public ReservableResourcesBuildWrapper(
+            int timeoutInMinutes,
+            List<RequiredReservableResource> resources) {
+        
+        if (timeoutInMinutes < 1) {
+            throw new IllegalArgumentException("Given timeout in minutes (" + timeoutInMinutes + ") is not positive.");
+        }
+        
+        this.timeoutInMinutes = timeoutInMinutes;
+        this.requiredResources = resources;
+    }
+
+    public long getTimeoutInMinutes() {
+
+        return timeoutInMinutes;
+    }
+    
+    public List<RequiredReservableResource> getResources() {
+        
+        return requiredResources;
+    }
+    
+    public int getPriority() {
+        
+        return priority;
+    }
+    
+    /**
+     * Sets the priority of the builds. Builds with high enough priority
+     * can preempt manual reservations marked as preemptible.
+     * 
+     * @param priority Integer representing the priority; 0 by default.
+     */
+    @DataBoundSetter
+    public void setPriority(int priority) {
+        
+        this.priority = priority;
+    }
+    
+    public String getGroupSettingKey() {
+        
+        return groupSettingKey;
+    }
+    
+    /**
+     * Sets the name of the resource setting (e.g. zone or rack) whose value must be the same for all
+     * the required resources. When set, the resources are acquired all at once as one bundle.
+     * 
+     * @param groupSettingKey The setting name or blank if the resources are acquired one by one.
+     */
+    @DataBoundSetter
+    public void setGroupSettingKey(String groupSettingKey) {
+        
+        this.groupSettingKey = Util.fixEmptyAndTrim(groupSettingKey);
+    }
+    
+    public boolean isShareWithConfigurations() {
+        
+        return shareWithConfigurations;
+    }
+    
+    /**
+     * Sets whether configurations of a matrix (multi-configuration) build share the resources acquired once
+     * for the whole matrix build instead of acquiring their own.
+     * 
+     * @param shareWithConfigurations true to share the resources, false otherwise.
+     */
+    @DataBoundSetter
+    public void setShareWithConfigurations(boolean shareWithConfigurations) {
+        
+        this.shareWithConfigurations = shareWithConfigurations;
+    }
+    
+    public int getMaxConfigurationsPerResource() {
+        
+        return maxConfigurationsPerResource;
+    }
+    
+    /**
+     * Sets how many configurations can use a shared resource at the same time.
+     * 
+     * @param maxConfigurationsPerResource Integer representing number of configurations; 0 means unlimited.
+     */
+    @DataBoundSetter
+    public void setMaxConfigurationsPerResource(int maxConfigurationsPerResource) {
+        
+        this.maxConfigurationsPerResource = Math.max(0, maxConfigurationsPerResource);
+    }
+
+    public String getHandOffToken() {
+        
+        return handOffToken;
+    }
+    
+    /**
+     * Sets the token of resources handed off by an upstream build, which are claimed instead of acquiring
+     * new resources with the same labels.
+     * 
+     * @param handOffToken The token, usually a reference to a build parameter like {@code ${HANDOFF_TOKEN}},
+     *      or blank if resources are not handed off to this job.
+     */
+    @DataBoundSetter
+    public void setHandOffToken(String handOffToken) {
+        
+        this.handOffToken = Util.fixEmptyAndTrim(handOffToken);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Environment setUp(
+            final AbstractBuild build, 
+            final Launcher launcher,
+            final BuildListener listener) throws IOException, InterruptedException {
+
+        try (Span span = Tracer.startTrace("ReservableResourcesBuildWrapper.setUp")) {
+            span.setAttribute("build", build.getFullDisplayName());
+            span.setAttribute("resources", requiredResources.size());
+            
+            return acquireResources(build, listener);
+        }
+    }
+    
+    private Environment acquireResources(
+            final AbstractBuild<?, ?> build,
+            final BuildListener listener) throws IOException, InterruptedException {
+        
+        final PrintStream logger = listener.getLogger();
+        
+        // Jobs configured before the combinations were rejected by the form.
+        final String sharingConflict = getSharingConflict();
+        
+        if (sharingConflict != null) {
+            logger.println(LOG_PREFIX + sharingConflict);
+            
+            setBuildDescription(build, sharingConflict);
+            abortBuild(build, sharingConflict, Result.FAILURE);
+            return null;
+        }
+        
+        List<AcquiredResource> acquiredResources = new ArrayList<>(requiredResources.size());
+
+        try {
+            if (shareWithConfigurations && build.getRootBuild() != build) {
+                acquireShared(build, logger, acquiredResources);
+            }
+            else {
+                final List<RequiredReservableResource> remainingResources =
+                    claimHandOff(build, listener, acquiredResources);
+                
+                if (remainingResources.isEmpty()) {
+                    logger.println(LOG_PREFIX + "All the resources were handed off by the upstream build.");
+                }
+                else if (groupSettingKey == null) {
+                    acquireOneByOne(build, logger, remainingResources, acquiredResources);
+                }
+                else {
+                    acquireBundle(build, logger, remainingResources, acquiredResources);
+                }
+            }
+            
+            setBuildDescription(build, "");
+            
+            build.addAction(new ReservableResourcesBuildAction(acquiredResources, logger));
+        }
+        catch (TimeoutException exception) {
+            final String message = "Aborted waiting for resource due "
+                + "to reaching time-out of " + timeoutInMinutes + " minutes.";
+            
+            logger.println(LOG_PREFIX + message);
+            
+            Tracer.currentSpan().setError(message);
+            
+            releaseAcquiredResources(build, logger, acquiredResources);
+            
+            setBuildDescription(build, message);
+            abortBuild(build, message, Result.FAILURE);
+            return null;
+        }
+        catch (AdmissionRejectedException exception) {
+            final String message = exception.getMessage();
+            
+            logger.println(LOG_PREFIX + "Build was not admitted to the queue. " + message);
+            
+            Tracer.currentSpan().setError(message);
+            
+            releaseAcquiredResources(build, logger, acquiredResources);
+            
+            if (exception.isReschedule()) {
+                reschedule(build, message, exception.getRescheduleDelayInSeconds());
+                
+                logger.println(LOG_PREFIX + "Build was rescheduled to start in "
+                    + exception.getRescheduleDelayInSeconds() + " seconds.");
+                
+                setBuildDescription(build, message + " Rescheduled.");
+                abortBuild(build, message, Result.NOT_BUILT);
+            }
+            else {
+                setBuildDescription(build, message);
+                abortBuild(build, message, Result.FAILURE);
+            }
+            
+            return null;
+        }
+        catch (Exception exception) {
+            Tracer.currentSpan().setError(exception.toString());
+            
+            releaseAcquiredResources(build, logger, acquiredResources);
+            
+            // Re-throw the exception or the build will proceed.
+            throw exception;
+        }
+        
+        return new Environment() {
+            
+            @Override
+            public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+
+                releaseAcquiredResources(build, logger, acquiredResources);
+                
+                return super.tearDown(build, listener);
+            }
+        };
+    }
+    
+    /**
+     * Checks that the resources can be shared with configurations. Shared resources are acquired one per required
+     * resource on behalf of the root build, so they cannot have a count, be a bundle or be handed off.
+     * 
+     * @return String describing why the resources cannot be shared or null if they can be, or are not shared.
+     */
+    private String getSharingConflict() {
+        
+        if (!shareWithConfigurations) {
+            return null;
+        }
+        
+        if (groupSettingKey != null) {
+            return "Resources shared with matrix configurations cannot be acquired with the same '"
+                + groupSettingKey + "' setting.";
+        }
+        
+        if (handOffToken != null) {
+            return "Resources shared with matrix configurations cannot be claimed from a hand-off.";
+        }
+        
+        for (RequiredReservableResource requiredResource : requiredResources) {
+            if (requiredResource.getCount() > 1) {
+                return "Resources shared with matrix configurations are acquired one per label, but "
+                    + requiredResource.getCount() + " are required from '" + requiredResource.getResourceLabel() + "'.";
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Claims the resources handed off by the upstream build, if there is a hand-off token.
+     * 
+     * @return The required resources that were not handed off.
+     */
+    private List<RequiredReservableResource> claimHandOff(
+            final AbstractBuild<?, ?> build,
+            final BuildListener listener,
+            final List<AcquiredResource> acquiredResources) throws IOException, InterruptedException {
+        
+        final PrintStream logger = listener.getLogger();
+        final List<RequiredReservableResource> remainingResources = new ArrayList<>(requiredResources);
+        
+        if (handOffToken == null) {
+            return remainingResources;
+        }
+        
+        final String token = Util.fixEmptyAndTrim(build.getEnvironment(listener).expand(handOffToken));
+        
+        if (token == null || token.contains("${")) {
+            logger.println(LOG_PREFIX + "There is no hand-off token, acquiring all the resources.");
+            return remainingResources;
+        }
+        
+        final List<ReservedResource> claimedReservations;
+        
+        try {
+            claimedReservations = ReservableResourcesManager.getInstance().claimHandOff(token, build);
+        }
+        catch (IllegalArgumentException exception) {
+            logger.println(LOG_PREFIX + exception.getMessage() + " Acquiring all the resources.");
+            return remainingResources;
+        }
+        
+        final List<ReservedResource> unusedReservations = new ArrayList<>(claimedReservations);
+        final Iterator<RequiredReservableResource> iterator = remainingResources.iterator();
+        
+        while (iterator.hasNext()) {
+            final RequiredReservableResource requiredResource = iterator.next();
+            
+            final List<ReservedResource> matchingReservations = unusedReservations.stream()
+                .filter(reservation -> requiredResource.getResourceLabel().equals(reservation.getLabel()))
+                .limit(requiredResource.getCount())
+                .collect(Collectors.toList());
+            
+            // Resources with a count are claimed all or none, the same as when they are acquired.
+            if (matchingReservations.size() < requiredResource.getCount()) {
+                continue;
+            }
+            
+            iterator.remove();
+            unusedReservations.removeAll(matchingReservations);
+            
+            for (int index = 0; index < matchingReservations.size(); index++) {
+                final Node node = matchingReservations.get(index).getNode();
+                
+                acquiredResources.add(new AcquiredResource(requiredResource.getResourceLabel(), node.getNodeName()));
+                
+                contributeEnvironment(build, requiredResource.getEnvVariablePrefix(index), node);
+                
+                logger.println(LOG_PREFIX + "Claimed '" + node.getNodeName() + "' handed off by the upstream build.");
+            }
+        }
+        
+        for (ReservedResource reservation : unusedReservations) {
+            logger.println(LOG_PREFIX + "Releasing handed off '" + reservation.getNode().getNodeName()
+                + "', it is not required.");
+            
+            ReservableResourcesManager.getInstance().releaseResource(reservation);
+        }
+        
+        return remainingResources;
+    }
+    
+    private void acquireOneByOne(
+            final AbstractBuild<?, ?> build,
+            final PrintStream logger,
+            final List<RequiredReservableResource> resources,
+            final List<AcquiredResource> acquiredResources)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+        
+        for (RequiredReservableResource requiredResource : resources) {
+            final String label = requiredResource.getResourceLabel();
+            
+            final int count = requiredResource.getCount();
+            
+            logger.println(LOG_PREFIX + (count == 1
+                ? "Acquiring a resource from '" + label + "'..."
+                : "Acquiring " + count + " resources from '" + label + "'..."));
+
+            setBuildDescription(
+                build,
+                "Waiting for next available resource from '" + label + "'...");
+            
+            List<Node> nodes;
+            
+            try (Span span = Tracer.startSpan("acquireResource")) {
+                span.setAttribute("label", label);
+                span.setAttribute("count", count);
+                
+                // Resources earmarked while the build was queued are taken right away.
+                nodes = ReservableResourcesManager.getInstance().confirmEarmarks(requiredResource, build);
+                
+                span.setAttribute("earmarked", !nodes.isEmpty());
+                
+                if (nodes.isEmpty()) {
+                    nodes = ReservableResourcesManager.getInstance().acquireResources(
+                        timeoutInMinutes,
+                        requiredResource,
+                        build,
+                        priority,
+                        new WaitEstimateReporter(build, logger, label));
+                }
+                
+                span.setAttribute("nodes", nodes.stream().map(Node::getNodeName).collect(Collectors.toList()));
+            }
+            
+            for (int index = 0; index < nodes.size(); index++) {
+                final Node node = nodes.get(index);
+                
+                acquiredResources.add(new AcquiredResource(label, node.getNodeName()));
+                
+                contributeEnvironment(build, requiredResource.getEnvVariablePrefix(index), node);
+                
+                logger.println(
+                    LOG_PREFIX + "Successfully acquired '" + node.getNodeName() + "' from '" + label + "'.");
+            }
+        }
+    }
+    
+    private void acquireShared(
+            final AbstractBuild<?, ?> build,
+            final PrintStream logger,
+            final List<AcquiredResource> acquiredResources)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+        
+        for (int index = 0; index < requiredResources.size(); index++) {
+            final RequiredReservableResource requiredResource = requiredResources.get(index);
+            final String label = requiredResource.getResourceLabel();
+            
+            logger.println(LOG_PREFIX + "Acquiring a resource from '" + label + "' shared by "
+                + build.getRootBuild().getFullDisplayName() + "...");
+            
+            setBuildDescription(
+                build,
+                "Waiting for shared resource from '" + label + "'...");
+            
+            Node node;
+            
+            try (Span span = Tracer.startSpan("acquireSharedResource")) {
+                span.setAttribute("label", label);
+                
+                node = ReservableResourcesManager.getInstance().acquireSharedResource(
+                    timeoutInMinutes,
+                    requiredResource,
+                    index,
+                    build,
+                    priority,
+                    maxConfigurationsPerResource,
+                    new WaitEstimateReporter(build, logger, label));
+                
+                span.setAttribute("node", node.getNodeName());
+            }
+            
+            acquiredResources.add(new AcquiredResource(label, node.getNodeName(), true));
+            
+            contributeEnvironment(build, requiredResource.getEnvVariablePrefix(0), node);
+            
+            logger.println(
+                LOG_PREFIX + "Successfully acquired shared '" + node.getNodeName() + "' from '" + label + "'.");
+        }
+    }
+    
+    private void acquireBundle(
+            final AbstractBuild<?, ?> build,
+            final PrintStream logger,
+            final List<RequiredReservableResource> resources,
+            final List<AcquiredResource> acquiredResources)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+        
+        // The bundle has one entry per node, so resources with a count are repeated.
+        final List<RequiredReservableResource> bundleResources = new ArrayList<>();
+        final List<String> bundlePrefixes = new ArrayList<>();
+        
+        for (RequiredReservableResource requiredResource : resources) {
+            for (int index = 0; index < requiredResource.getCount(); index++) {
+                bundleResources.add(requiredResource);
+                bundlePrefixes.add(requiredResource.getEnvVariablePrefix(index));
+            }
+        }
+        
+        logger.println(LOG_PREFIX + "Acquiring " + bundleResources.size()
+            + " resource(s) with the same '" + groupSettingKey + "' setting...");
+        
+        setBuildDescription(
+            build,
+            "Waiting for " + bundleResources.size() + " resource(s) with the same '" + groupSettingKey + "'...");
+        
+        List<Node> nodes;
+        
+        try (Span span = Tracer.startSpan("acquireBundle")) {
+            span.setAttribute("groupSettingKey", groupSettingKey);
+            
+            nodes = ReservableResourcesManager.getInstance().acquireBundle(
+                timeoutInMinutes,
+                bundleResources,
+                groupSettingKey,
+                build,
+                priority,
+                new WaitEstimateReporter(build, logger, bundleResources.get(0).getResourceLabel()));
+        }
+        
+        for (int index = 0; index < nodes.size(); index++) {
+            final RequiredReservableResource requiredResource = bundleResources.get(index);
+            final Node node = nodes.get(index);
+            
+            acquiredResources.add(new AcquiredResource(requiredResource.getResourceLabel(), node.getNodeName()));
+            
+            contributeEnvironment(build, bundlePrefixes.get(index), node);
+            
+            logger.println(LOG_PREFIX + "Successfully acquired '" + node.getNodeName()
+                + "' from '" + requiredResource.getResourceLabel() + "'.");
+        }
+    }
+    
+    private static void contributeEnvironment(
+            final AbstractBuild<?, ?> build,
+            final String envVariablePrefix,
+            final Node node) {
+        
+        try (Span span = Tracer.startSpan("contributeEnvironment")) {
+            span.setAttribute("node", node.getNodeName());
+            
+            build.addAction(new BuildEnvironmentContributingAction(envVariablePrefix, node));
+        }
+    }
+    
+    /**
+     * Releases the acquired resources that were not released yet, e.g. by {@link ReleaseReservableResourcesBuilder}.
+     */
+    static void releaseAcquiredResources(
+            final AbstractBuild<?, ?> build,
+            final PrintStream logger,
+            final List<AcquiredResource> acquiredResources) {
+
+        for (AcquiredResource acquiredResource : acquiredResources) {
+            if (acquiredResource.isReleased()) {
+                continue;
+            }
+            
+            acquiredResource.markReleased();
+            
+            if (acquiredResource.shared) {
+                ReservableResourcesManager.getInstance().releaseSharedResource(acquiredResource.nodeName, build);
+                
+                logger.println(LOG_PREFIX + "Stopped using the shared '" + acquiredResource.nodeName + "' resource.");
+            }
+            // The resource could have been taken from the build in the meantime, e.g. by the hold limit.
+            else if (ReservableResourcesManager.getInstance().releaseResource(acquiredResource.nodeName, build)) {
+                logger.println(LOG_PREFIX + "Released the '" + acquiredResource.nodeName + "' resource.");
+            }
+        }
+    }
+    
+    private static void setBuildDescription(
+            final AbstractBuild<?, ?> build,
+            final String description) {
+    
+        try (Span span = Tracer.startSpan("setBuildDescription")) {
+            build.setDescription(description);
+        } catch (IOException ignoreException) {
+            // Not much we can do with this exception so ignore it.
+        }
+    }
+    
+    private void abortBuild(
+            final AbstractBuild<?, ?> build,
+            final String message,
+            final Result result) throws InterruptedException {
+
+        Executor executor = build.getExecutor();
+
+        if (executor == null) {
+            throw new InterruptedException(message);
+        }
+
+        executor.interrupt(result, new ReservableResourcesInterruption(message));
+    }
+    
+    /**
+     * Schedules the build again with the same parameters.
+     */
+    private static void reschedule(
+            final AbstractBuild<?, ?> build,
+            final String reason,
+            final int delayInSeconds) {
+        
+        List<ParametersAction> parameters = build.getActions(ParametersAction.class);
+        
+        build.getProject().scheduleBuild2(
+            delayInSeconds,
+            new RescheduledCause(build, reason),
+            parameters.toArray(new Action[0]));
+    }
+
+    /**
+     * Reports changes of the estimated wait time to the build log and description.
+     */
+    private static final class WaitEstimateReporter implements LongConsumer {
+        
+        private final AbstractBuild<?, ?> build;
+        private final PrintStream logger;
+        private final String label;
+        
+        private long lastEstimateInMinutes = -1;
+        
+        public WaitEstimateReporter(
+                AbstractBuild<?, ?> build,
+                PrintStream logger,
+                String label) {
+
+            this.build = build;
+            this.logger = logger;
+            this.label = label;
+        }
+
+        @Override
+        public void accept(long estimateInMillis) {
+
+            // Round up to whole minutes so that the estimate is not reported on every refresh.
+            final long estimateInMinutes = estimateInMillis <= 0
+                ? estimateInMillis
+                : (estimateInMillis + TimeUnit.MINUTES.toMillis(1) - 1) / TimeUnit.MINUTES.toMillis(1);
+            
+            if (estimateInMinutes <= 0 || estimateInMinutes == lastEstimateInMinutes) {
+                return;
+            }
+            
+            lastEstimateInMinutes = estimateInMinutes;
+            
+            final String estimate = Util.getTimeSpanString(TimeUnit.MINUTES.toMillis(estimateInMinutes));
+            
+            logger.println(LOG_PREFIX + "Estimated wait time for a resource from '" + label + "' is " + estimate + ".");
+            
+            setBuildDescription(
+                build,
+                "Waiting for next available resource from '" + label + "' (estimated wait " + estimate + ")...");
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<BuildWrapper> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "This build requires reservable resource(s)";
+        }
+        
+        public int defaultTimeout() {
+            
+            return DEFAULT_TIMEOUT_IN_MINUTES;
+        }
+        
+        @Override
+        public BuildWrapper newInstance(
+                final StaplerRequest request,
+                final JSONObject formData) throws FormException {
+            
+            final ReservableResourcesBuildWrapper buildWrapper =
+                (ReservableResourcesBuildWrapper) super.newInstance(request, formData);
+            
+            final String sharingConflict = buildWrapper.getSharingConflict();
+            
+            if (sharingConflict != null) {
+                throw new FormException(sharingConflict, "shareWithConfigurations");
+            }
+            
+            return buildWrapper;
+        }
+        
+        /**
+         * Checks that resources shared with matrix configurations are not a bundle nor handed off.
+         *
+         * @param value true if the resources are shared with configurations.
+         * @param groupSettingKey The co-allocation group setting.
+         * @param handOffToken The hand-off token.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckShareWithConfigurations(
+                @QueryParameter
+                final boolean value,
+                @QueryParameter
+                final String groupSettingKey,
+                @QueryParameter
+                final String handOffToken) {
+            
+            if (value && Util.fixEmptyAndTrim(groupSettingKey) != null) {
+                return FormValidation.error("Co-allocation group setting cannot be used with shared resources.");
+            }
+            
+            if (value && Util.fixEmptyAndTrim(handOffToken) != null) {
+                return FormValidation.error("Hand-off token cannot be used with shared resources.");
+            }
+            
+            return FormValidation.ok();
+        }
+        
+        /**
+         * Checks that the time-out is given and is a positive number.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckTimeoutInMinutes(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
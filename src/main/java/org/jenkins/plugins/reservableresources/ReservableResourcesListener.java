@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.AbstractBuild;
+
+/**
+ * Extension point that gets notified about reservable resources events.
+ * All methods have empty default implementations so implementations can override only what they need.
+ */
+public abstract class ReservableResourcesListener implements ExtensionPoint {
+
+    /**
+     * Called after a resource was reserved by a build or a user.
+     * 
+     * @param reservedResource The new reservation.
+     * @param waitInMillis How long the build waited for the resource; 0 for manual reservations.
+     */
+    public void onReserved(
+            ReservedResource reservedResource,
+            long waitInMillis) {
+        
+        // Nothing to do by default.
+    }
+    
+    /**
+     * Called after a resource reserved by a build or a user was released.
+     * 
+     * @param releasedResource The released reservation.
+     * @param holdInMillis How long the resource was reserved.
+     */
+    public void onReleased(
+            ReservedResource releasedResource,
+            long holdInMillis) {
+        
+        // Nothing to do by default.
+    }
+    
+    /**
+     * Called after a build gave up waiting for a resource due to reaching its time-out.
+     * 
+     * @param label The resource label the build was waiting for.
+     * @param build The build.
+     * @param waitInMillis How long the build waited.
+     */
+    public void onTimedOut(
+            String label,
+            AbstractBuild<?, ?> build,
+            long waitInMillis) {
+        
+        // Nothing to do by default.
+    }
+    
+    /**
+     * Called after a preemptible manual reservation was taken over by a high priority build.
+     * 
+     * @param preemptedResource The manual reservation that was preempted.
+     * @param build Build that now holds the resource.
+     */
+    public void onPreempted(
+            ReservedResource preemptedResource,
+            AbstractBuild<?, ?> build) {
+        
+        // Nothing to do by default.
+    }
+    
+    /**
+     * Gets all registered listeners.
+     * 
+     * @return List of the listeners; never null.
+     */
+    public static ExtensionList<ReservableResourcesListener> all() {
+        
+        return ExtensionList.lookup(ReservableResourcesListener.class);
+    }
+}
@@ -1,337 +1,2309 @@
-/*
- * Copyright (c) 2021 Maciek Siemczyk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-package org.jenkins.plugins.reservableresources;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.Random;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import javax.annotation.Nonnull;
-
-import org.apache.commons.lang.StringUtils;
-import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
-import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
-
-import hudson.model.AbstractBuild;
-import hudson.model.Node;
-import jenkins.model.Jenkins;
-
-/**
- * This singleton manages the reservation of resources and keeps track of everything.
- */
-public class ReservableResourcesManager {
-
-    // TODO: add some more logging as well
-    private static final Logger log = Logger.getLogger(ReservableResourcesManager.class.getName());
-    
-    public static final String LOG_PREFIX = "[reservable-resources] ";
-   
-    private final Map<String, BuildQueue> buildQueuesByLabel = new ConcurrentHashMap<>();
-    private final Map<String, ReservedResource> reservedByNodeName = new ConcurrentHashMap<>();
-    
-    /**
-     * Private constructor to prevent instantiation.
-     */
-    private ReservableResourcesManager() {
-    
-    }
-    
-    /**
-     * Acquire a reservable resource.
-     * 
-     * @param timeoutInMinutes Integer representing maximum wait time to acquire the resource.
-     * @param requiredResource Metadata information about required resource.
-     * @param build Reference to {@link AbstractBuild} object that is reserving this resource.
-     * 
-     * @return Reference to acquired {@link Node}; never null.
-     * 
-     * @throws InterruptedException if build is aborted.
-     * @throws TimeoutException if build is aborted due to a time-out.
-     */
-    public Node acquireResource(
-            final int timeoutInMinutes,
-            final RequiredReservableResource requiredResource,
-            final AbstractBuild<?, ?> build) throws InterruptedException, TimeoutException {
-
-        log.fine("About to acquire " + requiredResource + ".");
-        
-        final String label = requiredResource.getResourceLabel();
-        
-        List<Node> reservableNodes = getReservableNodes(label);
-        
-        if (reservableNodes.isEmpty()) {
-            throw new IllegalArgumentException("The are no reservable nodes with label '" + label + "'.");
-        }
-        
-        return buildQueuesByLabel.computeIfAbsent(label, k -> new BuildQueue(label))
-            .acquireAvailableNode(timeoutInMinutes, build);
-    }
-
-    /**
-     * Manually reserve a node resource.
-     * 
-     * @param nodeName String representing node name of the resource.
-     * 
-     * @throws IllegalArgumentException if resource with given node name does not exit.
-     * @throws IllegalStateException if the resource is already reserved.
-     */
-    public void reserveResource(final String nodeName) {
-        
-        Node node = Jenkins.get().getNodes().stream()
-            .filter(unfilteredNode -> unfilteredNode.getNodeProperty(NodePropertyExtension.class) != null)
-            .filter(resourceNode -> resourceNode.getNodeName().equals(nodeName))
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("There is no node resource with given name."));
-                
-        synchronized (reservedByNodeName) {
-            if (reservedByNodeName.containsKey(nodeName)) {
-                throw new IllegalStateException("Resource with node name '" + nodeName + "' is already reserved.");
-            }
-            
-            reservedByNodeName.put(nodeName, new ReservedResource(node, Jenkins.getAuthentication().getName()));    
-        }
-    }
-    
-    /**
-     * Releases reserved resource.
-     * 
-     * @param nodeName String representing node name of the resource.
-     * 
-     * @throws IllegalArgumentException if given node name is blank.
-     */
-    public synchronized void releaseResource(final String nodeName) {
-
-        if (StringUtils.isBlank(nodeName)) {
-            throw new IllegalArgumentException("Given node name is blank.");
-        }
-        
-        reservedByNodeName.remove(nodeName);
-    }
-    
-    public List<Node> getReservableNodes() {
-
-        return Jenkins.get().getNodes().stream()
-            .filter(node -> node.getNodeProperty(NodePropertyExtension.class) != null)
-            .collect(Collectors.toList());
-    }
-    
-    public Optional<ReservedResource> getReservedInfo(final Node node) {
-
-        return Optional.ofNullable(reservedByNodeName.get(node.getNodeName())); 
-    }
-    
-    @SuppressWarnings("java:S1452")
-    public List<AbstractBuild<?, ?>> getBuildQueueBuilds(final String nodeLabelString) {
-        
-        List<AbstractBuild<?, ?>> queueBuilds = buildQueuesByLabel.values().stream()
-            .filter(queue -> nodeLabelString.contains(queue.label))
-            .flatMap(filteredQueue -> filteredQueue.getQueueBuilds().stream())
-            .collect(Collectors.toList());
-        
-        log.log(
-            Level.FINEST,
-            "Got following builds {0} for node label string {1}.",
-            new Object[] { queueBuilds, nodeLabelString });
-        
-        return queueBuilds;
-    }
-    
-    private List<Node> getReservableNodes(String resourceLabel) {
-
-        List<Node> reservableNodes = Jenkins.get().getNodes().stream()
-            .filter(node -> node.getNodeProperty(NodePropertyExtension.class) != null)
-            .filter(reservableNode -> reservableNode.getLabelString().contains(resourceLabel))
-            .collect(Collectors.toList());
-        
-        log.log(Level.FINEST, "Got reservable resources {0}.", reservableNodes);
-        
-        return reservableNodes;
-    }
-    
-    /**
-     * Singleton instance.
-     */
-    private static ReservableResourcesManager instance;
-    
-    /**
-     * Gets the {@link ReservableResourcesManager} singleton. 
-     * 
-     * @return The instance; never null.
-     */
-    @Nonnull
-    public static synchronized ReservableResourcesManager getInstance() {
-
-        if (instance == null) {
-            instance = new ReservableResourcesManager();
-        }
-
-        return instance;
-    }
-        
-    private final class BuildQueue {
-    
-        private final String label;
-        private final BlockingQueue<AcquireTask> queue = new LinkedBlockingQueue<>();
-        
-        private final ExecutorService executor = Executors.newSingleThreadExecutor();
-        
-        @SuppressWarnings("java:S3077")
-        private volatile AcquireTask currentAcquireTask;
-        
-        public BuildQueue(String label) {
-
-            this.label = label;
-            
-            executor.execute(() -> {
-                                
-                while (true) {
-                    try {
-                        currentAcquireTask = queue.take();
-                        
-                        handOutNextAvailableNode(label, currentAcquireTask);
-                    }
-                    catch (InterruptedException exception) {
-                        Thread.currentThread().interrupt();
-                    }
-                    catch (Exception ignoreException) {
-                        // Don't stop polling if there are other other exception.
-                    }
-                    finally {
-                        currentAcquireTask = null;
-                    }
-                }
-            });
-        }
-        
-        @SuppressWarnings("java:S1452")
-        public List<AbstractBuild<?, ?>> getQueueBuilds() {
-            
-            List<AbstractBuild<?, ?>> builds = new ArrayList<>();
-            
-            if (currentAcquireTask != null) {
-                builds.add(currentAcquireTask.build);
-            }
-            
-            builds.addAll(queue.stream().map(AcquireTask::getBuild).collect(Collectors.toList()));
-            
-            return builds;
-        }
-        
-        public Node acquireAvailableNode(
-                int timeoutInMinutes,
-                AbstractBuild<?, ?> build) throws InterruptedException, TimeoutException {
-
-            AcquireTask acquireTask = new AcquireTask(build);
-            
-            queue.add(acquireTask);
-            
-            try {
-                return acquireTask.get(timeoutInMinutes, TimeUnit.MINUTES);
-            }
-            catch (ExecutionException exception) {
-                // This shouldn't really happen with current code.
-                throw new InterruptedException(exception.getMessage());
-            }
-            finally {
-                // Remove the task from the queue (if it still there) or reset current task.
-                if (!queue.remove(acquireTask)) {
-                    currentAcquireTask = null;    
-                }
-            }
-        }
-        
-        private void handOutNextAvailableNode(
-                String label,
-                AcquireTask acquireTask) throws InterruptedException {
-
-            while (acquireTask.build.isBuilding()) {
-                List<Node> availableNodes = getReservableNodes(label).stream()
-                    .filter(node -> node.toComputer().isOnline())
-                    .filter(filteredNode -> !reservedByNodeName.containsKey(filteredNode.getNodeName()))
-                    .collect(Collectors.toList());
-                
-                if (availableNodes.isEmpty()) {
-                    TimeUnit.SECONDS.sleep(1);
-                    continue;
-                }
-
-                Node availableNode = availableNodes.get(new Random().nextInt(availableNodes.size()));
-                
-                synchronized (reservedByNodeName) {
-                    // The build was aborted if current task is null.
-                    if (currentAcquireTask == null) {
-                        return;
-                    }
-                    
-                    if (reservedByNodeName.containsKey(availableNode.getNodeName())) {
-                        continue;
-                    }
-                    
-                    reservedByNodeName.put(
-                        availableNode.getNodeName(),
-                        new ReservedResource(availableNode, acquireTask.build));
-                }
-
-                acquireTask.setNode(availableNode);
-                return;
-            }
-            
-        }
-    }
-    
-    private static final class AcquireTask extends FutureTask<Node> {
-
-        private final AbstractBuild<?, ?> build;
-        
-        public AcquireTask(AbstractBuild<?,?> build) {
-
-            super(() -> null);
-            
-            this.build = build;
-        }
-
-        @SuppressWarnings("java:S1452")
-        public AbstractBuild<?, ?> getBuild() {
-
-            return build;
-        }
-
-        public void setNode(Node node) {
-
-            this.set(node);
-        }
-    }
-}
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkins.plugins.reservableresources.ReservedResource.Status;
+import org.jenkins.plugins.reservableresources.backend.ReservationBackend;
+import org.jenkins.plugins.reservableresources.calendar.ReservationCalendar;
+import org.jenkins.plugins.reservableresources.model.LabelPolicy;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
+import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+import org.jenkins.plugins.reservableresources.model.ResetHook;
+import org.jenkins.plugins.reservableresources.scheduling.SchedulingPolicy;
+import org.jenkins.plugins.reservableresources.scheduling.SchedulingRequest;
+import org.jenkins.plugins.reservableresources.tracing.Span;
+import org.jenkins.plugins.reservableresources.tracing.Tracer;
+
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+/**
+ * This singleton manages the reservation of resources and keeps track of everything.
+ */
+public class ReservableResourcesManager {
+
+    // TODO: add some more logging as well
+    private static final Logger log = Logger.getLogger(ReservableResourcesManager.class.getName());
+    
+    public static final String LOG_PREFIX = "[reservable-resources] ";
+    
+    private static final int MAX_RECENT_PREEMPTIONS = 20;
+    
+    private static final long WAIT_ESTIMATE_REFRESH_IN_SECONDS = 30;
+   
+    private final Map<String, BuildQueue> buildQueuesByLabel = new ConcurrentHashMap<>();
+    private final Map<AbstractBuild<?, ?>, Map<Integer, SharedReservation>> sharedReservationsByRootBuild =
+        new ConcurrentHashMap<>();
+    private final Map<String, HandOff> handOffsByToken = new ConcurrentHashMap<>();
+    private final Map<String, Earmark> earmarksByNodeName = new ConcurrentHashMap<>();
+    private final Map<String, ReservedResource> reservedByNodeName = new ConcurrentHashMap<>();
+    
+    /**
+     * Node names of the resources being reserved or released in the reservation backend. The backend is called
+     * without holding the lock of the reservations, so these resources are not available in the meantime.
+     */
+    private final Set<String> nodeNamesInBackend = ConcurrentHashMap.newKeySet();
+    private final Deque<String> recentPreemptions = new ConcurrentLinkedDeque<>();
+    
+    private final Random random = new Random();
+    private final AtomicLong requestSequence = new AtomicLong();
+    
+    private final Map<String, HoldStatistics> holdStatisticsByLabel = new ConcurrentHashMap<>();
+    private final Map<String, HoldStatistics> holdStatisticsByJob = new ConcurrentHashMap<>();
+    
+    private final ThreadPoolExecutor resetExecutor = new ThreadPoolExecutor(
+        1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        new NamingThreadFactory(new DaemonThreadFactory(), "ReservableResourcesReset"));
+    
+    /**
+     * Called at the points where the hand-out races with the waiting builds, so that tests can interleave
+     * aborts, time-outs, releases and nodes going offline there. Does nothing by default.
+     */
+    @SuppressWarnings("java:S3077")
+    static volatile HandOutHook handOutHook = new HandOutHook() { };
+    
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ReservableResourcesManager() {
+    
+    }
+    
+    /**
+     * Acquire a reservable resource.
+     * 
+     * @param timeoutInMinutes Integer representing maximum wait time to acquire the resource.
+     * @param requiredResource Metadata information about required resource.
+     * @param build Reference to {@link AbstractBuild} object that is reserving this resource.
+     * @param priority Integer representing priority of the build, used to decide about preemption.
+     * @param waitEstimateConsumer Consumer periodically notified about estimated wait time in milliseconds
+     *      while the build is waiting; negative value means the wait time cannot be estimated.
+     * 
+     * @return Reference to acquired {@link Node}; never null.
+     * 
+     * @throws InterruptedException if build is aborted.
+     * @throws TimeoutException if build is aborted due to a time-out.
+     * @throws AdmissionRejectedException if the build is not admitted to the queue due to the label policy.
+     */
+    public Node acquireResource(
+            final int timeoutInMinutes,
+            final RequiredReservableResource requiredResource,
+            final AbstractBuild<?, ?> build,
+            final int priority,
+            final LongConsumer waitEstimateConsumer)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+
+        return acquire(timeoutInMinutes, requiredResource, 1, build, priority, waitEstimateConsumer).get(0);
+    }
+    
+    /**
+     * Acquire all the reservable resources given by the count of the required resource at once. The build waits
+     * in the queue of the label as a single request and no resource is reserved until all of them are available.
+     * 
+     * @param timeoutInMinutes Integer representing maximum wait time to acquire the resources.
+     * @param requiredResource Metadata information about required resources.
+     * @param build Reference to {@link AbstractBuild} object that is reserving the resources.
+     * @param priority Integer representing priority of the build, used to decide about preemption.
+     * @param waitEstimateConsumer Consumer periodically notified about estimated wait time in milliseconds
+     *      while the build is waiting; negative value means the wait time cannot be estimated.
+     * 
+     * @return List of acquired {@link Node}s, as many as the count of the required resource; never null.
+     * 
+     * @throws InterruptedException if build is aborted.
+     * @throws TimeoutException if build is aborted due to a time-out.
+     * @throws AdmissionRejectedException if the build is not admitted to the queue due to the label policy.
+     */
+    public List<Node> acquireResources(
+            final int timeoutInMinutes,
+            final RequiredReservableResource requiredResource,
+            final AbstractBuild<?, ?> build,
+            final int priority,
+            final LongConsumer waitEstimateConsumer)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+        
+        return acquire(
+            timeoutInMinutes, requiredResource, requiredResource.getCount(), build, priority, waitEstimateConsumer);
+    }
+    
+    private List<Node> acquire(
+            final int timeoutInMinutes,
+            final RequiredReservableResource requiredResource,
+            final int count,
+            final AbstractBuild<?, ?> build,
+            final int priority,
+            final LongConsumer waitEstimateConsumer)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+
+        log.fine("About to acquire " + count + " of " + requiredResource + ".");
+        
+        final String label = requiredResource.getResourceLabel();
+        
+        List<Node> reservableNodes = getReservableNodes(label);
+        
+        if (reservableNodes.isEmpty()) {
+            throw new IllegalArgumentException("The are no reservable nodes with label '" + label + "'.");
+        }
+        
+        if (reservableNodes.size() < count) {
+            throw new IllegalArgumentException("The are only " + reservableNodes.size()
+                + " reservable nodes with label '" + label + "', but " + count + " are required.");
+        }
+        
+        return buildQueuesByLabel.computeIfAbsent(label, k -> new BuildQueue(label))
+            .acquireAvailableNodes(timeoutInMinutes, count, build, priority, waitEstimateConsumer);
+    }
+
+    /**
+     * Acquire a bundle of reservable resources that belong to the same group, i.e. have the same value of given
+     * setting (for example the zone or rack of the resource), all at once. The bundle waits as a single request
+     * in the queue of the label of its first required resource, so it is ordered by the scheduling policy like
+     * any other request, and it has to be admitted by the label policies of all its labels.
+     * 
+     * @param timeoutInMinutes Integer representing maximum wait time to acquire the resources.
+     * @param requiredResources Metadata information about required resources, one resource each.
+     * @param groupSettingKey Name of the resource setting whose value defines the group.
+     * @param build Reference to {@link AbstractBuild} object that is reserving the resources.
+     * @param priority Integer representing priority of the build, used to order the queue.
+     * @param waitEstimateConsumer Consumer periodically notified about estimated wait time in milliseconds
+     *      while the build is waiting; negative value means the wait time cannot be estimated.
+     * 
+     * @return List of acquired {@link Node}s, in the order of the required resources; never null.
+     * 
+     * @throws InterruptedException if build is aborted.
+     * @throws TimeoutException if build is aborted due to a time-out.
+     * @throws AdmissionRejectedException if the build is not admitted to the queue due to a label policy.
+     */
+    public List<Node> acquireBundle(
+            final int timeoutInMinutes,
+            final List<RequiredReservableResource> requiredResources,
+            final String groupSettingKey,
+            final AbstractBuild<?, ?> build,
+            final int priority,
+            final LongConsumer waitEstimateConsumer)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+        
+        log.fine("About to acquire bundle of " + requiredResources + " sharing '" + groupSettingKey + "'.");
+        
+        if (requiredResources.isEmpty() || StringUtils.isBlank(groupSettingKey)) {
+            throw new IllegalArgumentException("Given required resources are empty or group setting key is blank.");
+        }
+        
+        for (RequiredReservableResource requiredResource : requiredResources) {
+            if (getReservableNodes(requiredResource.getResourceLabel()).isEmpty()) {
+                throw new IllegalArgumentException(
+                    "The are no reservable nodes with label '" + requiredResource.getResourceLabel() + "'.");
+            }
+        }
+        
+        final String label = requiredResources.get(0).getResourceLabel();
+        
+        // The bundle does not wait in the queues of its other labels, but their limits apply to it as well.
+        for (String otherLabel : getBundleLabels(requiredResources)) {
+            if (!otherLabel.equals(label)) {
+                BuildQueue otherQueue = buildQueuesByLabel.computeIfAbsent(otherLabel, k -> new BuildQueue(otherLabel));
+                
+                synchronized (otherQueue) {
+                    otherQueue.checkAdmission();
+                }
+            }
+        }
+        
+        return buildQueuesByLabel.computeIfAbsent(label, k -> new BuildQueue(label))
+            .acquireBundle(timeoutInMinutes, requiredResources, groupSettingKey, build, priority, waitEstimateConsumer);
+    }
+    
+    /**
+     * Acquire a reservable resource shared by all the builds with the same root build, e.g. configurations
+     * of a matrix build. The first build to ask acquires the resource on behalf of the root build, the others
+     * get the same resource. The resource is held until the root build completes.
+     * 
+     * @param timeoutInMinutes Integer representing maximum wait time to acquire the resource.
+     * @param requiredResource Metadata information about required resource, with the count of 1.
+     * @param index Index of the required resource in the build wrapper.
+     * @param build Reference to {@link AbstractBuild} object that is going to use this resource.
+     * @param priority Integer representing priority of the build, used to decide about preemption.
+     * @param maxSharingBuilds Maximum number of builds using the resource at the same time; 0 means unlimited.
+     * @param waitEstimateConsumer Consumer periodically notified about estimated wait time in milliseconds
+     *      while the build is waiting; negative value means the wait time cannot be estimated.
+     * 
+     * @return Reference to acquired {@link Node}; never null.
+     * 
+     * @throws InterruptedException if build is aborted.
+     * @throws TimeoutException if build is aborted due to a time-out.
+     * @throws AdmissionRejectedException if the build is not admitted to the queue due to the label policy.
+     */
+    public Node acquireSharedResource(
+            final int timeoutInMinutes,
+            final RequiredReservableResource requiredResource,
+            final int index,
+            final AbstractBuild<?, ?> build,
+            final int priority,
+            final int maxSharingBuilds,
+            final LongConsumer waitEstimateConsumer)
+            throws InterruptedException, TimeoutException, AdmissionRejectedException {
+        
+        if (requiredResource.getCount() > 1) {
+            throw new IllegalArgumentException("Shared resources are acquired one per label, but "
+                + requiredResource.getCount() + " are required from '" + requiredResource.getResourceLabel() + "'.");
+        }
+        
+        final AbstractBuild<?, ?> rootBuild = build.getRootBuild();
+        final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutInMinutes);
+        
+        final SharedReservation sharedReservation = sharedReservationsByRootBuild
+            .computeIfAbsent(rootBuild, k -> new ConcurrentHashMap<>())
+            .computeIfAbsent(index, k -> new SharedReservation(maxSharingBuilds));
+        
+        // Only one build acquires the resource for the root build, the others wait for it.
+        if (!sharedReservation.lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException();
+        }
+        
+        try {
+            if (sharedReservation.node == null) {
+                final int remainingInMinutes = (int) Math.max(
+                    1, TimeUnit.NANOSECONDS.toMinutes(deadline - System.nanoTime()));
+                
+                sharedReservation.node = acquireResource(
+                    remainingInMinutes, requiredResource, rootBuild, priority, waitEstimateConsumer);
+            }
+        }
+        finally {
+            sharedReservation.lock.unlock();
+        }
+        
+        if (sharedReservation.permits != null
+                && !sharedReservation.permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException();
+        }
+        
+        return sharedReservation.node;
+    }
+    
+    /**
+     * Stops using a resource shared through {@link #acquireSharedResource}, so that another build can use it.
+     * The resource itself stays reserved until the root build completes.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * @param build The build that was using the resource.
+     */
+    public void releaseSharedResource(
+            final String nodeName,
+            final AbstractBuild<?, ?> build) {
+        
+        final Map<Integer, SharedReservation> sharedReservations =
+            sharedReservationsByRootBuild.get(build.getRootBuild());
+        
+        if (sharedReservations == null) {
+            return;
+        }
+        
+        for (SharedReservation sharedReservation : sharedReservations.values()) {
+            final Node node = sharedReservation.node;
+            
+            if (node != null && node.getNodeName().equals(nodeName) && sharedReservation.permits != null) {
+                sharedReservation.permits.release();
+            }
+        }
+    }
+    
+    /**
+     * Releases the resources acquired on behalf of given root build by {@link #acquireSharedResource}.
+     * 
+     * @param rootBuild The root build that completed.
+     */
+    public void releaseSharedResources(final AbstractBuild<?, ?> rootBuild) {
+        
+        final Map<Integer, SharedReservation> sharedReservations = sharedReservationsByRootBuild.remove(rootBuild);
+        
+        if (sharedReservations == null) {
+            return;
+        }
+        
+        for (SharedReservation sharedReservation : sharedReservations.values()) {
+            final Node node = sharedReservation.node;
+            
+            if (node != null) {
+                releaseResource(node.getNodeName(), rootBuild);
+            }
+        }
+    }
+
+    /**
+     * Hands off resources reserved by given build to a downstream build. The resources stay reserved
+     * until the downstream build claims them with the returned token, or until the claim time-out,
+     * after which they are released.
+     * 
+     * @param nodeNames Node names of the resources to hand off.
+     * @param build The build that reserved the resources.
+     * @param claimTimeoutInMillis How long the hand-off waits to be claimed.
+     * 
+     * @return The hand-off token; never null.
+     * 
+     * @throws IllegalStateException if any of the resources is not reserved by the build.
+     */
+    public String handOffResources(
+            final List<String> nodeNames,
+            final AbstractBuild<?, ?> build,
+            final long claimTimeoutInMillis) {
+        
+        final HandOff handOff = new HandOff(
+            UUID.randomUUID().toString(), System.currentTimeMillis() + claimTimeoutInMillis);
+        
+        final List<ReservedResource> handedOffReservations = new ArrayList<>(nodeNames.size());
+        
+        synchronized (reservedByNodeName) {
+            for (String nodeName : nodeNames) {
+                final ReservedResource reservation = reservedByNodeName.get(nodeName);
+                
+                if (reservation == null
+                        || reservation.getStatus() != Status.RESERVED
+                        || reservation.getReservedBy().getBuild() != build) {
+                    throw new IllegalStateException("Resource '" + nodeName + "' is not reserved by " + build + ".");
+                }
+            }
+            
+            // Rebind all the resources at once, so no other build can take any of them in between.
+            for (String nodeName : nodeNames) {
+                final ReservedResource reservation = reservedByNodeName.get(nodeName);
+                final ReservedResource pendingReservation = new ReservedResource(
+                    reservation.getNode(), "Handed off by " + build, false);
+                
+                reservedByNodeName.put(nodeName, pendingReservation);
+                
+                handOff.pendingReservations.add(pendingReservation);
+                handOff.labelsByNodeName.put(nodeName, reservation.getLabel());
+                
+                handedOffReservations.add(reservation);
+            }
+            
+            handOffsByToken.put(handOff.token, handOff);
+        }
+        
+        final long now = System.currentTimeMillis();
+        
+        for (ReservedResource reservation : handedOffReservations) {
+            final long holdInMillis = now - reservation.getReservedAt();
+            
+            recordHoldDuration(reservation, holdInMillis);
+            
+            fireEvent(listener -> listener.onReleased(reservation, holdInMillis));
+        }
+        
+        log.info(build + " handed off " + nodeNames + ".");
+        
+        return handOff.token;
+    }
+    
+    /**
+     * Claims resources handed off by an upstream build, making given build their owner.
+     * 
+     * @param token The hand-off token.
+     * @param build The build claiming the resources.
+     * 
+     * @return Reservations of the claimed resources; never null.
+     * 
+     * @throws IllegalArgumentException if the token is not known, e.g. it was claimed already or it expired.
+     */
+    public List<ReservedResource> claimHandOff(
+            final String token,
+            final AbstractBuild<?, ?> build) {
+        
+        final List<ReservedResource> claimedReservations = new ArrayList<>();
+        
+        synchronized (reservedByNodeName) {
+            final HandOff handOff = handOffsByToken.remove(token);
+            
+            if (handOff == null) {
+                throw new IllegalArgumentException("Hand-off '" + token + "' was claimed already or it expired.");
+            }
+            
+            for (ReservedResource pendingReservation : handOff.pendingReservations) {
+                final String nodeName = pendingReservation.getNode().getNodeName();
+                
+                // Skip the resources released manually in the meantime.
+                if (reservedByNodeName.get(nodeName) != pendingReservation) {
+                    continue;
+                }
+                
+                final ReservedResource reservation = new ReservedResource(
+                    pendingReservation.getNode(), build, handOff.labelsByNodeName.get(nodeName));
+                
+                reservedByNodeName.put(nodeName, reservation);
+                
+                claimedReservations.add(reservation);
+            }
+        }
+        
+        for (ReservedResource reservation : claimedReservations) {
+            fireEvent(listener -> listener.onReserved(reservation, 0));
+        }
+        
+        log.info(build + " claimed hand-off of " + claimedReservations.size() + " resource(s).");
+        
+        return claimedReservations;
+    }
+    
+    /**
+     * Releases the resources of hand-offs that were not claimed before their claim time-out.
+     */
+    public void expireHandOffs() {
+        
+        final long now = System.currentTimeMillis();
+        
+        for (HandOff handOff : handOffsByToken.values()) {
+            if (handOff.expiresAt > now || !handOffsByToken.remove(handOff.token, handOff)) {
+                continue;
+            }
+            
+            log.warning("Hand-off of " + handOff.labelsByNodeName.keySet() + " was not claimed in time, releasing.");
+            
+            for (ReservedResource pendingReservation : handOff.pendingReservations) {
+                releaseResource(pendingReservation);
+            }
+        }
+    }
+    
+    /**
+     * Earmarks free resources for a build that became buildable in the Jenkins queue, so that it can take them as
+     * soon as it starts (see {@link #confirmEarmarks}). Earmarked resources are not handed out to other builds until
+     * the earmark expires. Nothing is earmarked if builds are waiting for the label already, so earmarks never
+     * overtake them, if there are not enough free resources or if the queue item has earmarks for the label already.
+     * 
+     * @param queueId Id of the Jenkins queue item of the build.
+     * @param requiredResource Metadata information about required resource.
+     * @param jobFullName Full name of the job of the build, used to estimate how long the build holds the resources.
+     * @param expiresAt Time the earmark expires at, in milliseconds since epoch.
+     * 
+     * @return Integer representing the number of earmarked resources.
+     */
+    public int earmarkResources(
+            final long queueId,
+            final RequiredReservableResource requiredResource,
+            final String jobFullName,
+            final long expiresAt) {
+        
+        final String label = requiredResource.getResourceLabel();
+        final int count = requiredResource.getCount();
+        
+        if (getQueueLength(label) > 0) {
+            return 0;
+        }
+        
+        final ReservationBackend backend = getReservationBackend();
+        final List<String> earmarkedNodeNames = new ArrayList<>(count);
+        
+        // The build can start as late as the earmark expires and then holds the resources for the expected time.
+        final long until =
+            expiresAt + getExpectedHoldDuration(label, jobFullName) + ReservationCalendar.getDrainMarginInMillis();
+        
+        synchronized (reservedByNodeName) {
+            final Predicate<Earmark> ofItem = earmark -> earmark.queueId == queueId && earmark.label.equals(label);
+            
+            // The item becomes buildable again after it was blocked; its earmarks are kept until they expire.
+            earmarksByNodeName.values().removeIf(ofItem.and(earmark -> earmark.expiresAt <= System.currentTimeMillis()));
+            
+            if (earmarksByNodeName.values().stream().anyMatch(ofItem)) {
+                return 0;
+            }
+            
+            final List<Node> availableNodes = getReservableNodes(label).stream()
+                .filter(node -> isAvailable(node, backend, until))
+                .collect(Collectors.toList());
+            
+            if (availableNodes.size() < count) {
+                return 0;
+            }
+            
+            for (Node availableNode : getSchedulingPolicy().selectResources(availableNodes, count, random)) {
+                earmarkedNodeNames.add(availableNode.getNodeName());
+                earmarksByNodeName.put(availableNode.getNodeName(), new Earmark(queueId, label, expiresAt));
+            }
+        }
+        
+        log.fine("Earmarked " + earmarkedNodeNames + " for queue item " + queueId + ".");
+        
+        return count;
+    }
+    
+    /**
+     * Takes the resources earmarked for the build while it was queued, if they are all still free. The earmarks
+     * are removed either way.
+     * 
+     * @param requiredResource Metadata information about required resource.
+     * @param build Reference to {@link AbstractBuild} object that is reserving the resources.
+     * 
+     * @return List of acquired {@link Node}s; empty if the resources could not be taken, so the build has to
+     *         acquire them as usual.
+     */
+    public List<Node> confirmEarmarks(
+            final RequiredReservableResource requiredResource,
+            final AbstractBuild<?, ?> build) {
+        
+        final String label = requiredResource.getResourceLabel();
+        final int count = requiredResource.getCount();
+        final long queueId = build.getQueueId();
+        
+        final ReservationBackend backend = getReservationBackend();
+        final long now = System.currentTimeMillis();
+        final long until = getHoldHorizon(getExpectedHoldDuration(label, build));
+        
+        final List<Node> nodes = new ArrayList<>(count);
+        final List<ReservedResource> reservations = new ArrayList<>(count);
+        
+        synchronized (reservedByNodeName) {
+            final Iterator<Map.Entry<String, Earmark>> iterator = earmarksByNodeName.entrySet().iterator();
+            
+            while (iterator.hasNext() && nodes.size() < count) {
+                final Map.Entry<String, Earmark> entry = iterator.next();
+                
+                if (entry.getValue().queueId != queueId || !entry.getValue().label.equals(label)) {
+                    continue;
+                }
+                
+                iterator.remove();
+                
+                final Node node = Jenkins.get().getNode(entry.getKey());
+                
+                if (node != null) {
+                    nodes.add(node);
+                    reservations.add(new ReservedResource(node, build, label));
+                }
+            }
+        }
+        
+        // Expired earmarks are fine as long as nobody took the resources in the meantime.
+        final boolean usable = nodes.size() == count && nodes.stream()
+            .allMatch(node -> isOnline(node)
+                && !ResourceHealthMonitor.isUnhealthy(node.getNodeName())
+                && !ReservationCalendar.get().isBooked(node.getNodeName(), now, until));
+        
+        if (!usable || !tryReserveAll(reservations, backend, true)) {
+            return Collections.emptyList();
+        }
+        
+        for (ReservedResource reservation : reservations) {
+            fireEvent(listener -> listener.onReserved(reservation, 0));
+        }
+        
+        log.fine(build + " confirmed earmarked " + getNodeNames(nodes) + ".");
+        
+        return nodes;
+    }
+    
+    /**
+     * Removes the earmarks of a queue item, e.g. when it was cancelled.
+     * 
+     * @param queueId Id of the Jenkins queue item.
+     */
+    public void dropEarmarks(final long queueId) {
+        
+        synchronized (reservedByNodeName) {
+            earmarksByNodeName.values().removeIf(earmark -> earmark.queueId == queueId);
+        }
+    }
+    
+    /**
+     * Removes the expired earmarks, which are ignored by the hand-out already.
+     */
+    public void expireEarmarks() {
+        
+        final long now = System.currentTimeMillis();
+        
+        synchronized (reservedByNodeName) {
+            earmarksByNodeName.values().removeIf(earmark -> earmark.expiresAt <= now);
+        }
+    }
+    
+    /**
+     * Manually reserve a node resource.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * @param preemptible Flag indicating whether high priority builds can take over the reservation.
+     * 
+     * @throws IllegalArgumentException if resource with given node name does not exit.
+     * @throws IllegalStateException if the resource is already reserved, possibly by another controller.
+     */
+    public void reserveResource(
+            final String nodeName,
+            final boolean preemptible) {
+        
+        Node node = Jenkins.get().getNodes().stream()
+            .filter(unfilteredNode -> unfilteredNode.getNodeProperty(NodePropertyExtension.class) != null)
+            .filter(resourceNode -> resourceNode.getNodeName().equals(nodeName))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("There is no node resource with given name."));
+                
+        final ReservedResource reservedResource =
+            new ReservedResource(node, Jenkins.getAuthentication().getName(), preemptible);
+        
+        if (!tryReserveAll(Collections.singletonList(reservedResource), getReservationBackend())) {
+            throw new IllegalStateException("Resource with node name '" + nodeName + "' is already reserved.");
+        }
+        
+        fireEvent(listener -> listener.onReserved(reservedResource, 0));
+    }
+    
+    /**
+     * Releases reserved resource. If the resource has reset hooks, it is put into cleaning state
+     * and becomes available only after the hooks finished successfully.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * 
+     * @throws IllegalArgumentException if given node name is blank.
+     */
+    public void releaseResource(final String nodeName) {
+
+        if (StringUtils.isBlank(nodeName)) {
+            throw new IllegalArgumentException("Given node name is blank.");
+        }
+        
+        release(nodeName, null);
+    }
+    
+    /**
+     * Releases given reservation, but only if the resource is still reserved by it, so that a late release
+     * never ends a reservation made by somebody else in the meantime.
+     * 
+     * @param reservation The reservation to release.
+     */
+    public void releaseResource(final ReservedResource reservation) {
+        
+        release(reservation.getNode().getNodeName(), reservation);
+    }
+    
+    /**
+     * Releases the resource, but only if it is reserved by given build.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * @param build The build that acquired the resource.
+     * 
+     * @return true if the resource was released, false if it is not reserved by the build (any more).
+     */
+    public boolean releaseResource(
+            final String nodeName,
+            final AbstractBuild<?, ?> build) {
+        
+        final ReservedResource reservation = reservedByNodeName.get(nodeName);
+        
+        if (reservation == null
+                || reservation.getStatus() != Status.RESERVED
+                || reservation.getReservedBy().getBuild() != build) {
+            return false;
+        }
+        
+        release(nodeName, reservation);
+        
+        return true;
+    }
+    
+    /**
+     * Reserves a free resource for an advance reservation window.
+     * 
+     * @param node The resource node.
+     * @param reservedBy Name of the user the window was booked by.
+     * 
+     * @return The reservation or null if the resource is not free.
+     */
+    public ReservedResource reserveForWindow(
+            final Node node,
+            final String reservedBy) {
+        
+        final ReservedResource reservedResource = new ReservedResource(node, reservedBy, false);
+        
+        if (!tryReserveAll(Collections.singletonList(reservedResource), getReservationBackend())) {
+            return null;
+        }
+        
+        fireEvent(listener -> listener.onReserved(reservedResource, 0));
+        
+        return reservedResource;
+    }
+    
+    /**
+     * Releases the resource if it is reserved by the expected reservation or by anybody if it is null.
+     */
+    private void release(
+            final String nodeName,
+            final ReservedResource expectedReservation) {
+        
+        final ReservedResource releasedResource;
+        ReservedResource cleaningResource = null;
+        NodePropertyExtension property;
+        boolean removed = false;
+        
+        synchronized (reservedByNodeName) {
+            releasedResource = reservedByNodeName.get(nodeName);
+            
+            if (releasedResource == null) {
+                return;
+            }
+            
+            if (expectedReservation != null && releasedResource != expectedReservation) {
+                log.fine("Ignoring release of " + nodeName + " since it is not reserved by given reservation any more.");
+                return;
+            }
+            
+            if (releasedResource.getStatus() == Status.CLEANING) {
+                log.fine("Ignoring release of " + nodeName + " since it is being reset.");
+                return;
+            }
+            
+            Node node = Jenkins.get().getNode(nodeName);
+            property = node == null ? null : node.getNodeProperty(NodePropertyExtension.class);
+            
+            if (releasedResource.getStatus() == Status.QUARANTINED
+                    || property == null
+                    || property.getResetHooks().isEmpty()) {
+                removeReservation(nodeName);
+                
+                removed = true;
+            }
+            else {
+                cleaningResource = new ReservedResource(
+                    node,
+                    Status.CLEANING,
+                    "Resetting after " + releasedResource.getReservedBy().getDisplayName());
+                
+                reservedByNodeName.put(nodeName, cleaningResource);
+            }
+        }
+        
+        if (removed) {
+            releaseInBackend(Collections.singletonList(nodeName), getReservationBackend());
+        }
+        
+        if (releasedResource.getStatus() == Status.RESERVED) {
+            final long holdInMillis = System.currentTimeMillis() - releasedResource.getReservedAt();
+            
+            recordHoldDuration(releasedResource, holdInMillis);
+            
+            fireEvent(listener -> listener.onReleased(releasedResource, holdInMillis));
+        }
+        
+        if (cleaningResource != null) {
+            submitReset(cleaningResource, property);
+        }
+    }
+    
+    public List<Node> getReservableNodes() {
+
+        return Jenkins.get().getNodes().stream()
+            .filter(node -> node.getNodeProperty(NodePropertyExtension.class) != null)
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Checks whether given label string contains given label. The label string is parsed the way Jenkins parses
+     * node labels, so the label has to match one of them exactly, not just a part of a longer one.
+     * 
+     * @param labelString String representing the labels, e.g. of a node.
+     * @param label String representing the label to look for.
+     * 
+     * @return true if the label is one of the labels, false otherwise.
+     */
+    public static boolean hasLabel(
+            final String labelString,
+            final String label) {
+        
+        return Label.parse(labelString).stream().anyMatch(atom -> atom.getName().equals(label));
+    }
+    
+    public Optional<ReservedResource> getReservedInfo(final Node node) {
+
+        return Optional.ofNullable(reservedByNodeName.get(node.getNodeName())); 
+    }
+    
+    /**
+     * Checks whether the resource is reserved by another Jenkins controller sharing the resources.
+     * 
+     * @param node The resource node.
+     * 
+     * @return true if the resource is known to be reserved by another controller, false otherwise.
+     */
+    public boolean isReservedElsewhere(final Node node) {
+        
+        return getReservationBackend().isReservedElsewhere(node.getNodeName());
+    }
+    
+    /**
+     * Refreshes the reservation backend, which keeps the reservations of this controller alive, including resources
+     * being reset and quarantined, and stops using
+     * the resources whose reservation in the backend was lost: the local reservation is removed and the build
+     * holding the resource is interrupted, since another controller may be using the resource already.
+     */
+    public void refreshReservationBackend() {
+        
+        final Set<String> reservedNodeNames;
+        final long snapshotTakenAt;
+        
+        // Resources being reserved in the backend are included, so their new leases are not released as leaked.
+        synchronized (reservedByNodeName) {
+            snapshotTakenAt = System.nanoTime();
+            
+            reservedNodeNames = new HashSet<>(reservedByNodeName.keySet());
+            reservedNodeNames.addAll(nodeNamesInBackend);
+        }
+        
+        for (String nodeName : getReservationBackend().refresh(reservedNodeNames, snapshotTakenAt)) {
+            invalidateReservation(nodeName);
+        }
+    }
+    
+    /**
+     * Estimates how long given build will wait for a resource, based on its position in the build queue
+     * and statistics of hold durations of the builds ahead of it and of the builds holding the resources.
+     * 
+     * @param build The waiting build.
+     * 
+     * @return Estimated wait time in milliseconds or -1 if the build is not waiting or there are no statistics yet.
+     */
+    public long estimateWaitTime(final AbstractBuild<?, ?> build) {
+        
+        for (BuildQueue buildQueue : buildQueuesByLabel.values()) {
+            List<AbstractBuild<?, ?>> queueBuilds = buildQueue.getQueueBuilds();
+            
+            int position = queueBuilds.indexOf(build);
+            
+            if (position >= 0) {
+                return estimateWaitTime(buildQueue.label, queueBuilds.subList(0, position));
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Estimates how long a build queued now for a resource with given label would wait.
+     * 
+     * @param label The resource label.
+     * 
+     * @return Estimated wait time in milliseconds or -1 if there are no statistics yet.
+     */
+    public long estimateWaitTimeForNewBuild(final String label) {
+        
+        BuildQueue buildQueue = buildQueuesByLabel.get(label);
+        
+        return estimateWaitTime(label, buildQueue == null ? Collections.emptyList() : buildQueue.getQueueBuilds());
+    }
+    
+    /**
+     * Gets the number of builds waiting for a resource with given label.
+     * 
+     * @param label The resource label.
+     * 
+     * @return Integer representing the number of builds.
+     */
+    public int getQueueLength(final String label) {
+        
+        BuildQueue buildQueue = buildQueuesByLabel.get(label);
+        
+        return buildQueue == null ? 0 : buildQueue.getQueueBuilds().size();
+    }
+    
+    /**
+     * Takes a free resource out of the hand-out before it is removed, e.g. when retiring idle provisioned resources.
+     * 
+     * @param node The resource node.
+     * 
+     * @return true if the resource was free and is now being retired, false otherwise.
+     */
+    public boolean beginRetirement(final Node node) {
+        
+        return tryReserveAll(
+            Collections.singletonList(new ReservedResource(node, Status.CLEANING, "Retiring")),
+            getReservationBackend());
+    }
+    
+    /**
+     * Forgets about a resource after its retirement, see {@link #beginRetirement(Node)}.
+     * 
+     * @param nodeName String representing node name of the resource.
+     */
+    public void endRetirement(final String nodeName) {
+        
+        synchronized (reservedByNodeName) {
+            if (!reservedByNodeName.containsKey(nodeName)) {
+                return;
+            }
+            
+            removeReservation(nodeName);
+        }
+        
+        releaseInBackend(Collections.singletonList(nodeName), getReservationBackend());
+    }
+    
+    /**
+     * Gets hold duration statistics for given resource label.
+     * 
+     * @param label The resource label.
+     * 
+     * @return The statistics or null if no build has released a resource with that label yet.
+     */
+    public HoldStatistics getHoldStatistics(final String label) {
+        
+        return holdStatisticsByLabel.get(label);
+    }
+    
+    /**
+     * Gets hold duration statistics of all resource labels.
+     * 
+     * @return Map of the statistics by label, sorted by label.
+     */
+    public Map<String, HoldStatistics> getHoldStatisticsByLabel() {
+        
+        return new TreeMap<>(holdStatisticsByLabel);
+    }
+    
+    /**
+     * Gets the current reservations made by builds.
+     * 
+     * @return List of the reservations; never null.
+     */
+    public List<ReservedResource> getBuildReservations() {
+        
+        return reservedByNodeName.values().stream()
+            .filter(reservedResource -> reservedResource.getStatus() == Status.RESERVED)
+            .filter(reservedResource -> reservedResource.getReservedBy().getBuild() != null)
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Gets messages about recently preempted manual reservations, newest first.
+     * 
+     * @return List of messages; never null.
+     */
+    public List<String> getRecentPreemptions() {
+        
+        return new ArrayList<>(recentPreemptions);
+    }
+    
+    @SuppressWarnings("java:S1452")
+    public List<AbstractBuild<?, ?>> getBuildQueueBuilds(final String nodeLabelString) {
+        
+        List<AbstractBuild<?, ?>> queueBuilds = buildQueuesByLabel.values().stream()
+            .filter(queue -> hasLabel(nodeLabelString, queue.label))
+            .flatMap(filteredQueue -> filteredQueue.getQueueBuilds().stream())
+            .collect(Collectors.toList());
+        
+        log.log(
+            Level.FINEST,
+            "Got following builds {0} for node label string {1}.",
+            new Object[] { queueBuilds, nodeLabelString });
+        
+        return queueBuilds;
+    }
+    
+    /**
+     * Reserves the whole bundle from one group or nothing. Free capacity of all groups is computed in one pass
+     * over the resources and the group with the least free capacity that fits the bundle is used first, so that
+     * bigger groups stay available for bigger bundles.
+     * 
+     * @param until Time the resources would be held until, in milliseconds since epoch.
+     * 
+     * @return The reservations, in the order of the required resources, or null if no group can serve the bundle.
+     */
+    private List<ReservedResource> reserveBundle(
+            final List<RequiredReservableResource> requiredResources,
+            final String groupSettingKey,
+            final AbstractBuild<?, ?> build,
+            final ReservationBackend backend,
+            final long until) {
+        
+        final Set<String> labels = getBundleLabels(requiredResources);
+        
+        final Map<String, Map<String, List<Node>>> freeNodesByGroup = new HashMap<>();
+        final Map<String, Integer> freeCapacityByGroup = new HashMap<>();
+        
+        for (Node node : getReservableNodes()) {
+            String group = node.getNodeProperty(NodePropertyExtension.class).getSetting(groupSettingKey);
+            
+            if (group == null || !isAvailable(node, backend, until)) {
+                continue;
+            }
+            
+            freeCapacityByGroup.merge(group, 1, Integer::sum);
+            
+            for (String label : labels) {
+                if (hasLabel(node.getLabelString(), label)) {
+                    freeNodesByGroup.computeIfAbsent(group, k -> new HashMap<>())
+                        .computeIfAbsent(label, k -> new ArrayList<>())
+                        .add(node);
+                }
+            }
+        }
+        
+        List<String> groups = new ArrayList<>(freeNodesByGroup.keySet());
+        
+        groups.sort(Comparator.comparing(freeCapacityByGroup::get));
+        
+        for (String group : groups) {
+            if (freeCapacityByGroup.get(group) < requiredResources.size()) {
+                continue;
+            }
+            
+            List<Node> nodes = assignBundleNodes(requiredResources, freeNodesByGroup.get(group));
+            
+            if (nodes == null) {
+                continue;
+            }
+            
+            List<ReservedResource> reservations = new ArrayList<>(nodes.size());
+            
+            for (int index = 0; index < nodes.size(); index++) {
+                reservations.add(new ReservedResource(
+                    nodes.get(index), build, requiredResources.get(index).getResourceLabel()));
+            }
+            
+            if (tryReserveAll(reservations, backend, true)) {
+                log.fine("Reserved bundle " + nodes + " from group '" + group + "'.");
+                
+                return reservations;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Assigns distinct nodes to the required resources. The candidates of each resource are tried in the order of
+     * the scheduling policy and a node taken by an earlier resource is given up if that resource can use another
+     * one instead, so the nodes are assigned whenever such an assignment exists.
+     * 
+     * @return List of the nodes, in the order of the required resources, or null if they cannot be assigned.
+     */
+    private List<Node> assignBundleNodes(
+            final List<RequiredReservableResource> requiredResources,
+            final Map<String, List<Node>> freeNodesByLabel) {
+        
+        final List<List<Node>> candidatesByIndex = new ArrayList<>(requiredResources.size());
+        
+        for (RequiredReservableResource requiredResource : requiredResources) {
+            List<Node> freeNodes =
+                freeNodesByLabel.getOrDefault(requiredResource.getResourceLabel(), Collections.emptyList());
+            
+            candidatesByIndex.add(getSchedulingPolicy().selectResources(freeNodes, freeNodes.size(), random));
+        }
+        
+        return SchedulingPolicy.assignDistinct(candidatesByIndex);
+    }
+    
+    private static Set<String> getBundleLabels(final List<RequiredReservableResource> requiredResources) {
+        
+        return requiredResources.stream()
+            .map(RequiredReservableResource::getResourceLabel)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+    
+    /**
+     * Reserves all given resources or none of them. The resources are reserved in the backend first, without
+     * holding the lock of the reservations, and the reservations are published only if all of them succeeded.
+     */
+    private boolean tryReserveAll(
+            final List<ReservedResource> reservations,
+            final ReservationBackend backend) {
+        
+        return tryReserveAll(reservations, backend, false);
+    }
+    
+    /**
+     * Reserves all given resources or none of them, see {@link #tryReserveAll(List, ReservationBackend)}.
+     * 
+     * @param handOut true if the resources are handed out to a build, so they also have to be online and not
+     *      earmarked, which is checked under the lock together with the reservations since the nodes were selected
+     *      without it; false for reservations that do not need it, e.g. manual ones or retirement.
+     */
+    private boolean tryReserveAll(
+            final List<ReservedResource> reservations,
+            final ReservationBackend backend,
+            final boolean handOut) {
+        
+        final List<String> nodeNames = reservations.stream()
+            .map(reservation -> reservation.getNode().getNodeName())
+            .collect(Collectors.toList());
+        
+        synchronized (reservedByNodeName) {
+            for (ReservedResource reservation : reservations) {
+                final String nodeName = reservation.getNode().getNodeName();
+                
+                if (reservedByNodeName.containsKey(nodeName) || nodeNamesInBackend.contains(nodeName)) {
+                    return false;
+                }
+                
+                if (handOut && (!isOnline(reservation.getNode()) || isEarmarked(nodeName))) {
+                    return false;
+                }
+            }
+            
+            nodeNamesInBackend.addAll(nodeNames);
+        }
+        
+        final List<String> reservedNodeNames = new ArrayList<>(nodeNames.size());
+        
+        try {
+            for (String nodeName : nodeNames) {
+                if (!backend.tryReserve(nodeName)) {
+                    break;
+                }
+                
+                reservedNodeNames.add(nodeName);
+            }
+        }
+        finally {
+            final boolean reserved = reservedNodeNames.size() == nodeNames.size();
+            
+            if (!reserved) {
+                reservedNodeNames.forEach(backend::release);
+            }
+            
+            synchronized (reservedByNodeName) {
+                nodeNamesInBackend.removeAll(nodeNames);
+                
+                if (reserved) {
+                    for (ReservedResource reservation : reservations) {
+                        reservedByNodeName.put(reservation.getNode().getNodeName(), reservation);
+                    }
+                }
+            }
+        }
+        
+        return reservedNodeNames.size() == nodeNames.size();
+    }
+    
+    /**
+     * Removes the local reservation and keeps the resource unavailable until it is released in the backend
+     * by {@link #releaseInBackend}. Must be called while holding the lock of the reservations.
+     */
+    private void removeReservation(final String nodeName) {
+        
+        reservedByNodeName.remove(nodeName);
+        nodeNamesInBackend.add(nodeName);
+    }
+    
+    /**
+     * Releases the resources removed by {@link #removeReservation} in the backend, without holding the lock
+     * of the reservations, and makes them available again.
+     */
+    private void releaseInBackend(
+            final List<String> nodeNames,
+            final ReservationBackend backend) {
+        
+        try {
+            nodeNames.forEach(backend::release);
+        }
+        finally {
+            synchronized (reservedByNodeName) {
+                nodeNamesInBackend.removeAll(nodeNames);
+            }
+        }
+    }
+    
+    /**
+     * Stops using a resource whose reservation in the backend was lost.
+     */
+    private void invalidateReservation(final String nodeName) {
+        
+        final ReservedResource lostReservation = reservedByNodeName.remove(nodeName);
+        
+        if (lostReservation == null) {
+            return;
+        }
+        
+        final String message = "Reservation of '" + nodeName + "' was lost, the resource may be used by another"
+            + " Jenkins controller now.";
+        
+        log.severe(message);
+        
+        if (lostReservation.getStatus() != Status.RESERVED) {
+            return;
+        }
+        
+        fireEvent(listener -> listener.onReleased(
+            lostReservation, System.currentTimeMillis() - lostReservation.getReservedAt()));
+        
+        final AbstractBuild<?, ?> build = lostReservation.getReservedBy().getBuild();
+        final Executor executor = build == null ? null : build.getExecutor();
+        
+        // The other resources of the build are released by the build wrapper when the build stops.
+        if (executor != null) {
+            executor.interrupt(Result.FAILURE, new ReservableResourcesInterruption(message));
+        }
+    }
+    
+    private static void fireBundleTimedOut(
+            final List<RequiredReservableResource> requiredResources,
+            final AbstractBuild<?, ?> build,
+            final long waitInMillis) {
+        
+        for (RequiredReservableResource requiredResource : requiredResources) {
+            fireEvent(listener -> listener.onTimedOut(requiredResource.getResourceLabel(), build, waitInMillis));
+        }
+    }
+    
+    /**
+     * Checks that the node can be handed out: it is online, healthy, not reserved here or by another controller,
+     * not earmarked for a queued build and not booked by an advance reservation before it would be released.
+     * 
+     * @param until Time the node would be held until, in milliseconds since epoch.
+     */
+    private boolean isAvailable(
+            final Node node,
+            final ReservationBackend backend,
+            final long until) {
+        
+        return isOnline(node)
+            && !ResourceHealthMonitor.isUnhealthy(node.getNodeName())
+            && !reservedByNodeName.containsKey(node.getNodeName())
+            && !nodeNamesInBackend.contains(node.getNodeName())
+            && !isEarmarked(node.getNodeName())
+            && !backend.isReservedElsewhere(node.getNodeName())
+            && !ReservationCalendar.get().isBooked(node.getNodeName(), System.currentTimeMillis(), until);
+    }
+    
+    private boolean isEarmarked(final String nodeName) {
+        
+        final Earmark earmark = earmarksByNodeName.get(nodeName);
+        
+        return earmark != null && earmark.expiresAt > System.currentTimeMillis();
+    }
+    
+    /**
+     * Checks that the node is still configured and its agent is online. The computer of a node that is
+     * being removed is already gone.
+     */
+    private static boolean isOnline(final Node node) {
+        
+        final Computer computer = node.toComputer();
+        
+        return computer != null && computer.isOnline() && Jenkins.get().getNode(node.getNodeName()) != null;
+    }
+    
+    /**
+     * Undoes reservations that were not handed out, so no events were fired for them.
+     */
+    private void rollBack(
+            final List<ReservedResource> reservations,
+            final ReservationBackend backend) {
+        
+        final List<String> removedNodeNames = new ArrayList<>(reservations.size());
+        
+        synchronized (reservedByNodeName) {
+            for (ReservedResource reservation : reservations) {
+                String nodeName = reservation.getNode().getNodeName();
+                
+                if (reservedByNodeName.get(nodeName) == reservation) {
+                    removeReservation(nodeName);
+                    removedNodeNames.add(nodeName);
+                }
+            }
+        }
+        
+        releaseInBackend(removedNodeNames, backend);
+    }
+    
+    /**
+     * Gives the node preempted for a build that was aborted right after the grant back to the manual reservation,
+     * the same as if the build stopped waiting before it, instead of releasing it.
+     */
+    private void restorePreemptedReservation(
+            final ReservedResource preempted,
+            final AbstractBuild<?, ?> build) {
+        
+        final String nodeName = preempted.getNode().getNodeName();
+        final ReservedResource reservation;
+        
+        synchronized (reservedByNodeName) {
+            reservation = reservedByNodeName.get(nodeName);
+            
+            if (reservation == null
+                    || reservation.getStatus() != Status.RESERVED
+                    || reservation.getReservedBy().getBuild() != build) {
+                return;
+            }
+            
+            reservedByNodeName.put(nodeName, preempted);
+        }
+        
+        log.info("Restored reservation of '" + nodeName + "' made by " + preempted.getReservedBy().getDisplayName()
+            + ", " + build + " was aborted right after preempting it.");
+        
+        fireEvent(listener -> listener.onReleased(reservation, System.currentTimeMillis() - reservation.getReservedAt()));
+    }
+    
+    /**
+     * Gets the time a build starting now would hold a resource until, including the drain margin
+     * before advance reservation windows.
+     */
+    private long getHoldHorizon(final long expectedHoldInMillis) {
+        
+        return System.currentTimeMillis() + expectedHoldInMillis + ReservationCalendar.getDrainMarginInMillis();
+    }
+    
+    private void recordHoldDuration(
+            final ReservedResource releasedResource,
+            final long duration) {
+        
+        final AbstractBuild<?, ?> build = releasedResource.getReservedBy().getBuild();
+        
+        if (build == null || releasedResource.getLabel() == null) {
+            return;
+        }
+        
+        holdStatisticsByLabel.computeIfAbsent(releasedResource.getLabel(), k -> new HoldStatistics()).record(duration);
+        holdStatisticsByJob.computeIfAbsent(build.getParent().getFullName(), k -> new HoldStatistics()).record(duration);
+    }
+    
+    /**
+     * Simulates the hand-out of resources to the builds ahead, assuming every build holds the resource
+     * for its average hold duration, and returns when next resource would be free after that.
+     */
+    private long estimateWaitTime(
+            final String label,
+            final List<AbstractBuild<?, ?>> buildsAhead) {
+        
+        final HoldStatistics labelStatistics = holdStatisticsByLabel.get(label);
+        
+        if (labelStatistics == null || labelStatistics.getCount() == 0) {
+            return -1;
+        }
+        
+        final long now = System.currentTimeMillis();
+        
+        final ReservationBackend backend = getReservationBackend();
+        
+        PriorityQueue<Long> freeTimes = new PriorityQueue<>();
+        
+        for (Node node : getReservableNodes(label)) {
+            if (!isOnline(node)
+                    || ResourceHealthMonitor.isUnhealthy(node.getNodeName())
+                    || backend.isReservedElsewhere(node.getNodeName())) {
+                continue;
+            }
+            
+            ReservedResource reservedResource = reservedByNodeName.get(node.getNodeName());
+            
+            if (reservedResource == null || reservedResource.getStatus() == Status.CLEANING) {
+                freeTimes.add(now);
+            }
+            else if (reservedResource.getReservedBy().getBuild() != null) {
+                long heldFor = now - reservedResource.getReservedAt();
+                long expectedHold = getExpectedHoldDuration(label, reservedResource.getReservedBy().getBuild());
+                
+                freeTimes.add(now + Math.max(0, expectedHold - heldFor));
+            }
+            
+            // Manual reservations and quarantined resources have no predictable end.
+        }
+        
+        if (freeTimes.isEmpty()) {
+            return -1;
+        }
+        
+        for (AbstractBuild<?, ?> buildAhead : buildsAhead) {
+            freeTimes.add(freeTimes.poll() + getExpectedHoldDuration(label, buildAhead));
+        }
+        
+        return Math.max(0, freeTimes.poll() - now);
+    }
+    
+    private long getExpectedHoldDuration(
+            final String label,
+            final AbstractBuild<?, ?> build) {
+        
+        return getExpectedHoldDuration(label, build.getParent().getFullName());
+    }
+    
+    private long getExpectedHoldDuration(
+            final String label,
+            final String jobFullName) {
+        
+        HoldStatistics jobStatistics = holdStatisticsByJob.get(jobFullName);
+        
+        if (jobStatistics != null && jobStatistics.getCount() > 0) {
+            return jobStatistics.getAverage();
+        }
+        
+        HoldStatistics labelStatistics = holdStatisticsByLabel.get(label);
+        
+        return labelStatistics == null ? 0 : labelStatistics.getAverage();
+    }
+    
+    private static ReservationBackend getReservationBackend() {
+        
+        return ReservableResourcesConfiguration.get().getReservationBackend();
+    }
+    
+    private static SchedulingPolicy getSchedulingPolicy() {
+        
+        return ReservableResourcesConfiguration.get().getSchedulingPolicy();
+    }
+    
+    private static void fireEvent(final Consumer<ReservableResourcesListener> event) {
+        
+        for (ReservableResourcesListener listener : ReservableResourcesListener.all()) {
+            try {
+                event.accept(listener);
+            }
+            catch (RuntimeException exception) {
+                log.log(Level.WARNING, "Listener " + listener + " failed to handle an event.", exception);
+            }
+        }
+    }
+    
+    private void submitReset(
+            final ReservedResource cleaningResource,
+            final NodePropertyExtension property) {
+        
+        synchronized (resetExecutor) {
+            final int maxParallelResets = ReservableResourcesConfiguration.get().getMaxParallelResets();
+            
+            // Order matters, core pool size can never be bigger than maximum pool size.
+            if (maxParallelResets > resetExecutor.getMaximumPoolSize()) {
+                resetExecutor.setMaximumPoolSize(maxParallelResets);
+                resetExecutor.setCorePoolSize(maxParallelResets);
+            }
+            else {
+                resetExecutor.setCorePoolSize(maxParallelResets);
+                resetExecutor.setMaximumPoolSize(maxParallelResets);
+            }
+        }
+        
+        resetExecutor.execute(() -> resetResource(cleaningResource, property));
+    }
+    
+    private void resetResource(
+            final ReservedResource cleaningResource,
+            final NodePropertyExtension property) {
+        
+        final Node node = cleaningResource.getNode();
+        final String nodeName = node.getNodeName();
+        
+        String failure;
+        
+        try {
+            for (ResetHook resetHook : property.getResetHooks()) {
+                resetHook.reset(node, property.getSettingsMap());
+            }
+            
+            boolean removed = false;
+            
+            synchronized (reservedByNodeName) {
+                if (reservedByNodeName.get(nodeName) == cleaningResource) {
+                    removeReservation(nodeName);
+                    removed = true;
+                }
+            }
+            
+            if (removed) {
+                releaseInBackend(Collections.singletonList(nodeName), getReservationBackend());
+            }
+            
+            log.fine("Resource " + nodeName + " was reset.");
+            return;
+        }
+        catch (IOException | RuntimeException exception) {
+            log.log(Level.WARNING, "Reset of resource " + nodeName + " failed.", exception);
+            
+            failure = exception.getMessage();
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            
+            failure = "Reset was interrupted.";
+        }
+        
+        reservedByNodeName.replace(
+            nodeName,
+            cleaningResource,
+            new ReservedResource(node, Status.QUARANTINED, "Quarantined: " + failure));
+    }
+    
+    private List<Node> getReservableNodes(String resourceLabel) {
+
+        List<Node> reservableNodes = Jenkins.get().getNodes().stream()
+            .filter(node -> node.getNodeProperty(NodePropertyExtension.class) != null)
+            .filter(reservableNode -> hasLabel(reservableNode.getLabelString(), resourceLabel))
+            .collect(Collectors.toList());
+        
+        log.log(Level.FINEST, "Got reservable resources {0}.", reservableNodes);
+        
+        return reservableNodes;
+    }
+    
+    /**
+     * Singleton instance.
+     */
+    private static ReservableResourcesManager instance;
+    
+    /**
+     * Gets the {@link ReservableResourcesManager} singleton. 
+     * 
+     * @return The instance; never null.
+     */
+    @Nonnull
+    public static synchronized ReservableResourcesManager getInstance() {
+
+        if (instance == null) {
+            instance = new ReservableResourcesManager();
+        }
+
+        return instance;
+    }
+        
+    private final class BuildQueue {
+    
+        private final String label;
+        
+        /**
+         * Order of the queue, changed only together with reordering the queue, see {@link #applySchedulingPolicy()}.
+         */
+        @SuppressWarnings("java:S3077")
+        private volatile Comparator<SchedulingRequest> queueOrder = getSchedulingPolicy().getQueueOrder();
+        
+        private final PriorityBlockingQueue<AcquireTask> queue = new PriorityBlockingQueue<>(
+            11, Comparator.comparing(AcquireTask::getRequest, (first, second) -> queueOrder.compare(first, second)));
+        
+        private final ExecutorService executor;
+        
+        @SuppressWarnings("java:S3077")
+        private volatile AcquireTask currentAcquireTask;
+        
+        public BuildQueue(String label) {
+
+            this.label = label;
+            this.executor = Executors.newSingleThreadExecutor(
+                QueueThreads.newThreadFactory("ReservableResourcesQueue " + label));
+            
+            executor.execute(() -> {
+                                
+                while (true) {
+                    AcquireTask acquireTask = null;
+                    
+                    try {
+                        applySchedulingPolicy();
+                        
+                        acquireTask = queue.take();
+                        currentAcquireTask = acquireTask;
+                        
+                        handOutNextAvailableNode(label, acquireTask);
+                    }
+                    catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (Exception exception) {
+                        // Don't stop polling, but don't leave the build waiting until it times out either.
+                        log.log(Level.WARNING, LOG_PREFIX + "Failed to hand out a resource from '" + label + "'.", exception);
+                        
+                        if (acquireTask != null) {
+                            acquireTask.fail(exception);
+                        }
+                    }
+                    finally {
+                        currentAcquireTask = null;
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Reorders the waiting tasks if the configured scheduling policy changed. Called by the queue thread only,
+         * so that no task is taken while the queue is being reordered, and with the lock of the queue held,
+         * so that no task is added meanwhile.
+         */
+        private synchronized void applySchedulingPolicy() {
+            
+            final Comparator<SchedulingRequest> configuredQueueOrder = getSchedulingPolicy().getQueueOrder();
+            
+            if (configuredQueueOrder == queueOrder) {
+                return;
+            }
+            
+            final List<AcquireTask> acquireTasks = new ArrayList<>();
+            
+            queue.drainTo(acquireTasks);
+            queueOrder = configuredQueueOrder;
+            queue.addAll(acquireTasks);
+            
+            log.info(LOG_PREFIX + "Reordered " + acquireTasks.size() + " builds waiting for '" + label
+                + "' by the new scheduling policy.");
+        }
+        
+        @SuppressWarnings("java:S1452")
+        public List<AbstractBuild<?, ?>> getQueueBuilds() {
+            
+            List<AbstractBuild<?, ?>> builds = new ArrayList<>();
+            
+            if (currentAcquireTask != null) {
+                builds.add(currentAcquireTask.build);
+            }
+            
+            // Iterator of the priority queue is not ordered.
+            builds.addAll(queue.stream()
+                .sorted(queue.comparator())
+                .map(AcquireTask::getBuild)
+                .collect(Collectors.toList()));
+            
+            return builds;
+        }
+        
+        public List<Node> acquireAvailableNodes(
+                int timeoutInMinutes,
+                int count,
+                AbstractBuild<?, ?> build,
+                int priority,
+                LongConsumer waitEstimateConsumer) throws InterruptedException, TimeoutException, AdmissionRejectedException {
+
+            AcquireTask acquireTask = new AcquireTask(
+                build,
+                new SchedulingRequest(
+                    requestSequence.incrementAndGet(),
+                    priority,
+                    System.currentTimeMillis(),
+                    getExpectedHoldDuration(label, build)),
+                count,
+                null,
+                null,
+                Tracer.currentSpan());
+            
+            return await(acquireTask, timeoutInMinutes, waitEstimateConsumer);
+        }
+        
+        public List<Node> acquireBundle(
+                int timeoutInMinutes,
+                List<RequiredReservableResource> requiredResources,
+                String groupSettingKey,
+                AbstractBuild<?, ?> build,
+                int priority,
+                LongConsumer waitEstimateConsumer) throws InterruptedException, TimeoutException, AdmissionRejectedException {
+
+            AcquireTask acquireTask = new AcquireTask(
+                build,
+                new SchedulingRequest(
+                    requestSequence.incrementAndGet(),
+                    priority,
+                    System.currentTimeMillis(),
+                    getBundleLabels(requiredResources).stream()
+                        .mapToLong(bundleLabel -> getExpectedHoldDuration(bundleLabel, build))
+                        .max()
+                        .orElse(0)),
+                requiredResources.size(),
+                requiredResources,
+                groupSettingKey,
+                Tracer.currentSpan());
+            
+            return await(acquireTask, timeoutInMinutes, waitEstimateConsumer);
+        }
+        
+        private List<Node> await(
+                AcquireTask acquireTask,
+                int timeoutInMinutes,
+                LongConsumer waitEstimateConsumer) throws InterruptedException, TimeoutException, AdmissionRejectedException {
+            
+            final AbstractBuild<?, ?> build = acquireTask.build;
+            
+            // Admission check and enqueue are atomic, so concurrent builds cannot overfill the queue.
+            synchronized (this) {
+                checkAdmission();
+                
+                queue.add(acquireTask);
+            }
+            
+            final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutInMinutes);
+            
+            boolean granted = false;
+            
+            try {
+                // Wait in slices so that the wait time estimate can be refreshed.
+                while (true) {
+                    waitEstimateConsumer.accept(estimateWaitTime(build));
+                    
+                    long remaining = deadline - System.nanoTime();
+                    
+                    if (remaining <= 0) {
+                        handOutHook.beforeWithdraw(build);
+                        
+                        if (acquireTask.withdraw()) {
+                            if (acquireTask.bundleResources == null) {
+                                fireEvent(listener -> listener.onTimedOut(label, build, acquireTask.getWaitTime()));
+                            }
+                            else {
+                                fireBundleTimedOut(acquireTask.bundleResources, build, acquireTask.getWaitTime());
+                            }
+                            
+                            throw new TimeoutException();
+                        }
+                        
+                        // The nodes were handed out right at the deadline, so take them rather than leak them.
+                        List<Node> nodes = acquireTask.get();
+                        
+                        granted = true;
+                        return nodes;
+                    }
+                    
+                    try {
+                        List<Node> nodes = acquireTask.get(
+                            Math.min(remaining, TimeUnit.SECONDS.toNanos(WAIT_ESTIMATE_REFRESH_IN_SECONDS)),
+                            TimeUnit.NANOSECONDS);
+                        
+                        granted = true;
+                        return nodes;
+                    }
+                    catch (TimeoutException ignoreException) {
+                        // Time to refresh the estimate or the deadline was reached.
+                    }
+                }
+            }
+            catch (ExecutionException exception) {
+                // The hand-out failed unexpectedly, see the queue thread.
+                throw new InterruptedException(exception.getMessage());
+            }
+            finally {
+                queue.remove(acquireTask);
+                
+                // Aborted while the nodes were being handed out, so give them back.
+                if (!granted && !acquireTask.withdraw()) {
+                    if (acquireTask.preemptedReservation != null) {
+                        restorePreemptedReservation(acquireTask.preemptedReservation, build);
+                    }
+                    else {
+                        for (Node node : acquireTask.getGrantedNodes()) {
+                            releaseResource(node.getNodeName(), build);
+                        }
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Checks the admission limits of the label policy, if there is one.
+         */
+        private void checkAdmission() throws AdmissionRejectedException {
+            
+            final LabelPolicy labelPolicy = ReservableResourcesConfiguration.get().getLabelPolicy(label);
+            
+            if (labelPolicy == null) {
+                return;
+            }
+            
+            final int queueLength = getQueueBuilds().size();
+            
+            if (labelPolicy.getMaxQueueLength() > 0 && queueLength >= labelPolicy.getMaxQueueLength()) {
+                throw new AdmissionRejectedException(
+                    "There are already " + queueLength + " builds waiting for a resource from '" + label
+                        + "', which is the maximum allowed.",
+                    labelPolicy.isRescheduleRejected(),
+                    labelPolicy.getRescheduleDelayInSeconds());
+            }
+            
+            if (labelPolicy.getMaxPredictedWaitInMinutes() > 0) {
+                final long predictedWait = estimateWaitTime(label, getQueueBuilds());
+                
+                if (predictedWait > TimeUnit.MINUTES.toMillis(labelPolicy.getMaxPredictedWaitInMinutes())) {
+                    throw new AdmissionRejectedException(
+                        "Predicted wait for a resource from '" + label + "' is " + Util.getTimeSpanString(predictedWait)
+                            + ", which is more than the maximum allowed " + labelPolicy.getMaxPredictedWaitInMinutes()
+                            + " minutes.",
+                        labelPolicy.isRescheduleRejected(),
+                        labelPolicy.getRescheduleDelayInSeconds());
+                }
+            }
+        }
+        
+        private void handOutNextAvailableNode(
+                String label,
+                AcquireTask acquireTask) throws InterruptedException {
+            
+            try (Span span = Tracer.startSpan("handOutNextAvailableNode", acquireTask.span)) {
+                span.setAttribute("label", label);
+                span.setAttribute("build", acquireTask.build.getFullDisplayName());
+                span.setAttribute("queueWaitMillis", acquireTask.getWaitTime());
+                
+                handOutNextAvailableNode(label, acquireTask, span);
+            }
+        }
+        
+        private void handOutNextAvailableNode(
+                String label,
+                AcquireTask acquireTask,
+                Span span) throws InterruptedException {
+            
+            if (acquireTask.bundleResources != null) {
+                handOutBundle(acquireTask, span);
+                return;
+            }
+            
+            int scans = 0;
+
+            // The task is done as soon as the build withdraws it (timed out or was aborted).
+            while (acquireTask.build.isBuilding() && !acquireTask.isDone()) {
+                final ReservationBackend backend = getReservationBackend();
+                final long until = getHoldHorizon(acquireTask.request.getExpectedHoldInMillis());
+                
+                List<Node> availableNodes = getReservableNodes(label).stream()
+                    .filter(node -> isAvailable(node, backend, until))
+                    .collect(Collectors.toList());
+                
+                span.setAttribute("scans", ++scans);
+                
+                // Nothing is reserved until all the requested nodes are available, so waiting tasks hold no nodes.
+                if (availableNodes.size() < acquireTask.count) {
+                    if (acquireTask.count == 1 && canPreempt(acquireTask) && preemptReservation(label, acquireTask)) {
+                        return;
+                    }
+                    
+                    TimeUnit.SECONDS.sleep(1);
+                    continue;
+                }
+                
+                final List<Node> selectedNodes =
+                    getSchedulingPolicy().selectResources(availableNodes, acquireTask.count, random);
+                final List<ReservedResource> reservations = selectedNodes.stream()
+                    .map(selectedNode -> new ReservedResource(selectedNode, acquireTask.build, label))
+                    .collect(Collectors.toList());
+                
+                try (Span reserveSpan = Tracer.startSpan("reserveNodes")) {
+                    reserveSpan.setAttribute("nodes", getNodeNames(selectedNodes));
+                    
+                    handOutHook.beforeReserve(selectedNodes);
+                    
+                    // All or nothing, also in the shared store if resources are shared with other controllers.
+                    // Agents can disconnect and builds can earmark the resources while they are being selected.
+                    if (!tryReserveAll(reservations, backend, true)) {
+                        reserveSpan.setError("Resources went offline or were taken by someone else.");
+                        continue;
+                    }
+                    
+                    handOutHook.beforeGrant(selectedNodes);
+                    
+                    // The build can withdraw at any moment, so the reservations are kept only if it gets them.
+                    if (!acquireTask.grant(selectedNodes)) {
+                        rollBack(reservations, backend);
+                        
+                        reserveSpan.setError("Build stopped waiting.");
+                        return;
+                    }
+                }
+                
+                span.setAttribute("nodes", getNodeNames(selectedNodes));
+                
+                for (ReservedResource reservation : reservations) {
+                    fireEvent(listener -> listener.onReserved(reservation, acquireTask.getWaitTime()));
+                }
+
+                return;
+            }
+            
+        }
+        
+        /**
+         * Hands out a whole bundle from one group once there is one that fits. Bundles are not served by preemption.
+         */
+        private void handOutBundle(
+                AcquireTask acquireTask,
+                Span span) throws InterruptedException {
+            
+            int scans = 0;
+            
+            while (acquireTask.build.isBuilding() && !acquireTask.isDone()) {
+                final ReservationBackend backend = getReservationBackend();
+                
+                span.setAttribute("scans", ++scans);
+                
+                List<ReservedResource> reservations = reserveBundle(
+                    acquireTask.bundleResources,
+                    acquireTask.groupSettingKey,
+                    acquireTask.build,
+                    backend,
+                    getHoldHorizon(acquireTask.request.getExpectedHoldInMillis()));
+                
+                if (reservations == null) {
+                    TimeUnit.SECONDS.sleep(1);
+                    continue;
+                }
+                
+                final List<Node> nodes = reservations.stream()
+                    .map(ReservedResource::getNode)
+                    .collect(Collectors.toList());
+                
+                handOutHook.beforeGrant(nodes);
+                
+                if (!acquireTask.grant(nodes)) {
+                    rollBack(reservations, backend);
+                    
+                    span.setError("Build stopped waiting.");
+                    return;
+                }
+                
+                span.setAttribute("nodes", getNodeNames(nodes));
+                
+                for (ReservedResource reservation : reservations) {
+                    fireEvent(listener -> listener.onReserved(reservation, acquireTask.getWaitTime()));
+                }
+                
+                return;
+            }
+        }
+        
+        private boolean canPreempt(AcquireTask acquireTask) {
+            
+            ReservableResourcesConfiguration configuration = ReservableResourcesConfiguration.get();
+            
+            long waitedInSeconds = TimeUnit.MILLISECONDS.toSeconds(acquireTask.getWaitTime());
+            
+            return acquireTask.request.getPriority() >= configuration.getPreemptionMinimumPriority()
+                && waitedInSeconds >= configuration.getPreemptionWaitInSeconds();
+        }
+        
+        /**
+         * Takes over the oldest preemptible manual reservation of an online node with given label.
+         * 
+         * @return true if a node was handed out to the task, false otherwise.
+         */
+        private boolean preemptReservation(
+                String label,
+                AcquireTask acquireTask) {
+            
+            final ReservedResource preempted;
+            final ReservedResource reservation;
+            final Node preemptedNode;
+            
+            synchronized (reservedByNodeName) {
+                if (acquireTask.isDone()) {
+                    return false;
+                }
+                
+                final long now = System.currentTimeMillis();
+                final long until = getHoldHorizon(acquireTask.request.getExpectedHoldInMillis());
+                
+                Optional<ReservedResource> candidate = getReservableNodes(label).stream()
+                    .filter(ReservableResourcesManager::isOnline)
+                    .filter(onlineNode -> !ResourceHealthMonitor.isUnhealthy(onlineNode.getNodeName()))
+                    .filter(healthyNode -> !ReservationCalendar.get().isBooked(healthyNode.getNodeName(), now, until))
+                    .map(node -> reservedByNodeName.get(node.getNodeName()))
+                    .filter(reservedResource -> reservedResource != null && reservedResource.isPreemptible())
+                    .min(Comparator.comparingLong(ReservedResource::getReservedAt));
+                
+                if (!candidate.isPresent()) {
+                    return false;
+                }
+                
+                preempted = candidate.get();
+                preemptedNode = preempted.getNode();
+                
+                reservation = new ReservedResource(preemptedNode, acquireTask.build, label);
+                
+                reservedByNodeName.put(preemptedNode.getNodeName(), reservation);
+                
+                // Published before the grant, so that a build aborted right after it can restore the reservation.
+                acquireTask.preemptedReservation = preempted;
+                
+                // The build stopped waiting in the meantime, so the manual reservation stays.
+                if (!acquireTask.grant(Collections.singletonList(preemptedNode))) {
+                    reservedByNodeName.put(preemptedNode.getNodeName(), preempted);
+                    
+                    return false;
+                }
+            }
+            
+            final String message = "Reservation of '" + preemptedNode.getNodeName() + "' made by "
+                + preempted.getReservedBy().getDisplayName() + " was preempted by " + acquireTask.build + ".";
+            
+            log.warning(message);
+            
+            recentPreemptions.addFirst(message);
+            
+            while (recentPreemptions.size() > MAX_RECENT_PREEMPTIONS) {
+                recentPreemptions.pollLast();
+            }
+            
+            fireEvent(listener -> listener.onPreempted(preempted, acquireTask.build));
+            fireEvent(listener -> listener.onReserved(reservation, acquireTask.getWaitTime()));
+            
+            return true;
+        }
+    }
+    
+    /**
+     * Resource acquired for a root build and shared by its child builds.
+     */
+    private static final class SharedReservation {
+        
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final Semaphore permits;
+        
+        private volatile Node node;
+        
+        public SharedReservation(int maxSharingBuilds) {
+            
+            this.permits = maxSharingBuilds > 0 ? new Semaphore(maxSharingBuilds, true) : null;
+        }
+    }
+    
+    /**
+     * Resources handed off by a build and not claimed yet.
+     */
+    private static final class HandOff {
+        
+        private final String token;
+        private final long expiresAt;
+        private final List<ReservedResource> pendingReservations = new ArrayList<>();
+        private final Map<String, String> labelsByNodeName = new HashMap<>();
+        
+        public HandOff(
+                String token,
+                long expiresAt) {
+            
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    /**
+     * Soft hold of a free resource for a build waiting in the Jenkins queue.
+     */
+    private static final class Earmark {
+        
+        private final long queueId;
+        private final String label;
+        private final long expiresAt;
+        
+        public Earmark(
+                long queueId,
+                String label,
+                long expiresAt) {
+            
+            this.queueId = queueId;
+            this.label = label;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    private static List<String> getNodeNames(final List<Node> nodes) {
+        
+        return nodes.stream()
+            .map(Node::getNodeName)
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Points where the queue thread handing out resources and the build waiting for them race with each other.
+     */
+    interface HandOutHook {
+        
+        /**
+         * Called by the queue thread after it selected the nodes, before it reserves them.
+         * 
+         * @param selectedNodes The selected nodes.
+         * 
+         * @throws InterruptedException if the queue thread is interrupted.
+         */
+        default void beforeReserve(List<Node> selectedNodes) throws InterruptedException {
+            
+            // Nothing to do by default.
+        }
+        
+        /**
+         * Called by the queue thread after it reserved the nodes, before it hands them out to the build.
+         * 
+         * @param reservedNodes The reserved nodes.
+         * 
+         * @throws InterruptedException if the queue thread is interrupted.
+         */
+        default void beforeGrant(List<Node> reservedNodes) throws InterruptedException {
+            
+            // Nothing to do by default.
+        }
+        
+        /**
+         * Called by the waiting build when it reached its time-out, before it withdraws its request.
+         * 
+         * @param build The waiting build.
+         * 
+         * @throws InterruptedException if the build is aborted.
+         */
+        default void beforeWithdraw(AbstractBuild<?, ?> build) throws InterruptedException {
+            
+            // Nothing to do by default.
+        }
+    }
+    
+    /**
+     * Request of a waiting build, either for a number of resources with the label of the queue or for a bundle
+     * of resources from one group. The queue thread grants it nodes and the build withdraws it when it times out
+     * or is aborted; the underlying future makes sure exactly one of them wins.
+     */
+    private static final class AcquireTask extends FutureTask<List<Node>> {
+
+        private final AbstractBuild<?, ?> build;
+        private final SchedulingRequest request;
+        private final int count;
+        private final List<RequiredReservableResource> bundleResources;
+        private final String groupSettingKey;
+        private final Span span;
+        
+        @SuppressWarnings("java:S3077")
+        private volatile List<Node> grantedNodes;
+        
+        /**
+         * Manual reservation the granted node was preempted from, if any.
+         */
+        @SuppressWarnings("java:S3077")
+        private volatile ReservedResource preemptedReservation;
+        
+        public AcquireTask(
+                AbstractBuild<?,?> build,
+                SchedulingRequest request,
+                int count,
+                List<RequiredReservableResource> bundleResources,
+                String groupSettingKey,
+                Span span) {
+
+            super(() -> null);
+            
+            this.build = build;
+            this.request = request;
+            this.count = count;
+            this.bundleResources = bundleResources;
+            this.groupSettingKey = groupSettingKey;
+            this.span = span;
+        }
+
+        @SuppressWarnings("java:S1452")
+        public AbstractBuild<?, ?> getBuild() {
+
+            return build;
+        }
+
+        public SchedulingRequest getRequest() {
+
+            return request;
+        }
+
+        /**
+         * Gets how long this task is waiting (or was waiting) for a node.
+         * 
+         * @return Time in milliseconds.
+         */
+        public long getWaitTime() {
+            
+            return System.currentTimeMillis() - request.getQueuedAt();
+        }
+
+        /**
+         * Hands the nodes out to the build, unless it withdrew the task already.
+         * 
+         * @param nodes The reserved nodes.
+         * 
+         * @return true if the build got the nodes, false if the caller has to release them.
+         */
+        public boolean grant(List<Node> nodes) {
+
+            // Published before the future completes, so that a build losing the race can give them back.
+            this.grantedNodes = nodes;
+            this.set(nodes);
+            
+            return !isCancelled();
+        }
+        
+        /**
+         * Withdraws the task, unless nodes were granted to it already.
+         * 
+         * @return true if the task was withdrawn, false if it is done already.
+         */
+        public boolean withdraw() {
+            
+            return cancel(false);
+        }
+        
+        /**
+         * Fails the task, so that the build stops waiting.
+         * 
+         * @param cause The failure.
+         */
+        public void fail(Throwable cause) {
+            
+            this.setException(cause);
+        }
+        
+        /**
+         * Gets the nodes granted to the task.
+         * 
+         * @return List of the nodes; empty if the task was withdrawn or failed.
+         */
+        public List<Node> getGrantedNodes() {
+            
+            final List<Node> nodes = grantedNodes;
+            
+            return nodes == null || isCancelled() ? Collections.emptyList() : nodes;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkins.plugins.reservableresources.backend.ReservationBackend;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+/**
+ * Periodically refreshes the {@link ReservationBackend}, which keeps the reservations of this controller
+ * alive and updates the locally cached reservations of other controllers; builds using resources whose
+ * reservation was lost are interrupted. Also releases the resources of hand-offs that were not claimed
+ * in time and removes expired earmarks.
+ */
+@Extension
+public class ReservationLeaseRenewer extends AsyncPeriodicWork {
+
+    public static final int REFRESH_INTERVAL_IN_SECONDS = 30;
+    
+    public ReservationLeaseRenewer() {
+
+        super("Reservable resources lease renewer");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+
+        return TimeUnit.SECONDS.toMillis(REFRESH_INTERVAL_IN_SECONDS);
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+
+        ReservableResourcesManager.getInstance().expireHandOffs();
+        ReservableResourcesManager.getInstance().expireEarmarks();
+        
+        ReservableResourcesManager.getInstance().refreshReservationBackend();
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.model.LabelPolicy;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+import org.jenkins.plugins.reservableresources.model.ResourceProvisioner;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Periodically compares the build queue of every label that has an autoscaling {@link LabelPolicy}
+ * with its thresholds, provisions extra resources when the queue stays over them and retires the provisioned
+ * resources after they were idle long enough.
+ * <p>
+ * Provisioning is rate limited per label and resources that are still warming up (not online yet) count as
+ * capacity on its way, so one burst of builds does not provision a resource on every evaluation.
+ * The provisioned resources are remembered on disk so they are retired even after a restart.
+ * 
+ * @see ResourceProvisioner
+ */
+@Extension
+public class ResourceAutoscaler extends AsyncPeriodicWork {
+
+    private static final Logger log = Logger.getLogger(ResourceAutoscaler.class.getName());
+    
+    private static final long EVALUATION_INTERVAL_IN_SECONDS = SystemProperties.getLong(
+        ResourceAutoscaler.class.getName() + ".evaluationIntervalInSeconds", 30L);
+    
+    private final Map<String, Long> overloadedSinceByLabel = new HashMap<>();
+    private final Map<String, Long> lastProvisionByLabel = new HashMap<>();
+    private final Map<String, Long> idleSinceByNodeName = new HashMap<>();
+    private final Map<String, HoldStatistics> warmUpStatisticsByLabel = new ConcurrentHashMap<>();
+    
+    private List<ProvisionedResource> provisionedResources;
+    
+    public ResourceAutoscaler() {
+
+        super("Reservable resources autoscaler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+
+        return TimeUnit.SECONDS.toMillis(EVALUATION_INTERVAL_IN_SECONDS);
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+
+        if (provisionedResources == null) {
+            provisionedResources = load();
+        }
+        
+        for (LabelPolicy labelPolicy : ReservableResourcesConfiguration.get().getLabelPolicies()) {
+            if (labelPolicy.isAutoscaling() || !getProvisionedResources(labelPolicy.getLabel()).isEmpty()) {
+                evaluate(labelPolicy, System.currentTimeMillis(), listener);
+            }
+        }
+    }
+    
+    /**
+     * Gets statistics of how long the provisioned resources took to come online.
+     * 
+     * @param label The resource label.
+     * 
+     * @return The statistics or null if no provisioned resource with that label came online yet.
+     */
+    public HoldStatistics getWarmUpStatistics(final String label) {
+        
+        return warmUpStatisticsByLabel.get(label);
+    }
+    
+    private void evaluate(
+            final LabelPolicy labelPolicy,
+            final long now,
+            final TaskListener listener) throws IOException, InterruptedException {
+        
+        final String label = labelPolicy.getLabel();
+        final long warmUpInMillis = TimeUnit.MINUTES.toMillis(labelPolicy.getWarmUpInMinutes());
+        
+        int warmingUp = 0;
+        
+        for (Iterator<ProvisionedResource> iterator = provisionedResources.iterator(); iterator.hasNext();) {
+            ProvisionedResource provisioned = iterator.next();
+            
+            if (!provisioned.label.equals(label)) {
+                continue;
+            }
+            
+            Node node = Jenkins.get().getNode(provisioned.nodeName);
+            
+            if (node == null) {
+                // Removed manually.
+                iterator.remove();
+                idleSinceByNodeName.remove(provisioned.nodeName);
+                save();
+                continue;
+            }
+            
+            if (provisioned.onlineAt == 0) {
+                Computer computer = node.toComputer();
+                
+                if (computer != null && computer.isOnline()) {
+                    provisioned.onlineAt = now;
+                    
+                    warmUpStatisticsByLabel.computeIfAbsent(label, k -> new HoldStatistics())
+                        .record(now - provisioned.provisionedAt);
+                    
+                    listener.getLogger().println(provisioned.nodeName + " is online after "
+                        + TimeUnit.MILLISECONDS.toSeconds(now - provisioned.provisionedAt) + " seconds of warm-up.");
+                    save();
+                }
+                else if (now - provisioned.provisionedAt < warmUpInMillis) {
+                    warmingUp++;
+                }
+            }
+        }
+        
+        final int queueLength = ReservableResourcesManager.getInstance().getQueueLength(label);
+        final long predictedWait = ReservableResourcesManager.getInstance().estimateWaitTimeForNewBuild(label);
+        
+        final boolean overloaded =
+            (labelPolicy.getScaleUpQueueLength() > 0 && queueLength >= labelPolicy.getScaleUpQueueLength())
+            || (labelPolicy.getScaleUpWaitInMinutes() > 0
+                && predictedWait >= TimeUnit.MINUTES.toMillis(labelPolicy.getScaleUpWaitInMinutes()));
+        
+        if (overloaded) {
+            long overloadedSince = overloadedSinceByLabel.computeIfAbsent(label, k -> now);
+            long lastProvision = lastProvisionByLabel.getOrDefault(label, 0L);
+            
+            // Every resource that is still warming up is expected to serve one of the waiting builds.
+            if (labelPolicy.isAutoscaling()
+                    && warmingUp < queueLength
+                    && now - overloadedSince >= TimeUnit.SECONDS.toMillis(labelPolicy.getScaleUpDelayInSeconds())
+                    && now - lastProvision >= TimeUnit.SECONDS.toMillis(labelPolicy.getProvisionIntervalInSeconds())
+                    && getProvisionedResources(label).size() < labelPolicy.getMaxProvisioned()) {
+                lastProvisionByLabel.put(label, now);
+                
+                provision(labelPolicy, now, listener);
+            }
+        }
+        else {
+            overloadedSinceByLabel.remove(label);
+        }
+        
+        for (ProvisionedResource provisioned : getProvisionedResources(label)) {
+            // Wait for the warm-up to finish or expire; resources that never come online are retired as idle.
+            if (provisioned.onlineAt == 0 && now - provisioned.provisionedAt < warmUpInMillis) {
+                continue;
+            }
+            
+            Node node = Jenkins.get().getNode(provisioned.nodeName);
+            
+            if (node == null || ReservableResourcesManager.getInstance().getReservedInfo(node).isPresent()) {
+                idleSinceByNodeName.remove(provisioned.nodeName);
+                continue;
+            }
+            
+            long idleSince = idleSinceByNodeName.computeIfAbsent(provisioned.nodeName, k -> now);
+            
+            if (!overloaded && now - idleSince >= TimeUnit.MINUTES.toMillis(labelPolicy.getIdleRetirementInMinutes())) {
+                retire(labelPolicy, provisioned, node, listener);
+            }
+        }
+    }
+    
+    private void provision(
+            final LabelPolicy labelPolicy,
+            final long now,
+            final TaskListener listener) throws InterruptedException {
+        
+        final String label = labelPolicy.getLabel();
+        
+        final List<ResourceProvisioner> provisioners = labelPolicy.getProvisioners();
+        
+        for (int index = 0; index < provisioners.size(); index++) {
+            ResourceProvisioner provisioner = provisioners.get(index);
+            
+            try {
+                Node node = provisioner.provision(label);
+                
+                Jenkins.get().addNode(node);
+                
+                provisionedResources.add(new ProvisionedResource(
+                    node.getNodeName(), label, provisioner.getDescriptor().getId(), index, now));
+                save();
+                
+                listener.getLogger().println("Provisioned " + node.getNodeName() + " for '" + label + "'.");
+                log.info("Provisioned resource " + node.getNodeName() + " for label '" + label + "' using " + provisioner + ".");
+                return;
+            }
+            catch (IOException | RuntimeException exception) {
+                log.log(Level.WARNING, "Provisioning of a resource for label '" + label + "' using "
+                    + provisioner + " failed.", exception);
+            }
+        }
+    }
+    
+    private void retire(
+            final LabelPolicy labelPolicy,
+            final ProvisionedResource provisioned,
+            final Node node,
+            final TaskListener listener) throws IOException, InterruptedException {
+        
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        // The resource could have been reserved in the meantime.
+        if (!manager.beginRetirement(node)) {
+            return;
+        }
+        
+        try {
+            Jenkins.get().removeNode(node);
+            
+            ResourceProvisioner provisioner = findProvisioner(labelPolicy, provisioned);
+            
+            if (provisioner == null) {
+                log.warning("Resource " + provisioned.nodeName + " was removed, but the " + provisioned.provisionerId
+                    + " provisioner that created it is not configured for label '" + provisioned.label
+                    + "' any more, so it was not disposed of.");
+            }
+            else {
+                provisioner.retire(node);
+            }
+            
+            listener.getLogger().println("Retired idle " + provisioned.nodeName + ".");
+            log.info("Retired idle resource " + provisioned.nodeName + " of label '" + provisioned.label + "'.");
+        }
+        catch (IOException | RuntimeException exception) {
+            log.log(Level.WARNING, "Retirement of resource " + provisioned.nodeName + " failed.", exception);
+        }
+        finally {
+            manager.endRetirement(provisioned.nodeName);
+        }
+        
+        if (Jenkins.get().getNode(provisioned.nodeName) == null) {
+            provisionedResources.remove(provisioned);
+            idleSinceByNodeName.remove(provisioned.nodeName);
+            save();
+        }
+    }
+    
+    /**
+     * Finds the provisioner of the label policy that created given resource. Several provisioners of the policy
+     * can be of the same type (e.g. commands for different hosts), so the provisioner is identified by its position
+     * in the policy and its type only guards against the policy being changed since.
+     * 
+     * @param labelPolicy The policy of the resource label.
+     * @param provisioned The provisioned resource.
+     * 
+     * @return The provisioner or null if the policy does not contain it any more.
+     */
+    private static ResourceProvisioner findProvisioner(
+            final LabelPolicy labelPolicy,
+            final ProvisionedResource provisioned) {
+        
+        final List<ResourceProvisioner> provisioners = labelPolicy.getProvisioners();
+        
+        if (provisioned.provisionerIndex == null) {
+            // Remembered before the position was stored; only unambiguous when the policy has one such provisioner.
+            List<ResourceProvisioner> candidates = provisioners.stream()
+                .filter(candidate -> candidate.getDescriptor().getId().equals(provisioned.provisionerId))
+                .collect(Collectors.toList());
+            
+            return candidates.size() == 1 ? candidates.get(0) : null;
+        }
+        
+        if (provisioned.provisionerIndex >= provisioners.size()) {
+            return null;
+        }
+        
+        ResourceProvisioner provisioner = provisioners.get(provisioned.provisionerIndex);
+        
+        return provisioner.getDescriptor().getId().equals(provisioned.provisionerId) ? provisioner : null;
+    }
+    
+    private List<ProvisionedResource> getProvisionedResources(final String label) {
+        
+        return provisionedResources.stream()
+            .filter(provisioned -> provisioned.label.equals(label))
+            .collect(Collectors.toList());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<ProvisionedResource> load() {
+        
+        XmlFile file = getStateFile();
+        
+        if (file.exists()) {
+            try {
+                return new ArrayList<>((List<ProvisionedResource>) file.read());
+            }
+            catch (IOException | RuntimeException exception) {
+                log.log(Level.WARNING, "Failed to load provisioned resources from " + file + ".", exception);
+            }
+        }
+        
+        return new ArrayList<>();
+    }
+    
+    private void save() throws IOException {
+        
+        getStateFile().write(provisionedResources);
+    }
+    
+    private static XmlFile getStateFile() {
+        
+        return new XmlFile(
+            Jenkins.XSTREAM2,
+            new File(Jenkins.get().getRootDir(), "reservable-resources/provisioned-resources.xml"));
+    }
+    
+    /**
+     * Simple POJO storing a resource created by a {@link ResourceProvisioner}.
+     */
+    private static final class ProvisionedResource {
+        
+        private final String nodeName;
+        private final String label;
+        private final String provisionerId;
+        private final Integer provisionerIndex;
+        private final long provisionedAt;
+        private long onlineAt;
+        
+        ProvisionedResource(
+                String nodeName,
+                String label,
+                String provisionerId,
+                int provisionerIndex,
+                long provisionedAt) {
+            
+            this.nodeName = nodeName;
+            this.label = label;
+            this.provisionerId = provisionerId;
+            this.provisionerIndex = provisionerIndex;
+            this.provisionedAt = provisionedAt;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkins.plugins.reservableresources.model.HealthProbe;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Periodically runs the health probes of all reservable resources and caches the results,
+ * so that handing out of resources never has to wait for a probe.
+ * 
+ * @see HealthProbe
+ */
+@Extension
+public class ResourceHealthMonitor extends AsyncPeriodicWork {
+
+    private static final Logger log = Logger.getLogger(ResourceHealthMonitor.class.getName());
+    
+    private static final long CHECK_INTERVAL_IN_SECONDS = SystemProperties.getLong(
+        ResourceHealthMonitor.class.getName() + ".checkIntervalInSeconds", 30L);
+    
+    /**
+     * Cached results older than this are not trusted any more, i.e. the resource is considered healthy.
+     */
+    private static final long RESULT_TTL_IN_MILLIS = TimeUnit.SECONDS.toMillis(3 * CHECK_INTERVAL_IN_SECONDS);
+    
+    private static final int MAX_PARALLEL_PROBES = 4;
+    
+    private static final Map<String, HealthStatus> statusByNodeName = new ConcurrentHashMap<>();
+    
+    /**
+     * Names of the nodes whose probes are running, including those that timed out but did not stop yet.
+     */
+    private final Set<String> runningNodeNames = ConcurrentHashMap.newKeySet();
+    
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+        MAX_PARALLEL_PROBES,
+        new NamingThreadFactory(new DaemonThreadFactory(), "ReservableResourcesHealthProbe"));
+    
+    public ResourceHealthMonitor() {
+
+        super("Reservable resources health monitor");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+
+        return TimeUnit.SECONDS.toMillis(CHECK_INTERVAL_IN_SECONDS);
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+
+        final Map<String, Future<HealthStatus>> futuresByNodeName = new HashMap<>();
+        final Map<String, HealthStatus> statusesByNodeName = new HashMap<>();
+        
+        for (Node node : ReservableResourcesManager.getInstance().getReservableNodes()) {
+            NodePropertyExtension property = node.getNodeProperty(NodePropertyExtension.class);
+            
+            if (property == null || property.getHealthProbes().isEmpty()) {
+                continue;
+            }
+            
+            String nodeName = node.getNodeName();
+            
+            if (runningNodeNames.contains(nodeName)) {
+                // Probes that ignored the interruption would only pile up behind the hung ones.
+                statusesByNodeName.put(nodeName, new HealthStatus(false, "Previous health probes are still running."));
+                
+                continue;
+            }
+            
+            futuresByNodeName.put(nodeName, executor.submit(() -> {
+                
+                runningNodeNames.add(nodeName);
+                
+                try {
+                    return probe(node, property);
+                }
+                finally {
+                    runningNodeNames.remove(nodeName);
+                }
+            }));
+        }
+        
+        // All probes share one deadline, so a run never takes longer than the check interval no matter
+        // how many of them hang, and the cached results do not expire in the meantime.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CHECK_INTERVAL_IN_SECONDS);
+        
+        for (Entry<String, Future<HealthStatus>> entry : futuresByNodeName.entrySet()) {
+            HealthStatus status;
+            
+            try {
+                status = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException exception) {
+                entry.getValue().cancel(true);
+                
+                // Recorded with the time of this run, so the resource stays unhealthy until a probe passes.
+                status = new HealthStatus(false, "Health probes did not finish in time.");
+            }
+            catch (ExecutionException exception) {
+                status = new HealthStatus(false, String.valueOf(exception.getCause()));
+            }
+            
+            statusesByNodeName.put(entry.getKey(), status);
+        }
+        
+        for (Entry<String, HealthStatus> entry : statusesByNodeName.entrySet()) {
+            HealthStatus status = entry.getValue();
+            HealthStatus previousStatus = statusByNodeName.put(entry.getKey(), status);
+            
+            if (previousStatus == null || previousStatus.healthy != status.healthy) {
+                listener.getLogger().println(entry.getKey() + ": " + status);
+                log.log(Level.INFO, "Resource {0} is now {1}.", new Object[] { entry.getKey(), status });
+            }
+        }
+        
+        // Forget about the resources that were removed or have no probes any more.
+        statusByNodeName.keySet().retainAll(statusesByNodeName.keySet());
+    }
+    
+    private static HealthStatus probe(
+            final Node node,
+            final NodePropertyExtension property) throws InterruptedException {
+        
+        Map<String, String> settings = property.getSettingsMap();
+        
+        List<String> failures = new ArrayList<>();
+        
+        for (HealthProbe healthProbe : property.getHealthProbes()) {
+            try {
+                healthProbe.check(node, settings);
+            }
+            catch (IOException | RuntimeException exception) {
+                failures.add(exception.getMessage());
+            }
+        }
+        
+        return failures.isEmpty() ? new HealthStatus(true, null) : new HealthStatus(false, String.join(" ", failures));
+    }
+    
+    /**
+     * Checks whether the resource failed its most recent health probes. This method only consults
+     * the cached results and never runs the probes itself.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * 
+     * @return true if recent probe results show that resource is unhealthy, false otherwise.
+     */
+    public static boolean isUnhealthy(final String nodeName) {
+        
+        HealthStatus status = statusByNodeName.get(nodeName);
+        
+        return status != null && !status.healthy && !status.isExpired();
+    }
+    
+    /**
+     * Gets the cached health status of the resource.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * 
+     * @return The status or null if resource has no probes or the result has expired.
+     */
+    public static HealthStatus getHealthStatus(final String nodeName) {
+        
+        HealthStatus status = statusByNodeName.get(nodeName);
+        
+        return status == null || status.isExpired() ? null : status;
+    }
+    
+    /**
+     * Simple POJO storing the result of resource health probes.
+     */
+    public static final class HealthStatus {
+        
+        private final boolean healthy;
+        private final String message;
+        private final long checkedAt = System.currentTimeMillis();
+        
+        public HealthStatus(
+                boolean healthy,
+                String message) {
+
+            this.healthy = healthy;
+            this.message = message;
+        }
+
+        public boolean isHealthy() {
+
+            return healthy;
+        }
+
+        public String getMessage() {
+
+            return message;
+        }
+
+        public long getCheckedAt() {
+
+            return checkedAt;
+        }
+        
+        private boolean isExpired() {
+            
+            return System.currentTimeMillis() - checkedAt > RESULT_TTL_IN_MILLIS;
+        }
+
+        @Override
+        public String toString() {
+
+            return healthy ? "healthy" : "unhealthy (" + message + ")";
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import jenkins.model.Jenkins;
+
+/**
+ * Index of the labels of reservable resources, used to validate and auto-complete resource labels without
+ * splitting label strings of all nodes on every request.
+ * <p>
+ * Labels are kept in a sorted map for exact and prefix look-ups and all their (lower case) suffixes are kept in
+ * another sorted map, so that a case insensitive infix look-up is a prefix look-up of the suffixes. Before each
+ * look-up the index is synchronized with the current nodes: a node is indexed again only if it is new or its label
+ * string or reservability changed, so nodes replaced in bulk (e.g. by {@code Jenkins.setNodes} or a configuration
+ * reload, which do not notify node listeners) are picked up as well, and only they have their labels parsed.
+ */
+public final class ResourceLabelIndex {
+
+    private final Map<String, IndexedNode> indexedByNodeName = new HashMap<>();
+    private final TreeMap<String, Integer> nodeCountsByLabel = new TreeMap<>();
+    private final TreeMap<String, Set<String>> labelsBySuffix = new TreeMap<>();
+    
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ResourceLabelIndex() {
+        
+    }
+    
+    /**
+     * Checks whether any reservable resource has given label.
+     * 
+     * @param label The label.
+     * 
+     * @return true if the label exists, false otherwise.
+     */
+    public synchronized boolean contains(final String label) {
+        
+        synchronize();
+        
+        return nodeCountsByLabel.containsKey(label);
+    }
+    
+    /**
+     * Finds labels of reservable resources that contain given text, ignoring case. Labels starting with the text
+     * are returned first, then the other matching labels, both in alphabetical order.
+     * 
+     * @param text The text to look for.
+     * @param limit Maximum number of returned labels.
+     * 
+     * @return List of the labels; never null.
+     */
+    public synchronized List<String> find(
+            final String text,
+            final int limit) {
+        
+        synchronize();
+        
+        final String key = StringUtils.defaultString(text).toLowerCase(Locale.ENGLISH);
+        
+        Set<String> prefixMatches = new TreeSet<>();
+        Set<String> infixMatches = new TreeSet<>();
+        
+        for (Set<String> labels : labelsBySuffix.subMap(key, true, key + Character.MAX_VALUE, true).values()) {
+            for (String label : labels) {
+                if (label.toLowerCase(Locale.ENGLISH).startsWith(key)) {
+                    prefixMatches.add(label);
+                }
+                else {
+                    infixMatches.add(label);
+                }
+            }
+        }
+        
+        List<String> matches = new ArrayList<>(Math.min(limit, prefixMatches.size() + infixMatches.size()));
+        
+        for (String label : prefixMatches) {
+            if (matches.size() < limit) {
+                matches.add(label);
+            }
+        }
+        
+        for (String label : infixMatches) {
+            if (matches.size() < limit) {
+                matches.add(label);
+            }
+        }
+        
+        return matches;
+    }
+    
+    /**
+     * Indexes the nodes that were added or changed since the last look-up and removes the deleted ones.
+     */
+    private void synchronize() {
+        
+        final List<Node> nodes = Jenkins.get().getNodes();
+        final Set<String> nodeNames = new HashSet<>();
+        
+        for (Node node : nodes) {
+            nodeNames.add(node.getNodeName());
+            
+            IndexedNode indexedNode = indexedByNodeName.get(node.getNodeName());
+            
+            if (indexedNode == null || !indexedNode.isIndexed(node)) {
+                removeNode(node.getNodeName());
+                addNode(node);
+            }
+        }
+        
+        if (indexedByNodeName.size() > nodeNames.size()) {
+            for (String nodeName : new ArrayList<>(indexedByNodeName.keySet())) {
+                if (!nodeNames.contains(nodeName)) {
+                    removeNode(nodeName);
+                }
+            }
+        }
+    }
+    
+    private void addNode(final Node node) {
+        
+        final IndexedNode indexedNode = new IndexedNode(node);
+        
+        indexedByNodeName.put(node.getNodeName(), indexedNode);
+        
+        for (String label : indexedNode.labels) {
+            if (nodeCountsByLabel.merge(label, 1, Integer::sum) == 1) {
+                String lowerCaseLabel = label.toLowerCase(Locale.ENGLISH);
+                
+                for (int index = 0; index < lowerCaseLabel.length(); index++) {
+                    labelsBySuffix.computeIfAbsent(lowerCaseLabel.substring(index), k -> new LinkedHashSet<>()).add(label);
+                }
+            }
+        }
+    }
+    
+    private void removeNode(final String nodeName) {
+        
+        IndexedNode indexedNode = indexedByNodeName.remove(nodeName);
+        
+        if (indexedNode == null) {
+            return;
+        }
+        
+        for (String label : indexedNode.labels) {
+            if (nodeCountsByLabel.merge(label, -1, Integer::sum) == 0) {
+                nodeCountsByLabel.remove(label);
+                
+                String lowerCaseLabel = label.toLowerCase(Locale.ENGLISH);
+                
+                for (int index = 0; index < lowerCaseLabel.length(); index++) {
+                    String suffix = lowerCaseLabel.substring(index);
+                    Set<String> suffixLabels = labelsBySuffix.get(suffix);
+                    
+                    if (suffixLabels != null && suffixLabels.remove(label) && suffixLabels.isEmpty()) {
+                        labelsBySuffix.remove(suffix);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Singleton instance.
+     */
+    private static final ResourceLabelIndex instance = new ResourceLabelIndex();
+    
+    /**
+     * Gets the {@link ResourceLabelIndex} singleton. 
+     * 
+     * @return The instance; never null.
+     */
+    @Nonnull
+    public static ResourceLabelIndex getInstance() {
+        
+        return instance;
+    }
+    
+    /**
+     * Labels of one node as they were indexed.
+     */
+    private static final class IndexedNode {
+        
+        private final String labelString;
+        private final boolean reservable;
+        
+        /**
+         * Labels parsed the same way as {@link ReservableResourcesManager#hasLabel}; empty if the node is not
+         * a reservable resource.
+         */
+        private final Set<String> labels = new HashSet<>();
+        
+        IndexedNode(Node node) {
+            
+            this.labelString = node.getLabelString();
+            this.reservable = node.getNodeProperty(NodePropertyExtension.class) != null;
+            
+            if (reservable) {
+                for (LabelAtom atom : Label.parse(labelString)) {
+                    labels.add(atom.getName());
+                }
+            }
+        }
+        
+        boolean isIndexed(Node node) {
+            
+            return StringUtils.equals(labelString, node.getLabelString())
+                && reservable == (node.getNodeProperty(NodePropertyExtension.class) != null);
+        }
+    }
+}
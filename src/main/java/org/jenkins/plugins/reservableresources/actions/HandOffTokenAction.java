@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.actions;
+
+import hudson.EnvVars;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+/**
+ * Exposes the token of resources handed off by the build as an environment variable, so that it can be
+ * passed to the downstream build as a parameter.
+ */
+public class HandOffTokenAction extends InvisibleAction implements EnvironmentContributingAction {
+
+    private final String variableName;
+    private final String token;
+    
+    public HandOffTokenAction(
+            final String variableName,
+            final String token) {
+
+        this.variableName = variableName;
+        this.token = token;
+    }
+
+    public String getToken() {
+    
+        return token;
+    }
+
+    @Override
+    public void buildEnvironment(
+            final Run<?, ?> run,
+            final EnvVars environmentVariables) {
+
+        environmentVariables.put(variableName, token);
+    }
+}
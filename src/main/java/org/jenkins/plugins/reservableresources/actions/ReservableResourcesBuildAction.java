@@ -1,73 +1,134 @@
-/*
- * Copyright (c) 2021 Maciek Siemczyk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-package org.jenkins.plugins.reservableresources.actions;
-
-import java.util.List;
-
-import hudson.model.Action;
-
-public class ReservableResourcesBuildAction implements Action {
-	    
-    private final List<AcquiredResource> acquiredResources;
-
-    public ReservableResourcesBuildAction(List<AcquiredResource> acquiredResources) {
-
-        this.acquiredResources = acquiredResources;
-    }
-    
-    public List<AcquiredResource> getAcquiredResources() {
-
-        return acquiredResources;
-    }
-
-    @Override
-    public String getIconFileName() {
-
-        return "/plugin/reservable-resources/images/main-icon.png";
-    }
-
-    @Override
-    public String getDisplayName() {
-
-        return "Reservable Resources";
-    }
-
-    @Override
-    public String getUrlName() {
-
-        return "reservable-resources";
-    }
-    
-    public static final class AcquiredResource {
-        
-        public final String label;
-        public final String nodeName;
-        
-        public AcquiredResource(
-                final String label,
-                final String nodeName) {
-
-            this.label = label;
-            this.nodeName = nodeName;
-        }
-    }
-}
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.actions;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+
+import hudson.model.Action;
+
+public class ReservableResourcesBuildAction implements Action {
+	    
+    private final List<AcquiredResource> acquiredResources;
+    
+    private transient PrintStream logger;
+
+    public ReservableResourcesBuildAction(List<AcquiredResource> acquiredResources) {
+
+        this.acquiredResources = acquiredResources;
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param acquiredResources Resources acquired by the build.
+     * @param logger Log of the running build, used to warn the build about its resources.
+     */
+    public ReservableResourcesBuildAction(
+            List<AcquiredResource> acquiredResources,
+            PrintStream logger) {
+
+        this.acquiredResources = acquiredResources;
+        this.logger = logger;
+    }
+    
+    public List<AcquiredResource> getAcquiredResources() {
+
+        return acquiredResources;
+    }
+    
+    /**
+     * Gets the log of the build.
+     * 
+     * @return The log or null if the build is not running anymore (or Jenkins was restarted since).
+     */
+    @CheckForNull
+    public PrintStream getLogger() {
+        
+        return logger;
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return "/plugin/reservable-resources/images/main-icon.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+
+        return "Reservable Resources";
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return "reservable-resources";
+    }
+    
+    public static final class AcquiredResource {
+        
+        public final String label;
+        public final String nodeName;
+        
+        /**
+         * Flag indicating whether the resource is reserved by the root build and shared with its other child builds.
+         */
+        public final boolean shared;
+        
+        private volatile boolean released;
+        
+        public AcquiredResource(
+                final String label,
+                final String nodeName) {
+
+            this(label, nodeName, false);
+        }
+        
+        public AcquiredResource(
+                final String label,
+                final String nodeName,
+                final boolean shared) {
+
+            this.label = label;
+            this.nodeName = nodeName;
+            this.shared = shared;
+        }
+        
+        /**
+         * Checks whether the resource was released before the build finished.
+         * 
+         * @return true if the resource was released, false if the build still holds it.
+         */
+        public boolean isReleased() {
+            
+            return released;
+        }
+        
+        public void markReleased() {
+            
+            this.released = true;
+        }
+    }
+}
@@ -1,139 +1,323 @@
-/*
- * Copyright (c) 2021 Maciek Siemczyk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-package org.jenkins.plugins.reservableresources.actions;
-
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Optional;
-import java.util.stream.Collectors;
-
-import org.jenkins.plugins.reservableresources.ReservableResourcesManager;
-import org.jenkins.plugins.reservableresources.ReservedResource;
-import org.jenkins.plugins.reservableresources.ReservedResource.ReservedBy;
-import org.kohsuke.stapler.HttpResponse;
-import org.kohsuke.stapler.HttpResponses;
-import org.kohsuke.stapler.QueryParameter;
-import org.kohsuke.stapler.verb.POST;
-
-import hudson.Extension;
-import hudson.model.AbstractBuild;
-import hudson.model.Computer;
-import hudson.model.Node;
-import hudson.model.RootAction;
-
-@Extension
-public class ReservableResourcesRootAction implements RootAction {
-
-    @Override
-    public String getDisplayName() {
-
-        return "Reservable Resources";
-    }
-
-    @Override
-    public String getIconFileName() {
-
-        return "/plugin/reservable-resources/images/main-icon.png";
-    }
-
-    @Override
-    public String getUrlName() {
-
-        return "reservable-resources";
-    }
-    
-    @POST
-    public HttpResponse doReserve(
-            @QueryParameter
-            final String nodeName) {
-        
-        ReservableResourcesManager.getInstance().reserveResource(nodeName);
-        
-        return HttpResponses.forwardToPreviousPage(); 
-    }
-    
-    @POST
-    public HttpResponse doRelease(
-            @QueryParameter
-            final String nodeName) {
-        
-        ReservableResourcesManager.getInstance().releaseResource(nodeName);
-        
-        return HttpResponses.forwardToPreviousPage(); 
-    }
-
-    public static Map<String, LabelInfo> getInfosByLabel() {
-
-        Map<String, List<ResourceInfo>> resourcesInfosByLabel =
-            ReservableResourcesManager.getInstance().getReservableNodes().stream()
-                .collect(Collectors.groupingBy(
-                    Node::getLabelString,
-                    Collectors.mapping(node -> new ResourceInfo(
-                            node,
-                            ReservableResourcesManager.getInstance().getReservedInfo(node)),
-                        Collectors.toList())));
-        
-        Map<String, LabelInfo> labelInfos = new HashMap<>(resourcesInfosByLabel.size());
-        
-        for (Entry<String, List<ResourceInfo>> entry : resourcesInfosByLabel.entrySet()) {
-            List<AbstractBuild<?, ?>> queueBuilds =
-                ReservableResourcesManager.getInstance().getBuildQueueBuilds(entry.getKey());
-            
-            labelInfos.put(entry.getKey(), new LabelInfo(queueBuilds, entry.getValue()));
-        }
-        
-        return labelInfos;
-    }
-    
-    public static final class LabelInfo {
-     
-        public final List<AbstractBuild<?, ?>> buildQueue;
-        public final List<ResourceInfo> resourceInfos;
-        
-        public LabelInfo(
-                List<AbstractBuild<?, ?>> buildQueue,
-                List<ResourceInfo> resourceInfos) {
-
-            this.buildQueue = buildQueue;
-            this.resourceInfos = resourceInfos;
-        }        
-    }
-    
-    public static final class ResourceInfo {
-        
-        public final Node node;
-        public final Computer computer;
-        
-        public final ReservedBy reservedBy;
-        
-        public ResourceInfo(
-                Node node,
-                Optional<ReservedResource> reservedResource) {
-
-            this.node = node;
-            this.computer = node.toComputer();
-            this.reservedBy = reservedResource.map(ReservedResource::getReservedBy).orElse(null);
-        }
-    }
-}
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.actions;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.HoldStatistics;
+import org.jenkins.plugins.reservableresources.ReservableResourcesManager;
+import org.jenkins.plugins.reservableresources.ResourceHealthMonitor;
+import org.jenkins.plugins.reservableresources.ResourceHealthMonitor.HealthStatus;
+import org.jenkins.plugins.reservableresources.calendar.AdvanceReservation;
+import org.jenkins.plugins.reservableresources.calendar.ReservationCalendar;
+import org.jenkins.plugins.reservableresources.history.HistoryView;
+import org.jenkins.plugins.reservableresources.model.LabelPolicy;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+import org.jenkins.plugins.reservableresources.ReservedResource;
+import org.jenkins.plugins.reservableresources.ReservedResource.ReservedBy;
+import org.jenkins.plugins.reservableresources.ReservedResource.Status;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Failure;
+import hudson.model.Node;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+@Extension
+public class ReservableResourcesRootAction implements RootAction {
+
+    @Override
+    public String getDisplayName() {
+
+        return "Reservable Resources";
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return "/plugin/reservable-resources/images/main-icon.png";
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return "reservable-resources";
+    }
+    
+    public HistoryView getHistory() {
+        
+        return new HistoryView();
+    }
+    
+    @POST
+    public HttpResponse doReserve(
+            @QueryParameter
+            final String nodeName,
+            @QueryParameter
+            final boolean preemptible) {
+        
+        ReservableResourcesManager.getInstance().reserveResource(nodeName, preemptible);
+        
+        return HttpResponses.forwardToPreviousPage(); 
+    }
+    
+    @POST
+    public HttpResponse doRelease(
+            @QueryParameter
+            final String nodeName) {
+        
+        ReservableResourcesManager.getInstance().releaseResource(nodeName);
+        
+        return HttpResponses.forwardToPreviousPage(); 
+    }
+
+    /**
+     * Books an advance reservation of a resource, or of any resource with a label, for a time window.
+     * 
+     * @param resource Node name of the resource or a resource label.
+     * @param from Start of the window formatted as ISO local date and time (e.g. 2021-06-01T08:00).
+     * @param durationInHours Length of the window.
+     * @param description Description of the reason.
+     * 
+     * @return Redirect to the previous page.
+     * 
+     * @throws IOException if the calendar could not be saved.
+     */
+    @POST
+    public HttpResponse doBook(
+            @QueryParameter
+            final String resource,
+            @QueryParameter
+            final String from,
+            @QueryParameter
+            final int durationInHours,
+            @QueryParameter
+            final String description) throws IOException {
+        
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        
+        if (durationInHours < 1) {
+            throw new Failure("Duration of the window has to be at least one hour.");
+        }
+        
+        final long start;
+        
+        try {
+            start = LocalDateTime.parse(from).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException exception) {
+            throw new Failure("Start of the window '" + from + "' is not a valid date and time.");
+        }
+        
+        try {
+            ReservationCalendar.get().book(
+                resource,
+                start,
+                start + TimeUnit.HOURS.toMillis(durationInHours),
+                Jenkins.getAuthentication().getName(),
+                description);
+        }
+        catch (IllegalArgumentException | IllegalStateException exception) {
+            throw new Failure(exception.getMessage());
+        }
+        
+        return HttpResponses.forwardToPreviousPage(); 
+    }
+    
+    @POST
+    public HttpResponse doCancelBooking(
+            @QueryParameter
+            final String id) throws IOException {
+        
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        
+        ReservationCalendar.get().cancel(id);
+        
+        return HttpResponses.forwardToPreviousPage(); 
+    }
+    
+    public static List<BookingInfo> getBookings() {
+        
+        return ReservationCalendar.get().getReservations().stream()
+            .map(BookingInfo::new)
+            .collect(Collectors.toList());
+    }
+
+    public static List<HoldTimeInfo> getHoldTimes() {
+        
+        return ReservableResourcesManager.getInstance().getHoldStatisticsByLabel().entrySet().stream()
+            .map(entry -> new HoldTimeInfo(entry.getKey(), entry.getValue()))
+            .collect(Collectors.toList());
+    }
+
+    public static List<String> getRecentPreemptions() {
+        
+        return ReservableResourcesManager.getInstance().getRecentPreemptions();
+    }
+
+    public static Map<String, LabelInfo> getInfosByLabel() {
+
+        Map<String, List<ResourceInfo>> resourcesInfosByLabel =
+            ReservableResourcesManager.getInstance().getReservableNodes().stream()
+                .collect(Collectors.groupingBy(
+                    Node::getLabelString,
+                    Collectors.mapping(node -> new ResourceInfo(
+                            node,
+                            ReservableResourcesManager.getInstance().getReservedInfo(node)),
+                        Collectors.toList())));
+        
+        Map<String, LabelInfo> labelInfos = new HashMap<>(resourcesInfosByLabel.size());
+        
+        for (Entry<String, List<ResourceInfo>> entry : resourcesInfosByLabel.entrySet()) {
+            List<QueuedBuildInfo> queueBuilds =
+                ReservableResourcesManager.getInstance().getBuildQueueBuilds(entry.getKey()).stream()
+                    .map(QueuedBuildInfo::new)
+                    .collect(Collectors.toList());
+            
+            labelInfos.put(entry.getKey(), new LabelInfo(queueBuilds, entry.getValue()));
+        }
+        
+        return labelInfos;
+    }
+    
+    public static final class LabelInfo {
+     
+        public final List<QueuedBuildInfo> buildQueue;
+        public final List<ResourceInfo> resourceInfos;
+        
+        public LabelInfo(
+                List<QueuedBuildInfo> buildQueue,
+                List<ResourceInfo> resourceInfos) {
+
+            this.buildQueue = buildQueue;
+            this.resourceInfos = resourceInfos;
+        }        
+    }
+    
+    public static final class HoldTimeInfo {
+        
+        public final String label;
+        public final long count;
+        public final String median;
+        public final String percentile90;
+        public final String percentile99;
+        
+        /**
+         * Maximum hold time of the label formatted for display or null if it is not limited.
+         */
+        public final String maxHold;
+        
+        public HoldTimeInfo(
+                String label,
+                HoldStatistics statistics) {
+
+            this.label = label;
+            this.count = statistics.getCount();
+            this.median = Util.getTimeSpanString(statistics.getQuantile(0.5));
+            this.percentile90 = Util.getTimeSpanString(statistics.getQuantile(0.9));
+            this.percentile99 = Util.getTimeSpanString(statistics.getQuantile(0.99));
+            
+            LabelPolicy labelPolicy = ReservableResourcesConfiguration.get().getLabelPolicy(label);
+            
+            this.maxHold = labelPolicy == null || labelPolicy.getMaxHoldInMinutes() == 0
+                ? null
+                : Util.getTimeSpanString(TimeUnit.MINUTES.toMillis(labelPolicy.getMaxHoldInMinutes()));
+        }
+    }
+    
+    public static final class BookingInfo {
+        
+        public final AdvanceReservation reservation;
+        public final String from;
+        public final String to;
+        public final boolean active;
+        
+        public BookingInfo(AdvanceReservation reservation) {
+
+            this.reservation = reservation;
+            this.from = ReservationCalendar.formatTime(reservation.getFrom());
+            this.to = ReservationCalendar.formatTime(reservation.getTo());
+            this.active = ReservationCalendar.get().isActive(reservation);
+        }
+    }
+    
+    public static final class QueuedBuildInfo {
+        
+        public final AbstractBuild<?, ?> build;
+        
+        /**
+         * Estimated wait time formatted for display or null if it cannot be estimated.
+         */
+        public final String estimatedWait;
+        
+        public QueuedBuildInfo(AbstractBuild<?, ?> build) {
+
+            this.build = build;
+            
+            long estimate = ReservableResourcesManager.getInstance().estimateWaitTime(build);
+            
+            this.estimatedWait = estimate < 0 ? null : Util.getTimeSpanString(estimate);
+        }
+    }
+    
+    public static final class ResourceInfo {
+        
+        public final Node node;
+        public final Computer computer;
+        
+        public final ReservedBy reservedBy;
+        public final boolean preemptible;
+        public final boolean cleaning;
+        public final boolean reservedElsewhere;
+        public final HealthStatus healthStatus;
+        
+        public ResourceInfo(
+                Node node,
+                Optional<ReservedResource> reservedResource) {
+
+            this.node = node;
+            this.computer = node.toComputer();
+            this.reservedBy = reservedResource.map(ReservedResource::getReservedBy).orElse(null);
+            this.preemptible = reservedResource.map(ReservedResource::isPreemptible).orElse(false);
+            this.cleaning = reservedResource.map(ReservedResource::getStatus).orElse(null) == Status.CLEANING;
+            this.healthStatus = ResourceHealthMonitor.getHealthStatus(node.getNodeName());
+            this.reservedElsewhere = ReservableResourcesManager.getInstance().isReservedElsewhere(node);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension.Setting;
+
+import hudson.Util;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+/**
+ * Content addressed store of resource settings snapshots. Builds refer to the snapshot by its digest instead
+ * of carrying their own copy of the settings, so identical settings are stored on disk only once and are loaded
+ * only when the build environment is actually needed.
+ */
+final class SettingsSnapshotStore {
+
+    private static final Logger log = Logger.getLogger(SettingsSnapshotStore.class.getName());
+    
+    private static final int MAX_CACHED_SNAPSHOTS = 1000;
+    
+    /**
+     * Snapshots are immutable, so there is no need to ever invalidate the cache; it is only bounded.
+     */
+    private static final Map<String, List<Setting>> cachedSnapshots = Collections.synchronizedMap(
+        new LinkedHashMap<String, List<Setting>>(16, 0.75f, true) {
+            
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Setting>> eldest) {
+
+                return size() > MAX_CACHED_SNAPSHOTS;
+            }
+        });
+    
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private SettingsSnapshotStore() {
+        
+    }
+    
+    /**
+     * Stores snapshot of given settings, unless identical snapshot is already stored.
+     * 
+     * @param settings List of the settings.
+     * 
+     * @return The digest identifying the snapshot.
+     * 
+     * @throws IOException if the snapshot cannot be written.
+     */
+    static String save(final List<Setting> settings) throws IOException {
+        
+        final String digest = computeDigest(settings);
+        
+        if (cachedSnapshots.containsKey(digest)) {
+            return digest;
+        }
+        
+        XmlFile snapshotFile = getSnapshotFile(digest);
+        
+        synchronized (SettingsSnapshotStore.class) {
+            if (!snapshotFile.exists()) {
+                snapshotFile.write(new Snapshot(settings));
+            }
+        }
+        
+        cachedSnapshots.put(digest, Collections.unmodifiableList(new ArrayList<>(settings)));
+        
+        return digest;
+    }
+    
+    /**
+     * Loads snapshot with given digest.
+     * 
+     * @param digest The digest identifying the snapshot.
+     * 
+     * @return List of the settings; empty if the snapshot does not exist or cannot be read.
+     */
+    static List<Setting> load(final String digest) {
+        
+        List<Setting> settings = cachedSnapshots.get(digest);
+        
+        if (settings != null) {
+            return settings;
+        }
+        
+        XmlFile snapshotFile = getSnapshotFile(digest);
+        
+        try {
+            Snapshot snapshot = (Snapshot) snapshotFile.read();
+            
+            settings = Collections.unmodifiableList(new ArrayList<>(snapshot.settings));
+        }
+        catch (IOException | RuntimeException exception) {
+            log.log(Level.WARNING, "Failed to load resource settings snapshot " + snapshotFile + ".", exception);
+            
+            return Collections.emptyList();
+        }
+        
+        cachedSnapshots.put(digest, settings);
+        
+        return settings;
+    }
+    
+    /**
+     * Computes SHA-256 digest of the settings, in order, since later settings override earlier ones.
+     */
+    private static String computeDigest(final List<Setting> settings) {
+        
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            
+            for (Setting setting : settings) {
+                messageDigest.update(setting.key.getBytes(StandardCharsets.UTF_8));
+                messageDigest.update((byte) 0);
+                messageDigest.update(setting.value.getBytes(StandardCharsets.UTF_8));
+                messageDigest.update((byte) 0);
+            }
+            
+            // Many builds refer to the same few snapshots, so share the digest strings in the heap.
+            return Util.toHexString(messageDigest.digest()).intern();
+        }
+        catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not supported.", exception);
+        }
+    }
+    
+    private static XmlFile getSnapshotFile(final String digest) {
+        
+        return new XmlFile(
+            Jenkins.XSTREAM2,
+            new File(Jenkins.get().getRootDir(), "reservable-resources/settings/" + digest + ".xml"));
+    }
+    
+    /**
+     * Persisted form of the snapshot.
+     */
+    private static final class Snapshot {
+        
+        private final List<Setting> settings;
+        
+        Snapshot(List<Setting> settings) {
+            
+            this.settings = new ArrayList<>(settings);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.backend;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+
+/**
+ * Default backend for a single controller; the reservations tracked in memory by the manager are all there is.
+ */
+public class InMemoryReservationBackend extends ReservationBackend {
+
+    @DataBoundConstructor
+    public InMemoryReservationBackend() {
+
+        super();
+    }
+    
+    @Override
+    public boolean tryReserve(final String nodeName) {
+
+        return true;
+    }
+
+    @Override
+    public void release(final String nodeName) {
+
+        // Nothing to release, the manager tracks local reservations.
+    }
+
+    @Override
+    public boolean isReservedElsewhere(final String nodeName) {
+
+        return false;
+    }
+
+    @Override
+    public Set<String> refresh(
+            final Set<String> reservedNodeNames,
+            final long snapshotTakenAt) {
+
+        // Nothing to refresh and nothing can be lost.
+        return Collections.emptySet();
+    }
+
+    @Extension(ordinal = 100)
+    public static class DescriptorImpl extends Descriptor<ReservationBackend> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "In memory (this controller only)";
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.backend;
+
+import java.util.Set;
+
+import hudson.DescriptorExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import jenkins.model.Jenkins;
+
+/**
+ * Reservation backend decides whether this Jenkins controller may reserve a resource, which allows
+ * several controllers to share one pool of resources. The local reservations are always tracked by
+ * the manager; the backend only has to provide mutual exclusion between controllers.
+ * <p>
+ * Implementations must be thread safe. {@link #isReservedElsewhere(String)} is called for every candidate
+ * resource while handing out resources and therefore must be answered from a local cache. The other methods
+ * may access the shared store; the manager never calls them while holding its reservation lock and never has
+ * more than one of {@link #tryReserve(String)} and {@link #release(String)} in progress for the same resource.
+ */
+public abstract class ReservationBackend extends AbstractDescribableImpl<ReservationBackend> implements ExtensionPoint {
+
+    /**
+     * Tries to reserve given resource for this controller. The manager publishes the local reservation only
+     * after this succeeded.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * 
+     * @return true if the resource is now reserved by this controller, false if it is reserved by another one.
+     */
+    public abstract boolean tryReserve(String nodeName);
+    
+    /**
+     * Releases the reservation of given resource made by this controller.
+     * 
+     * @param nodeName String representing node name of the resource.
+     */
+    public abstract void release(String nodeName);
+    
+    /**
+     * Checks, using only locally cached information, whether given resource is reserved by another controller.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * 
+     * @return true if the resource is known to be reserved by another controller, false otherwise.
+     */
+    public abstract boolean isReservedElsewhere(String nodeName);
+    
+    /**
+     * Called periodically to keep the reservations of this controller alive and refresh cached information.
+     * Reservations of resources that are not reserved by this controller any more are released, except the ones
+     * made after the snapshot of the reserved resources was taken, since the snapshot cannot contain them.
+     * 
+     * @param reservedNodeNames Snapshot of the node names of all resources reserved by this controller.
+     * @param snapshotTakenAt Time the snapshot was taken at, as returned by {@link System#nanoTime()}.
+     * 
+     * @return Node names of the resources whose reservation was lost, e.g. because it expired and another
+     *         controller reserved the resource; never null. The manager has to stop using them.
+     */
+    public abstract Set<String> refresh(
+            Set<String> reservedNodeNames,
+            long snapshotTakenAt);
+    
+    /**
+     * Gets all registered reservation backend descriptors.
+     * 
+     * @return List of the descriptors; never null.
+     */
+    public static DescriptorExtensionList<ReservationBackend, Descriptor<ReservationBackend>> all() {
+        
+        return Jenkins.get().getDescriptorList(ReservationBackend.class);
+    }
+}
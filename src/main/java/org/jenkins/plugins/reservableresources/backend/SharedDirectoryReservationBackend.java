@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkins.plugins.reservableresources.ReservationLeaseRenewer;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+
+/**
+ * Backend that keeps leases of the reservations in a directory on a volume shared by all controllers.
+ * <p>
+ * Every resource has a lease file with the owning controller, expiry time and a fencing token that is incremented
+ * on every new reservation. All changes are done while holding an exclusive file lock on the directory, so reserving
+ * a resource is a single locked read-modify-write. Leases are renewed periodically and expire when the owning
+ * controller stops renewing them (e.g. it crashed); stale owners cannot release or renew a lease that was since
+ * taken over because their fencing token no longer matches. Leases of other controllers are cached locally so that
+ * handing out resources does not need to scan the directory.
+ * <p>
+ * A lease that was taken over is reported as lost by {@link #refresh(Set, long)}, so that the manager stops using
+ * the resource.
+ * <p>
+ * The backend is created anew whenever the global configuration is saved, so the leases of this controller are
+ * kept per directory outside of the backend instance, and a new instance keeps renewing and releasing the leases
+ * taken by the previous one.
+ */
+public class SharedDirectoryReservationBackend extends ReservationBackend {
+
+    private static final Logger log = Logger.getLogger(SharedDirectoryReservationBackend.class.getName());
+    
+    private static final int DEFAULT_LEASE_TIMEOUT_IN_SECONDS = 120;
+    
+    /**
+     * Leases are renewed by {@link ReservationLeaseRenewer}, so they must survive at least one missed renewal.
+     */
+    public static final int MIN_LEASE_TIMEOUT_IN_SECONDS = 2 * ReservationLeaseRenewer.REFRESH_INTERVAL_IN_SECONDS;
+    
+    private static final Map<String, LeaseState> leaseStatesByDirectory = new ConcurrentHashMap<>();
+    
+    private static final String LOCK_FILE_NAME = ".lock";
+    private static final String LEASE_EXTENSION = ".lease";
+    
+    private final String directory;
+    private final int leaseTimeoutInSeconds;
+    
+    @DataBoundConstructor
+    public SharedDirectoryReservationBackend(
+            final String directory,
+            final int leaseTimeoutInSeconds) {
+
+        if (StringUtils.isBlank(directory)) {
+            throw new IllegalArgumentException("Given directory is blank.");
+        }
+        
+        if (leaseTimeoutInSeconds < MIN_LEASE_TIMEOUT_IN_SECONDS) {
+            throw new IllegalArgumentException("Given lease timeout in seconds (" + leaseTimeoutInSeconds
+                + ") is less than " + MIN_LEASE_TIMEOUT_IN_SECONDS + ".");
+        }
+        
+        this.directory = directory;
+        this.leaseTimeoutInSeconds = leaseTimeoutInSeconds;
+    }
+
+    public String getDirectory() {
+    
+        return directory;
+    }
+
+    public int getLeaseTimeoutInSeconds() {
+    
+        return leaseTimeoutInSeconds;
+    }
+    
+    /**
+     * Raises the lease time-out of configurations saved before it had a minimum.
+     * 
+     * @return The backend to use.
+     */
+    protected Object readResolve() {
+        
+        if (leaseTimeoutInSeconds >= MIN_LEASE_TIMEOUT_IN_SECONDS) {
+            return this;
+        }
+        
+        log.warning("Lease timeout of " + leaseTimeoutInSeconds + " seconds is too short, using "
+            + MIN_LEASE_TIMEOUT_IN_SECONDS + " seconds instead.");
+        
+        return new SharedDirectoryReservationBackend(directory, MIN_LEASE_TIMEOUT_IN_SECONDS);
+    }
+
+    @Override
+    public boolean tryReserve(final String nodeName) {
+
+        synchronized (getLeaseState()) {
+            return tryReserveLocked(nodeName);
+        }
+    }
+    
+    private boolean tryReserveLocked(final String nodeName) {
+
+        try {
+            return withDirectoryLock(() -> {
+                final long now = System.currentTimeMillis();
+                
+                Lease currentLease = readLease(nodeName);
+                
+                if (currentLease != null && currentLease.isActive(now) && !currentLease.isOwnedBy(getControllerId())) {
+                    getForeignLeases().put(nodeName, currentLease);
+                    return false;
+                }
+                
+                long fencingToken = (currentLease == null ? 0 : currentLease.fencingToken) + 1;
+                
+                writeLease(nodeName, new Lease(getControllerId(), fencingToken, now + getLeaseTimeoutInMillis()));
+                
+                getFencingTokens().put(nodeName, fencingToken);
+                getLeasedAt().put(nodeName, System.nanoTime());
+                getForeignLeases().remove(nodeName);
+                
+                return true;
+            });
+        }
+        catch (IOException exception) {
+            // Do not hand out resources that cannot be leased, another controller may be using them.
+            log.log(Level.WARNING, "Failed to reserve " + nodeName + " in shared directory " + directory + ".", exception);
+            
+            return false;
+        }
+    }
+
+    @Override
+    public void release(final String nodeName) {
+
+        synchronized (getLeaseState()) {
+            releaseLocked(nodeName);
+        }
+    }
+    
+    private void releaseLocked(final String nodeName) {
+
+        final Long fencingToken = getFencingTokens().remove(nodeName);
+        
+        getLeasedAt().remove(nodeName);
+        
+        if (fencingToken == null) {
+            return;
+        }
+        
+        try {
+            withDirectoryLock(() -> {
+                Lease currentLease = readLease(nodeName);
+                
+                if (currentLease != null && currentLease.isOwnedBy(getControllerId())
+                        && currentLease.fencingToken == fencingToken) {
+                    // Keep the fencing token so that the next reservation gets a higher one.
+                    writeLease(nodeName, new Lease("", fencingToken, 0));
+                }
+                
+                return null;
+            });
+        }
+        catch (IOException exception) {
+            log.log(Level.WARNING, "Failed to release " + nodeName + " in shared directory " + directory
+                + "; the lease will expire in " + leaseTimeoutInSeconds + " seconds.", exception);
+        }
+    }
+
+    @Override
+    public boolean isReservedElsewhere(final String nodeName) {
+
+        Lease lease = getForeignLeases().get(nodeName);
+        
+        return lease != null && lease.isActive(System.currentTimeMillis());
+    }
+
+    @Override
+    public Set<String> refresh(
+            final Set<String> reservedNodeNames,
+            final long snapshotTakenAt) {
+
+        synchronized (getLeaseState()) {
+            return refreshLocked(reservedNodeNames, snapshotTakenAt);
+        }
+    }
+    
+    private Set<String> refreshLocked(
+            final Set<String> reservedNodeNames,
+            final long snapshotTakenAt) {
+
+        final Set<String> lostNodeNames = new HashSet<>();
+        
+        try {
+            withDirectoryLock(() -> {
+                final long now = System.currentTimeMillis();
+                
+                for (Iterator<Entry<String, Long>> iterator = getFencingTokens().entrySet().iterator(); iterator.hasNext();) {
+                    Entry<String, Long> entry = iterator.next();
+                    
+                    Lease currentLease = readLease(entry.getKey());
+                    
+                    if (currentLease == null || !currentLease.isOwnedBy(getControllerId())
+                            || currentLease.fencingToken != entry.getValue()) {
+                        log.severe("Lease of " + entry.getKey() + " was lost, it is now reserved by another controller.");
+                        iterator.remove();
+                        getLeasedAt().remove(entry.getKey());
+                        lostNodeNames.add(entry.getKey());
+                    }
+                    else if (!reservedNodeNames.contains(entry.getKey()) && isLeasedBefore(entry.getKey(), snapshotTakenAt)) {
+                        // Leaked, e.g. the reservation failed after the lease was taken; leases taken after
+                        // the snapshot are simply not published yet.
+                        writeLease(entry.getKey(), new Lease("", entry.getValue(), 0));
+                        iterator.remove();
+                        getLeasedAt().remove(entry.getKey());
+                    }
+                    else {
+                        writeLease(
+                            entry.getKey(),
+                            new Lease(getControllerId(), entry.getValue(), now + getLeaseTimeoutInMillis()));
+                    }
+                }
+                
+                Map<String, Lease> foreignLeases = new HashMap<>();
+                
+                try (DirectoryStream<Path> leaseFiles = Files.newDirectoryStream(getDirectoryPath(), "*" + LEASE_EXTENSION)) {
+                    for (Path leaseFile : leaseFiles) {
+                        Lease lease = readLease(leaseFile);
+                        
+                        if (lease != null && lease.isActive(now) && !lease.isOwnedBy(getControllerId())) {
+                            foreignLeases.put(lease.nodeName, lease);
+                        }
+                    }
+                }
+                
+                getLeaseState().foreignLeasesByNodeName = new ConcurrentHashMap<>(foreignLeases);
+                
+                return null;
+            });
+        }
+        catch (IOException exception) {
+            log.log(Level.WARNING, "Failed to refresh leases in shared directory " + directory + ".", exception);
+        }
+        
+        return lostNodeNames;
+    }
+    
+    private boolean isLeasedBefore(
+            final String nodeName,
+            final long time) {
+        
+        final Long leasedAt = getLeasedAt().get(nodeName);
+        
+        return leasedAt == null || leasedAt - time < 0;
+    }
+    
+    private <T> T withDirectoryLock(final LockedOperation<T> operation) throws IOException {
+        
+        Files.createDirectories(getDirectoryPath());
+        
+        try (FileChannel channel = FileChannel.open(
+                getDirectoryPath().resolve(LOCK_FILE_NAME),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            
+            return operation.run();
+        }
+    }
+    
+    private Lease readLease(final String nodeName) throws IOException {
+        
+        return readLease(getLeasePath(nodeName));
+    }
+    
+    private static Lease readLease(final Path leaseFile) throws IOException {
+        
+        if (!Files.isRegularFile(leaseFile)) {
+            return null;
+        }
+        
+        Properties properties = new Properties();
+        
+        try (InputStream input = Files.newInputStream(leaseFile)) {
+            properties.load(input);
+        }
+        
+        try {
+            return new Lease(
+                properties.getProperty("nodeName", ""),
+                properties.getProperty("controller", ""),
+                Long.parseLong(properties.getProperty("fencingToken", "0")),
+                Long.parseLong(properties.getProperty("expiresAt", "0")));
+        }
+        catch (NumberFormatException exception) {
+            throw new IOException("Lease file " + leaseFile + " is corrupted.", exception);
+        }
+    }
+    
+    private void writeLease(
+            final String nodeName,
+            final Lease lease) throws IOException {
+        
+        Properties properties = new Properties();
+        
+        properties.setProperty("nodeName", nodeName);
+        properties.setProperty("controller", lease.controller);
+        properties.setProperty("fencingToken", Long.toString(lease.fencingToken));
+        properties.setProperty("expiresAt", Long.toString(lease.expiresAt));
+        
+        Path leaseFile = getLeasePath(nodeName);
+        Path temporaryFile = leaseFile.resolveSibling(leaseFile.getFileName() + ".tmp");
+        
+        try (OutputStream output = Files.newOutputStream(temporaryFile)) {
+            properties.store(output, null);
+        }
+        
+        Files.move(temporaryFile, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private Path getDirectoryPath() {
+        
+        return Paths.get(directory);
+    }
+    
+    private Path getLeasePath(final String nodeName) {
+        
+        return getDirectoryPath().resolve(Util.rawEncode(nodeName) + LEASE_EXTENSION);
+    }
+    
+    private long getLeaseTimeoutInMillis() {
+        
+        return TimeUnit.SECONDS.toMillis(leaseTimeoutInSeconds);
+    }
+    
+    private static String getControllerId() {
+        
+        return Jenkins.get().getLegacyInstanceId();
+    }
+    
+    /**
+     * Gets the lease state of the directory, shared by all backend instances using it.
+     */
+    private LeaseState getLeaseState() {
+        
+        return leaseStatesByDirectory.computeIfAbsent(
+            getDirectoryPath().toAbsolutePath().normalize().toString(), k -> new LeaseState());
+    }
+    
+    private Map<String, Long> getFencingTokens() {
+        
+        return getLeaseState().fencingTokensByNodeName;
+    }
+    
+    private Map<String, Long> getLeasedAt() {
+        
+        return getLeaseState().leasedAtByNodeName;
+    }
+    
+    /**
+     * Not synchronized on purpose, since it is used while handing out resources and must not wait
+     * for the shared directory operations.
+     */
+    private Map<String, Lease> getForeignLeases() {
+        
+        return getLeaseState().foreignLeasesByNodeName;
+    }
+
+    @Override
+    public String toString() {
+
+        return "SharedDirectoryReservationBackend [directory=" + directory + "]";
+    }
+    
+    @FunctionalInterface
+    private interface LockedOperation<T> {
+        
+        T run() throws IOException;
+    }
+    
+    /**
+     * Leases of this controller in one directory. The maps of own leases are guarded by the state itself.
+     */
+    private static final class LeaseState {
+        
+        private final Map<String, Long> fencingTokensByNodeName = new HashMap<>();
+        private final Map<String, Long> leasedAtByNodeName = new HashMap<>();
+        
+        @SuppressWarnings("java:S3077")
+        private volatile Map<String, Lease> foreignLeasesByNodeName = new ConcurrentHashMap<>();
+    }
+    
+    private static final class Lease {
+        
+        private final String nodeName;
+        private final String controller;
+        private final long fencingToken;
+        private final long expiresAt;
+        
+        Lease(
+                String controller,
+                long fencingToken,
+                long expiresAt) {
+
+            this("", controller, fencingToken, expiresAt);
+        }
+        
+        Lease(
+                String nodeName,
+                String controller,
+                long fencingToken,
+                long expiresAt) {
+
+            this.nodeName = nodeName;
+            this.controller = controller;
+            this.fencingToken = fencingToken;
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean isActive(long now) {
+            
+            return StringUtils.isNotEmpty(controller) && expiresAt > now;
+        }
+        
+        boolean isOwnedBy(String controllerId) {
+            
+            return controller.equals(controllerId);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ReservationBackend> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Shared directory (multiple controllers)";
+        }
+        
+        public int defaultLeaseTimeout() {
+            
+            return DEFAULT_LEASE_TIMEOUT_IN_SECONDS;
+        }
+        
+        /**
+         * Checks that the directory is given.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckDirectory(
+                @QueryParameter
+                final String value) {
+           
+            return FormValidation.validateRequired(value);
+        }
+        
+        /**
+         * Checks that the lease time-out is given and is long enough to survive a missed renewal.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckLeaseTimeoutInSeconds(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            final FormValidation validatePositive = FormValidation.validatePositiveInteger(value);
+            
+            if (validatePositive != FormValidation.ok()) {
+                return validatePositive;
+            }
+            
+            if (Integer.parseInt(value) < MIN_LEASE_TIMEOUT_IN_SECONDS) {
+                return FormValidation.error(
+                    "Leases are renewed every " + ReservationLeaseRenewer.REFRESH_INTERVAL_IN_SECONDS + " seconds, "
+                        + "so the time-out must be at least " + MIN_LEASE_TIMEOUT_IN_SECONDS + " seconds.");
+            }
+            
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.calendar;
+
+import java.util.UUID;
+
+/**
+ * Simple POJO storing one advance reservation, i.e. a time window in which a resource is reserved
+ * for a user (e.g. performance test week or release rehearsal).
+ */
+public final class AdvanceReservation {
+
+    private final String id;
+    private final String nodeName;
+    private final String requestedLabel;
+    private final long from;
+    private final long to;
+    private final String reservedBy;
+    private final String description;
+    
+    /**
+     * Constructor.
+     * 
+     * @param nodeName Node name of the reserved resource.
+     * @param requestedLabel Label the reservation was requested for or null if it was requested for the node.
+     * @param from Start of the window (inclusive) in milliseconds since epoch.
+     * @param to End of the window (exclusive) in milliseconds since epoch.
+     * @param reservedBy Name of the user making the reservation.
+     * @param description Description of the reason.
+     */
+    public AdvanceReservation(
+            String nodeName,
+            String requestedLabel,
+            long from,
+            long to,
+            String reservedBy,
+            String description) {
+
+        if (from >= to) {
+            throw new IllegalArgumentException("Given window end (" + to + ") is not after its start (" + from + ").");
+        }
+        
+        this.id = UUID.randomUUID().toString();
+        this.nodeName = nodeName;
+        this.requestedLabel = requestedLabel;
+        this.from = from;
+        this.to = to;
+        this.reservedBy = reservedBy;
+        this.description = description;
+    }
+
+    public String getId() {
+    
+        return id;
+    }
+
+    public String getNodeName() {
+    
+        return nodeName;
+    }
+
+    public String getRequestedLabel() {
+    
+        return requestedLabel;
+    }
+
+    public long getFrom() {
+    
+        return from;
+    }
+
+    public long getTo() {
+    
+        return to;
+    }
+
+    public String getReservedBy() {
+    
+        return reservedBy;
+    }
+
+    public String getDescription() {
+    
+        return description;
+    }
+    
+    /**
+     * Checks whether the window overlaps with given time range.
+     * 
+     * @param rangeFrom Start of the range (inclusive) in milliseconds since epoch.
+     * @param rangeTo End of the range (exclusive) in milliseconds since epoch.
+     * 
+     * @return true if they overlap, false otherwise.
+     */
+    public boolean overlaps(
+            final long rangeFrom,
+            final long rangeTo) {
+        
+        return from < rangeTo && rangeFrom < to;
+    }
+
+    @Override
+    public String toString() {
+
+        return "AdvanceReservation [nodeName=" + nodeName + ", from=" + from + ", to=" + to
+            + ", reservedBy=" + reservedBy + "]";
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.calendar;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+
+import org.jenkins.plugins.reservableresources.ReservableResourcesManager;
+import org.jenkins.plugins.reservableresources.ReservedResource;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Calendar of advance reservations of resources. Windows of every resource never overlap and are kept in
+ * a map sorted by their start, so checking whether a time range overlaps any window of a resource is a single
+ * floor look-up instead of a scan of all windows.
+ * <p>
+ * Builds are not handed resources whose next window starts before the build is expected to release them
+ * (plus a drain margin), and a periodic task turns windows into manual reservations when they start
+ * and releases them when they end.
+ */
+@Extension
+public class ReservationCalendar extends AsyncPeriodicWork {
+
+    private static final Logger log = Logger.getLogger(ReservationCalendar.class.getName());
+    
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    
+    private static final long DRAIN_MARGIN_IN_MILLIS = TimeUnit.MINUTES.toMillis(SystemProperties.getLong(
+        ReservationCalendar.class.getName() + ".drainMarginInMinutes", 15L));
+    
+    private final Map<String, TreeMap<Long, AdvanceReservation>> windowsByNodeName = new HashMap<>();
+    private final Map<String, ReservedResource> activeReservationsById = new ConcurrentHashMap<>();
+    
+    private boolean loaded;
+    
+    public ReservationCalendar() {
+
+        super("Reservable resources calendar");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+    
+    /**
+     * Books a time window on a resource. When given a label, the first resource with that label
+     * that is free for the whole window is booked.
+     * 
+     * @param resource Node name of the resource or a resource label.
+     * @param from Start of the window (inclusive) in milliseconds since epoch.
+     * @param to End of the window (exclusive) in milliseconds since epoch.
+     * @param reservedBy Name of the user making the reservation.
+     * @param description Description of the reason.
+     * 
+     * @return The booked reservation; never null.
+     * 
+     * @throws IllegalArgumentException if there is no such resource or label, or the window is not valid.
+     * @throws IllegalStateException if all matching resources are already booked in the window.
+     * @throws IOException if the calendar could not be saved.
+     */
+    public synchronized AdvanceReservation book(
+            final String resource,
+            final long from,
+            final long to,
+            final String reservedBy,
+            final String description) throws IOException {
+        
+        ensureLoaded();
+        
+        if (to <= System.currentTimeMillis()) {
+            throw new IllegalArgumentException("Given window ends in the past.");
+        }
+        
+        List<Node> reservableNodes = ReservableResourcesManager.getInstance().getReservableNodes();
+        
+        Optional<Node> node = reservableNodes.stream()
+            .filter(reservableNode -> reservableNode.getNodeName().equals(resource))
+            .findFirst();
+        
+        List<Node> candidates = node.isPresent()
+            ? Collections.singletonList(node.get())
+            : reservableNodes.stream()
+                .filter(candidate -> ReservableResourcesManager.hasLabel(candidate.getLabelString(), resource))
+                .sorted(Comparator.comparing(Node::getNodeName))
+                .collect(Collectors.toList());
+        
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("There is no reservable resource or label '" + resource + "'.");
+        }
+        
+        for (Node candidate : candidates) {
+            if (!isBooked(candidate.getNodeName(), from, to)) {
+                AdvanceReservation reservation = new AdvanceReservation(
+                    candidate.getNodeName(),
+                    node.isPresent() ? null : resource,
+                    from,
+                    to,
+                    reservedBy,
+                    description);
+                
+                windowsByNodeName.computeIfAbsent(candidate.getNodeName(), k -> new TreeMap<>()).put(from, reservation);
+                save();
+                
+                log.info("Booked " + reservation + ".");
+                
+                return reservation;
+            }
+        }
+        
+        throw new IllegalStateException("All resources '" + resource + "' are already reserved in given window.");
+    }
+    
+    /**
+     * Cancels an advance reservation; if its window already started, the resource is released.
+     * 
+     * @param id Identifier of the reservation.
+     * 
+     * @throws IOException if the calendar could not be saved.
+     */
+    public void cancel(final String id) throws IOException {
+        
+        synchronized (this) {
+            ensureLoaded();
+            
+            for (TreeMap<Long, AdvanceReservation> windows : windowsByNodeName.values()) {
+                windows.values().removeIf(reservation -> reservation.getId().equals(id));
+            }
+            
+            windowsByNodeName.values().removeIf(TreeMap::isEmpty);
+            save();
+        }
+        
+        // Outside of the calendar lock, the manager consults the calendar while holding its own lock.
+        ReservedResource activeReservation = activeReservationsById.remove(id);
+        
+        if (activeReservation != null) {
+            ReservableResourcesManager.getInstance().releaseResource(activeReservation);
+        }
+    }
+    
+    /**
+     * Checks whether any window of the resource overlaps with given time range.
+     * 
+     * @param nodeName String representing node name of the resource.
+     * @param from Start of the range (inclusive) in milliseconds since epoch.
+     * @param to End of the range (exclusive) in milliseconds since epoch.
+     * 
+     * @return true if the resource is booked in the range, false otherwise.
+     */
+    public synchronized boolean isBooked(
+            final String nodeName,
+            final long from,
+            final long to) {
+        
+        ensureLoaded();
+        
+        TreeMap<Long, AdvanceReservation> windows = windowsByNodeName.get(nodeName);
+        
+        if (windows == null) {
+            return false;
+        }
+        
+        // Windows do not overlap, so the last one starting before the range end also ends last.
+        Entry<Long, AdvanceReservation> entry = windows.lowerEntry(to);
+        
+        return entry != null && entry.getValue().overlaps(from, to);
+    }
+    
+    /**
+     * Gets all advance reservations ordered by their start.
+     * 
+     * @return List of the reservations; never null.
+     */
+    public synchronized List<AdvanceReservation> getReservations() {
+        
+        ensureLoaded();
+        
+        return windowsByNodeName.values().stream()
+            .flatMap(windows -> windows.values().stream())
+            .sorted(Comparator.comparingLong(AdvanceReservation::getFrom))
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Checks whether the window of the reservation started and the resource is reserved for it.
+     * 
+     * @param reservation The advance reservation.
+     * 
+     * @return true if the reservation is active, false otherwise.
+     */
+    public boolean isActive(final AdvanceReservation reservation) {
+        
+        return activeReservationsById.containsKey(reservation.getId());
+    }
+    
+    /**
+     * Gets the time before a window during which builds that would hold the resource into the window
+     * are not given the resource any more, on top of their expected hold.
+     * 
+     * @return Time in milliseconds.
+     */
+    public static long getDrainMarginInMillis() {
+        
+        return DRAIN_MARGIN_IN_MILLIS;
+    }
+
+    /**
+     * Formats the time of a window for display, in the time zone of the controller.
+     * 
+     * @param time Time in milliseconds since epoch.
+     * 
+     * @return String representing the time.
+     */
+    public static String formatTime(final long time) {
+        
+        return TIME_FORMATTER.format(Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()));
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+
+        final long now = System.currentTimeMillis();
+        
+        List<AdvanceReservation> started = new ArrayList<>();
+        List<AdvanceReservation> ended = new ArrayList<>();
+        
+        synchronized (this) {
+            ensureLoaded();
+            
+            for (Iterator<TreeMap<Long, AdvanceReservation>> iterator = windowsByNodeName.values().iterator(); iterator.hasNext();) {
+                TreeMap<Long, AdvanceReservation> windows = iterator.next();
+                
+                // Ended windows are always the first ones.
+                while (!windows.isEmpty() && windows.firstEntry().getValue().getTo() <= now) {
+                    ended.add(windows.pollFirstEntry().getValue());
+                }
+                
+                Entry<Long, AdvanceReservation> current = windows.floorEntry(now);
+                
+                if (current != null) {
+                    started.add(current.getValue());
+                }
+                
+                if (windows.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            
+            if (!ended.isEmpty()) {
+                save();
+            }
+        }
+        
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        for (AdvanceReservation reservation : ended) {
+            ReservedResource activeReservation = activeReservationsById.remove(reservation.getId());
+            
+            if (activeReservation != null) {
+                manager.releaseResource(activeReservation);
+                
+                listener.getLogger().println("Window of " + reservation + " ended.");
+            }
+        }
+        
+        for (AdvanceReservation reservation : started) {
+            if (activeReservationsById.containsKey(reservation.getId())) {
+                continue;
+            }
+            
+            Node node = Jenkins.get().getNode(reservation.getNodeName());
+            
+            if (node == null) {
+                continue;
+            }
+            
+            // The resource can still be held by a build that ran longer than expected, try again next time.
+            ReservedResource activeReservation = manager.reserveForWindow(
+                node,
+                reservation.getReservedBy() + " (until " + formatTime(reservation.getTo()) + ")");
+            
+            if (activeReservation == null) {
+                log.log(Level.FINE, "Resource of {0} is not free yet.", reservation);
+            }
+            else {
+                activeReservationsById.put(reservation.getId(), activeReservation);
+                
+                listener.getLogger().println("Window of " + reservation + " started.");
+            }
+        }
+    }
+    
+    private void ensureLoaded() {
+        
+        if (loaded) {
+            return;
+        }
+        
+        loaded = true;
+        
+        XmlFile file = getFile();
+        
+        if (!file.exists()) {
+            return;
+        }
+        
+        try {
+            @SuppressWarnings("unchecked")
+            List<AdvanceReservation> reservations = (List<AdvanceReservation>) file.read();
+            
+            for (AdvanceReservation reservation : reservations) {
+                windowsByNodeName.computeIfAbsent(reservation.getNodeName(), k -> new TreeMap<>())
+                    .put(reservation.getFrom(), reservation);
+            }
+        }
+        catch (IOException | RuntimeException exception) {
+            log.log(Level.WARNING, "Failed to load advance reservations from " + file + ".", exception);
+        }
+    }
+    
+    private void save() throws IOException {
+        
+        List<AdvanceReservation> reservations = windowsByNodeName.values().stream()
+            .flatMap(windows -> windows.values().stream())
+            .collect(Collectors.toList());
+        
+        getFile().write(new ArrayList<>(reservations));
+    }
+    
+    private static XmlFile getFile() {
+        
+        return new XmlFile(
+            Jenkins.XSTREAM2,
+            new File(Jenkins.get().getRootDir(), "reservable-resources/advance-reservations.xml"));
+    }
+    
+    /**
+     * Gets the {@link ReservationCalendar} extension instance.
+     * 
+     * @return The instance; never null.
+     */
+    @Nonnull
+    public static ReservationCalendar get() {
+        
+        return ExtensionList.lookupSingleton(ReservationCalendar.class);
+    }
+}
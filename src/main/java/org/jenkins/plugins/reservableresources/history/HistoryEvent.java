@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.history;
+
+/**
+ * Simple POJO storing one event read from the {@link ReservationHistory}.
+ */
+public final class HistoryEvent {
+
+    /**
+     * Type of the history event.
+     */
+    public enum Type {
+        
+        /** Resource was reserved; duration is the time the build waited for it. */
+        RESERVED,
+        
+        /** Resource was released; duration is the time it was reserved for. */
+        RELEASED,
+        
+        /** Build gave up waiting for a resource; duration is the time it waited. */
+        TIMED_OUT
+    }
+    
+    private final Type type;
+    private final long timestamp;
+    private final String label;
+    private final String nodeName;
+    private final long durationInMillis;
+    
+    public HistoryEvent(
+            Type type,
+            long timestamp,
+            String label,
+            String nodeName,
+            long durationInMillis) {
+
+        this.type = type;
+        this.timestamp = timestamp;
+        this.label = label;
+        this.nodeName = nodeName;
+        this.durationInMillis = durationInMillis;
+    }
+
+    public Type getType() {
+    
+        return type;
+    }
+
+    /**
+     * Gets the time of the event.
+     * 
+     * @return Time in milliseconds since epoch.
+     */
+    public long getTimestamp() {
+    
+        return timestamp;
+    }
+
+    /**
+     * Gets the resource label of the event.
+     * 
+     * @return The label; empty for manual reservations.
+     */
+    public String getLabel() {
+    
+        return label;
+    }
+
+    /**
+     * Gets the node name of the resource.
+     * 
+     * @return The node name; empty for time-outs.
+     */
+    public String getNodeName() {
+    
+        return nodeName;
+    }
+
+    public long getDurationInMillis() {
+    
+        return durationInMillis;
+    }
+
+    @Override
+    public String toString() {
+
+        return "HistoryEvent [type=" + type + ", timestamp=" + timestamp + ", label=" + label
+            + ", nodeName=" + nodeName + ", durationInMillis=" + durationInMillis + "]";
+    }
+}
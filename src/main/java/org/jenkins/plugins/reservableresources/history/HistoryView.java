@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.history;
+
+import java.io.IOException;
+
+/**
+ * View of the reservation history reports, bound to the 'history' URL of the reservable resources root action.
+ */
+public class HistoryView {
+
+    private static final int DEFAULT_WEEKS = 4;
+    private static final int MAX_WEEKS = 26;
+    
+    public String getDisplayName() {
+
+        return "Reservable Resources History";
+    }
+    
+    /**
+     * Creates the utilisation report for given number of weeks.
+     * 
+     * @param weeks String representing the number of weeks; invalid values fall back to default.
+     * 
+     * @return The report; never null.
+     * 
+     * @throws IOException if the history cannot be read.
+     */
+    public UtilisationReport createReport(final String weeks) throws IOException {
+        
+        return UtilisationReport.create(ReservationHistory.get(), parseWeeks(weeks));
+    }
+    
+    public int parseWeeks(final String weeks) {
+        
+        try {
+            return Math.max(1, Math.min(MAX_WEEKS, Integer.parseInt(weeks)));
+        }
+        catch (NumberFormatException exception) {
+            return DEFAULT_WEEKS;
+        }
+    }
+}
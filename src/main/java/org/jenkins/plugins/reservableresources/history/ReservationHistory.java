@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import org.jenkins.plugins.reservableresources.ReservableResourcesListener;
+import org.jenkins.plugins.reservableresources.ReservedResource;
+import org.jenkins.plugins.reservableresources.history.HistoryEvent.Type;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AbstractBuild;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+/**
+ * Compact on-disk history of reservation events.
+ * <p>
+ * Events are appended to one segment file per (UTC) day as fixed-size binary records, so each segment
+ * is sorted by time and the records can be binary searched by their position; together with the day segments
+ * this gives the time-range index. Label and node names are stored once in a dictionary file and records
+ * refer to them by index. Segments older than configured retention are deleted on day roll-over.
+ * <p>
+ * Events are written by a single background thread which keeps the segment of the current day open.
+ */
+@Extension
+public class ReservationHistory extends ReservableResourcesListener {
+
+    private static final Logger log = Logger.getLogger(ReservationHistory.class.getName());
+    
+    /**
+     * Time-stamp (8), type (1), label identifier (4), node name identifier (4) and duration in seconds (4).
+     */
+    static final int RECORD_SIZE = 21;
+    
+    private static final String SEGMENT_EXTENSION = ".dat";
+    private static final String NAMES_FILE_NAME = "names.txt";
+    
+    private final File directory;
+    
+    /**
+     * Single thread writing the events in the order they were recorded; its queue buffers the events.
+     */
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(
+        1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        new NamingThreadFactory(new DaemonThreadFactory(), "ReservableResourcesHistory"));
+    
+    /**
+     * Dictionary of label and node names, guarded by its own monitor which the writer thread holds only while
+     * looking up or adding a name.
+     */
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> identifiersByName = new HashMap<>();
+    private boolean namesLoaded;
+    
+    // Accessed by the writer thread only.
+    private LocalDate currentDay;
+    private long lastTimestamp;
+    private OutputStream segmentOutput;
+    
+    public ReservationHistory() {
+
+        this(new File(Jenkins.get().getRootDir(), "reservable-resources/history"));
+    }
+    
+    ReservationHistory(final File directory) {
+        
+        this.directory = directory;
+    }
+
+    @Override
+    public void onReserved(
+            final ReservedResource reservedResource,
+            final long waitInMillis) {
+
+        append(Type.RESERVED, reservedResource.getLabel(), reservedResource.getNode().getNodeName(), waitInMillis);
+    }
+
+    @Override
+    public void onReleased(
+            final ReservedResource releasedResource,
+            final long holdInMillis) {
+
+        append(Type.RELEASED, releasedResource.getLabel(), releasedResource.getNode().getNodeName(), holdInMillis);
+    }
+
+    @Override
+    public void onTimedOut(
+            final String label,
+            final AbstractBuild<?, ?> build,
+            final long waitInMillis) {
+
+        append(Type.TIMED_OUT, label, null, waitInMillis);
+    }
+    
+    /**
+     * Streams all events from given time range to the visitor, in the order they were recorded.
+     * Only one day segment is open at a time and records are not kept in memory.
+     * 
+     * @param from Start of the range (inclusive) in milliseconds since epoch.
+     * @param to End of the range (inclusive) in milliseconds since epoch.
+     * @param visitor Consumer of the events.
+     * 
+     * @throws IOException if the history cannot be read.
+     */
+    public void read(
+            final long from,
+            final long to,
+            final Consumer<HistoryEvent> visitor) throws IOException {
+        
+        final LocalDate lastDay = toDay(to);
+        
+        for (LocalDate day = toDay(from); !day.isAfter(lastDay); day = day.plusDays(1)) {
+            File segment = getSegmentFile(day);
+            
+            if (segment.isFile()) {
+                readSegment(segment, from, to, visitor);
+            }
+        }
+    }
+    
+    private void readSegment(
+            final File segment,
+            final long from,
+            final long to,
+            final Consumer<HistoryEvent> visitor) throws IOException {
+        
+        // Partially written record at the end of current segment is ignored.
+        final long recordCount = segment.length() / RECORD_SIZE;
+        final long firstRecord = findFirstRecord(segment, recordCount, from);
+        
+        try (InputStream fileStream = new FileInputStream(segment);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(fileStream))) {
+            
+            skipFully(input, firstRecord * RECORD_SIZE);
+            
+            for (long record = firstRecord; record < recordCount; record++) {
+                long timestamp = input.readLong();
+                int type = input.readUnsignedByte();
+                int labelIdentifier = input.readInt();
+                int nodeNameIdentifier = input.readInt();
+                long durationInSeconds = input.readInt() & 0xFFFFFFFFL;
+                
+                if (timestamp > to) {
+                    return;
+                }
+                
+                if (type >= Type.values().length) {
+                    continue;
+                }
+                
+                visitor.accept(new HistoryEvent(
+                    Type.values()[type],
+                    timestamp,
+                    getName(labelIdentifier),
+                    getName(nodeNameIdentifier),
+                    TimeUnit.SECONDS.toMillis(durationInSeconds)));
+            }
+        }
+    }
+    
+    /**
+     * Binary searches the segment for the first record with time-stamp equal or after given time.
+     */
+    private static long findFirstRecord(
+            final File segment,
+            final long recordCount,
+            final long from) throws IOException {
+        
+        long low = 0;
+        long high = recordCount;
+        
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                
+                file.seek(middle * RECORD_SIZE);
+                
+                if (file.readLong() < from) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+        }
+        
+        return low;
+    }
+    
+    private static void skipFully(
+            final DataInputStream input,
+            final long bytes) throws IOException {
+        
+        long remaining = bytes;
+        
+        while (remaining > 0) {
+            long skipped = input.skip(remaining);
+            
+            if (skipped <= 0) {
+                throw new EOFException("Unexpected end of history segment.");
+            }
+            
+            remaining -= skipped;
+        }
+    }
+    
+    /**
+     * Queues the event for the writer thread, so that the callers (e.g. the queue threads handing out resources)
+     * never wait for the disk nor for the readers of the history.
+     */
+    private void append(
+            final Type type,
+            final String label,
+            final String nodeName,
+            final long durationInMillis) {
+        
+        if (ReservableResourcesConfiguration.get().getHistoryRetentionInDays() == 0) {
+            return;
+        }
+        
+        final long timestamp = System.currentTimeMillis();
+        
+        writer.execute(() -> write(timestamp, type, label, nodeName, durationInMillis));
+    }
+    
+    /**
+     * Writes one event to the segment of its day; runs on the writer thread only. The segment stream is kept open
+     * until the day rolls over and it is flushed whenever no other event is waiting, so readers see all records
+     * written so far.
+     */
+    private void write(
+            final long eventTimestamp,
+            final Type type,
+            final String label,
+            final String nodeName,
+            final long durationInMillis) {
+        
+        final int retentionInDays = ReservableResourcesConfiguration.get().getHistoryRetentionInDays();
+        
+        // Keep records of a segment sorted even if the clock goes back.
+        final long timestamp = Math.max(eventTimestamp, lastTimestamp);
+        final LocalDate day = toDay(timestamp);
+        
+        try {
+            if (!day.equals(currentDay) || segmentOutput == null) {
+                closeSegment();
+                
+                Files.createDirectories(directory.toPath());
+                
+                if (retentionInDays > 0) {
+                    deleteExpiredSegments(day.minusDays(retentionInDays));
+                }
+                
+                segmentOutput = new BufferedOutputStream(new FileOutputStream(getSegmentFile(day), true));
+                currentDay = day;
+            }
+            
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            
+            record.putLong(timestamp);
+            record.put((byte) type.ordinal());
+            record.putInt(getIdentifier(label));
+            record.putInt(getIdentifier(nodeName));
+            record.putInt((int) Math.min(0xFFFFFFFFL, TimeUnit.MILLISECONDS.toSeconds(Math.max(0, durationInMillis))));
+            
+            segmentOutput.write(record.array());
+            
+            if (writer.getQueue().isEmpty()) {
+                segmentOutput.flush();
+            }
+            
+            lastTimestamp = timestamp;
+        }
+        catch (IOException exception) {
+            log.log(Level.WARNING, "Failed to record " + type + " event in reservation history.", exception);
+            
+            // Reopen the segment with the next event, a partially written record is ignored by the readers.
+            closeSegment();
+        }
+    }
+    
+    private void closeSegment() {
+        
+        if (segmentOutput == null) {
+            return;
+        }
+        
+        try {
+            segmentOutput.close();
+        }
+        catch (IOException exception) {
+            log.log(Level.WARNING, "Failed to close reservation history segment of " + currentDay + ".", exception);
+        }
+        
+        segmentOutput = null;
+    }
+    
+    private void deleteExpiredSegments(final LocalDate firstKeptDay) {
+        
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+        
+        if (segments == null) {
+            return;
+        }
+        
+        for (File segment : segments) {
+            String name = segment.getName();
+            
+            try {
+                LocalDate day = LocalDate.parse(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+                
+                if (day.isBefore(firstKeptDay) && !segment.delete()) {
+                    log.warning("Failed to delete expired history segment " + segment + ".");
+                }
+            }
+            catch (DateTimeParseException ignoreException) {
+                // Not a segment, leave it alone.
+            }
+        }
+    }
+    
+    private int getIdentifier(final String name) throws IOException {
+        
+        final String key = name == null ? "" : name;
+        
+        synchronized (names) {
+            loadNames();
+            
+            Integer identifier = identifiersByName.get(key);
+            
+            if (identifier != null) {
+                return identifier;
+            }
+            
+            // Names cannot contain line breaks, but make sure the dictionary cannot get corrupted.
+            String line = key.replace('\n', ' ').replace('\r', ' ') + "\n";
+            
+            try (FileOutputStream output = new FileOutputStream(new File(directory, NAMES_FILE_NAME), true)) {
+                output.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+            
+            identifier = names.size();
+            
+            names.add(key);
+            identifiersByName.put(key, identifier);
+            
+            return identifier;
+        }
+    }
+    
+    private String getName(final int identifier) throws IOException {
+        
+        synchronized (names) {
+            loadNames();
+            
+            return identifier >= 0 && identifier < names.size() ? names.get(identifier) : "";
+        }
+    }
+    
+    /**
+     * Loads the dictionary on first use; the caller holds the monitor of {@link #names}.
+     */
+    private void loadNames() throws IOException {
+        
+        if (namesLoaded) {
+            return;
+        }
+        
+        File namesFile = new File(directory, NAMES_FILE_NAME);
+        
+        if (namesFile.isFile()) {
+            for (String name : Files.readAllLines(namesFile.toPath(), StandardCharsets.UTF_8)) {
+                identifiersByName.putIfAbsent(name, names.size());
+                names.add(name);
+            }
+        }
+        
+        namesLoaded = true;
+    }
+    
+    private File getSegmentFile(final LocalDate day) {
+        
+        return new File(directory, day.toString() + SEGMENT_EXTENSION);
+    }
+    
+    private static LocalDate toDay(final long timestamp) {
+        
+        return Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+    
+    /**
+     * Gets the {@link ReservationHistory} extension instance.
+     * 
+     * @return The instance; never null.
+     */
+    @Nonnull
+    public static ReservationHistory get() {
+        
+        return ExtensionList.lookupSingleton(ReservationHistory.class);
+    }
+    
+    /**
+     * Opens the history stored in given directory for reading by offline tools, without a running Jenkins.
+     * 
+     * @param directory The history directory, e.g. $JENKINS_HOME/reservable-resources/history.
+     * 
+     * @return The history; never null.
+     */
+    @Nonnull
+    public static ReservationHistory open(final File directory) {
+        
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Given history directory '" + directory + "' does not exist.");
+        }
+        
+        return new ReservationHistory(directory);
+    }
+}
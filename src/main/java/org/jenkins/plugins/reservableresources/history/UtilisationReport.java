@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.history;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkins.plugins.reservableresources.ReservableResourcesManager;
+
+import hudson.Util;
+import hudson.model.Node;
+
+/**
+ * Utilisation and wait heat maps (day by hour of the day) per resource label, aggregated
+ * by streaming the events of the {@link ReservationHistory}.
+ */
+public final class UtilisationReport {
+
+    private static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+    
+    private static final String MANUAL_RESERVATIONS = "(manual reservations)";
+    
+    private final ZoneId zone;
+    private final LocalDate firstDay;
+    private final int dayCount;
+    private final long from;
+    private final long to;
+    
+    private final Map<String, LabelHeatMap> heatMapsByLabel = new TreeMap<>();
+    
+    UtilisationReport(
+            final int weeks,
+            final long now,
+            final ZoneId zone) {
+
+        this.zone = zone;
+        this.dayCount = weeks * 7;
+        this.to = now;
+        this.firstDay = Instant.ofEpochMilli(now).atZone(zone).toLocalDate().minusDays(dayCount - 1L);
+        this.from = firstDay.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Creates the report for given number of most recent weeks.
+     * 
+     * @param history The history to read events from.
+     * @param weeks Positive integer representing the number of weeks.
+     * 
+     * @return The report; never null.
+     * 
+     * @throws IOException if the history cannot be read.
+     */
+    public static UtilisationReport create(
+            final ReservationHistory history,
+            final int weeks) throws IOException {
+        
+        if (weeks < 1) {
+            throw new IllegalArgumentException("Given number of weeks (" + weeks + ") is not positive.");
+        }
+        
+        UtilisationReport report = new UtilisationReport(weeks, System.currentTimeMillis(), ZoneId.systemDefault());
+        
+        history.read(report.from, report.to, report::add);
+        
+        return report;
+    }
+    
+    public Collection<LabelHeatMap> getHeatMaps() {
+        
+        return heatMapsByLabel.values();
+    }
+    
+    void add(final HistoryEvent event) {
+        
+        final String label = StringUtils.isEmpty(event.getLabel()) ? MANUAL_RESERVATIONS : event.getLabel();
+        
+        LabelHeatMap heatMap = heatMapsByLabel.computeIfAbsent(label, LabelHeatMap::new);
+        
+        switch (event.getType()) {
+            case RESERVED:
+                if (!MANUAL_RESERVATIONS.equals(label)) {
+                    heatMap.addWait(event.getTimestamp(), event.getDurationInMillis(), false);
+                }
+                break;
+                
+            case TIMED_OUT:
+                heatMap.addWait(event.getTimestamp(), event.getDurationInMillis(), true);
+                break;
+                
+            case RELEASED:
+                heatMap.addHold(event.getTimestamp() - event.getDurationInMillis(), event.getTimestamp());
+                break;
+                
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Gets the index of the cell (day * 24 + hour) the given time falls into.
+     * 
+     * @return The index or -1 if time is outside of the report.
+     */
+    private int getCellIndex(final long timestamp) {
+        
+        if (timestamp < from || timestamp > to) {
+            return -1;
+        }
+        
+        ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(zone);
+        
+        long day = ChronoUnit.DAYS.between(firstDay, time.toLocalDate());
+        
+        return day < 0 || day >= dayCount ? -1 : (int) day * 24 + time.getHour();
+    }
+    
+    /**
+     * Gets the time the hour of the day given time falls into ends, in the zone of the report.
+     * Hours of the day do not start at whole epoch hours in zones with offsets like +05:30.
+     */
+    private long getHourEnd(final long timestamp) {
+        
+        return Instant.ofEpochMilli(timestamp).atZone(zone)
+            .truncatedTo(ChronoUnit.HOURS)
+            .plusHours(1)
+            .toInstant()
+            .toEpochMilli();
+    }
+    
+    public final class LabelHeatMap {
+        
+        private final String label;
+        
+        private final double[] heldMillis = new double[dayCount * 24];
+        private final double[] waitMillis = new double[dayCount * 24];
+        private final int[] waitCounts = new int[dayCount * 24];
+        private final int[] timeOutCounts = new int[dayCount * 24];
+        
+        LabelHeatMap(final String label) {
+            
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            
+            return label;
+        }
+        
+        private void addWait(
+                final long timestamp,
+                final long durationInMillis,
+                final boolean timedOut) {
+            
+            int index = getCellIndex(timestamp);
+            
+            if (index < 0) {
+                return;
+            }
+            
+            waitMillis[index] += durationInMillis;
+            waitCounts[index]++;
+            
+            if (timedOut) {
+                timeOutCounts[index]++;
+            }
+        }
+        
+        /**
+         * Spreads the hold over all hourly cells it overlaps with.
+         */
+        private void addHold(
+                final long start,
+                final long end) {
+            
+            long time = Math.max(start, from);
+            
+            while (time < end) {
+                int index = getCellIndex(time);
+                
+                long hourEnd = Math.min(end, getHourEnd(time));
+                
+                if (index >= 0) {
+                    heldMillis[index] += hourEnd - time;
+                }
+                
+                time = hourEnd;
+            }
+        }
+        
+        /**
+         * Gets the time held in one hourly cell.
+         * 
+         * @param day Day index, 0 being the first day of the report.
+         * @param hour Hour of the day.
+         * 
+         * @return Held time in milliseconds.
+         */
+        double getHeldMillis(
+                final int day,
+                final int hour) {
+            
+            return heldMillis[day * 24 + hour];
+        }
+        
+        /**
+         * Gets the rows of the heat maps, one per day, newest first.
+         * 
+         * @return List of the rows; never null.
+         */
+        public List<HeatMapRow> getRows() {
+            
+            final int capacity = getCapacity();
+            
+            double maxAverageWait = 1;
+            
+            for (int index = 0; index < waitCounts.length; index++) {
+                if (waitCounts[index] > 0) {
+                    maxAverageWait = Math.max(maxAverageWait, waitMillis[index] / waitCounts[index]);
+                }
+            }
+            
+            List<HeatMapRow> rows = new ArrayList<>(dayCount);
+            
+            for (int day = dayCount - 1; day >= 0; day--) {
+                List<HeatMapCell> utilisationCells = new ArrayList<>(24);
+                List<HeatMapCell> waitCells = new ArrayList<>(24);
+                
+                for (int hour = 0; hour < 24; hour++) {
+                    int index = day * 24 + hour;
+                    
+                    double utilisation = heldMillis[index] / ((double) HOUR_IN_MILLIS * capacity);
+                    
+                    utilisationCells.add(new HeatMapCell(
+                        Math.min(1, utilisation),
+                        hour + ":00 - " + Math.round(utilisation * 100) + "% utilised"));
+                    
+                    if (waitCounts[index] == 0) {
+                        waitCells.add(new HeatMapCell(0, hour + ":00 - no waits"));
+                    }
+                    else {
+                        double averageWait = waitMillis[index] / waitCounts[index];
+                        
+                        waitCells.add(new HeatMapCell(
+                            averageWait / maxAverageWait,
+                            hour + ":00 - " + waitCounts[index] + " builds waited "
+                                + Util.getTimeSpanString(Math.round(averageWait)) + " on average, "
+                                + timeOutCounts[index] + " timed out"));
+                    }
+                }
+                
+                rows.add(new HeatMapRow(firstDay.plusDays(day).toString(), utilisationCells, waitCells));
+            }
+            
+            return rows;
+        }
+        
+        /**
+         * Gets the number of resources with this label, as currently configured.
+         */
+        private int getCapacity() {
+            
+            List<Node> nodes = ReservableResourcesManager.getInstance().getReservableNodes();
+            
+            if (MANUAL_RESERVATIONS.equals(label)) {
+                return Math.max(1, nodes.size());
+            }
+            
+            int capacity = (int) nodes.stream()
+                .filter(node -> ReservableResourcesManager.hasLabel(node.getLabelString(), label))
+                .count();
+            
+            return Math.max(1, capacity);
+        }
+    }
+    
+    public static final class HeatMapRow {
+        
+        public final String day;
+        public final List<HeatMapCell> utilisationCells;
+        public final List<HeatMapCell> waitCells;
+        
+        public HeatMapRow(
+                String day,
+                List<HeatMapCell> utilisationCells,
+                List<HeatMapCell> waitCells) {
+
+            this.day = day;
+            this.utilisationCells = utilisationCells;
+            this.waitCells = waitCells;
+        }
+    }
+    
+    public static final class HeatMapCell {
+        
+        /**
+         * Intensity of the cell between 0 and 1.
+         */
+        public final double intensity;
+        public final String title;
+        
+        public HeatMapCell(
+                double intensity,
+                String title) {
+
+            this.intensity = intensity;
+            this.title = title;
+        }
+        
+        public String getOpacity() {
+            
+            return String.format(Locale.ROOT, "%.2f", intensity);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import net.sf.json.JSONObject;
+
+/**
+ * Health probe that runs a command on the Jenkins controller and treats zero exit code as healthy.
+ * The resource settings and its node name are passed to the command as environment variables.
+ * <p>
+ * Only users allowed to run scripts can configure the probe, although it is a part of the node configuration.
+ */
+public class CommandHealthProbe extends HealthProbe {
+
+    private static final int DEFAULT_TIMEOUT_IN_SECONDS = 30;
+    
+    private final String command;
+    private final int timeoutInSeconds;
+    
+    @DataBoundConstructor
+    public CommandHealthProbe(
+            final String command,
+            final int timeoutInSeconds) {
+
+        if (StringUtils.isBlank(command)) {
+            throw new IllegalArgumentException("Given command is blank.");
+        }
+        
+        if (timeoutInSeconds < 1) {
+            throw new IllegalArgumentException("Given timeout in seconds (" + timeoutInSeconds + ") is not positive.");
+        }
+        
+        this.command = command;
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
+    public String getCommand() {
+    
+        return command;
+    }
+
+    public int getTimeoutInSeconds() {
+    
+        return timeoutInSeconds;
+    }
+
+    /**
+     * Checks the permission also when the probe is read from XML, e.g. from a posted {@code config.xml} of the node,
+     * which does not go through the descriptor. The configuration is loaded from disk as the system user.
+     * 
+     * @return This probe.
+     */
+    protected Object readResolve() {
+        
+        LocalCommand.checkConfigurePermission();
+        
+        return this;
+    }
+
+    @Override
+    public void check(
+            final Node node,
+            final Map<String, String> settings) throws IOException, InterruptedException {
+
+        Map<String, String> environment = new HashMap<>(settings);
+        environment.put("NODE_NAME", node.getNodeName());
+        
+        LocalCommand.run(command, environment, timeoutInSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public String toString() {
+
+        return "CommandHealthProbe [command=" + command + "]";
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<HealthProbe> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Command";
+        }
+        
+        public int defaultTimeout() {
+            
+            return DEFAULT_TIMEOUT_IN_SECONDS;
+        }
+        
+        @Override
+        public HealthProbe newInstance(
+                final StaplerRequest request,
+                final JSONObject formData) throws FormException {
+            
+            LocalCommand.checkConfigurePermission();
+            
+            return super.newInstance(request, formData);
+        }
+        
+        /**
+         * Checks that the time-out is given and is a positive number.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckTimeoutInSeconds(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
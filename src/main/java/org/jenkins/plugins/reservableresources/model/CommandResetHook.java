@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import net.sf.json.JSONObject;
+
+/**
+ * Reset hook that runs a command (e.g. script restoring a database snapshot) on the Jenkins controller.
+ * The resource settings and its node name are passed to the command as environment variables.
+ * <p>
+ * Only users allowed to run scripts can configure the hook, although it is a part of the node configuration.
+ */
+public class CommandResetHook extends ResetHook {
+
+    private static final int DEFAULT_TIMEOUT_IN_MINUTES = 30;
+    
+    private final String command;
+    private final int timeoutInMinutes;
+    
+    @DataBoundConstructor
+    public CommandResetHook(
+            final String command,
+            final int timeoutInMinutes) {
+
+        if (StringUtils.isBlank(command)) {
+            throw new IllegalArgumentException("Given command is blank.");
+        }
+        
+        if (timeoutInMinutes < 1) {
+            throw new IllegalArgumentException("Given timeout in minutes (" + timeoutInMinutes + ") is not positive.");
+        }
+        
+        this.command = command;
+        this.timeoutInMinutes = timeoutInMinutes;
+    }
+
+    public String getCommand() {
+    
+        return command;
+    }
+
+    public int getTimeoutInMinutes() {
+    
+        return timeoutInMinutes;
+    }
+
+    /**
+     * Checks the permission also when the hook is read from XML, e.g. from a posted {@code config.xml} of the node,
+     * which does not go through the descriptor. The configuration is loaded from disk as the system user.
+     * 
+     * @return This hook.
+     */
+    protected Object readResolve() {
+        
+        LocalCommand.checkConfigurePermission();
+        
+        return this;
+    }
+
+    @Override
+    public void reset(
+            final Node node,
+            final Map<String, String> settings) throws IOException, InterruptedException {
+
+        Map<String, String> environment = new HashMap<>(settings);
+        environment.put("NODE_NAME", node.getNodeName());
+        
+        LocalCommand.run(command, environment, timeoutInMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public String toString() {
+
+        return "CommandResetHook [command=" + command + "]";
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ResetHook> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Command";
+        }
+        
+        public int defaultTimeout() {
+            
+            return DEFAULT_TIMEOUT_IN_MINUTES;
+        }
+        
+        @Override
+        public ResetHook newInstance(
+                final StaplerRequest request,
+                final JSONObject formData) throws FormException {
+            
+            LocalCommand.checkConfigurePermission();
+            
+            return super.newInstance(request, formData);
+        }
+        
+        /**
+         * Checks that the time-out is given and is a positive number.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckTimeoutInMinutes(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+/**
+ * Resource provisioner that runs commands (e.g. scripts starting and stopping database containers) on the Jenkins
+ * controller. New resources are copies of a template node: the provision command gets the new node name and label
+ * and can print <code>KEY=VALUE</code> lines, which become settings of the new resource next to the template settings.
+ * The retire command gets the node name and the settings of the retired resource.
+ * <p>
+ * Provisioners are configured only in the global configuration, which requires administer permission,
+ * and the descriptor checks the permission again, as the commands run on the controller.
+ */
+public class CommandResourceProvisioner extends ResourceProvisioner {
+
+    private static final int DEFAULT_TIMEOUT_IN_MINUTES = 10;
+    
+    private final String templateNodeName;
+    private final String provisionCommand;
+    private final String retireCommand;
+    private final int timeoutInMinutes;
+    
+    @DataBoundConstructor
+    public CommandResourceProvisioner(
+            final String templateNodeName,
+            final String provisionCommand,
+            final String retireCommand,
+            final int timeoutInMinutes) {
+
+        if (StringUtils.isBlank(templateNodeName)) {
+            throw new IllegalArgumentException("Given template node name is blank.");
+        }
+        
+        if (StringUtils.isBlank(provisionCommand) || StringUtils.isBlank(retireCommand)) {
+            throw new IllegalArgumentException("Given provision or retire command is blank.");
+        }
+        
+        if (timeoutInMinutes < 1) {
+            throw new IllegalArgumentException("Given timeout in minutes (" + timeoutInMinutes + ") is not positive.");
+        }
+        
+        this.templateNodeName = templateNodeName;
+        this.provisionCommand = provisionCommand;
+        this.retireCommand = retireCommand;
+        this.timeoutInMinutes = timeoutInMinutes;
+    }
+
+    public String getTemplateNodeName() {
+    
+        return templateNodeName;
+    }
+
+    public String getProvisionCommand() {
+    
+        return provisionCommand;
+    }
+
+    public String getRetireCommand() {
+    
+        return retireCommand;
+    }
+
+    public int getTimeoutInMinutes() {
+    
+        return timeoutInMinutes;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Node provision(final String label) throws IOException, InterruptedException {
+
+        Node template = Jenkins.get().getNode(templateNodeName);
+        
+        if (!(template instanceof DumbSlave)) {
+            throw new IOException("Template node '" + templateNodeName + "' does not exist or is not a permanent agent.");
+        }
+        
+        final String nodeName = templateNodeName + "-" + UUID.randomUUID().toString().substring(0, 8);
+        
+        Map<String, String> environment = new HashMap<>();
+        environment.put("NODE_NAME", nodeName);
+        environment.put("RESOURCE_LABEL", label);
+        
+        String output = LocalCommand.runForOutput(provisionCommand, environment, timeoutInMinutes, TimeUnit.MINUTES);
+        
+        // Copy the template the same way Jenkins copies nodes, through their XML form.
+        DumbSlave node = (DumbSlave) Jenkins.XSTREAM2.fromXML(Jenkins.XSTREAM2.toXML(template));
+        node.setNodeName(nodeName);
+        
+        NodePropertyExtension templateProperty = template.getNodeProperty(NodePropertyExtension.class);
+        
+        Map<String, String> settings = templateProperty == null ? new HashMap<>() : templateProperty.getSettingsMap();
+        settings.putAll(parseSettings(output));
+        
+        List<NodePropertyExtension.Setting> nodeSettings = new ArrayList<>();
+        settings.forEach((key, value) -> nodeSettings.add(new NodePropertyExtension.Setting(key, value)));
+        
+        NodePropertyExtension property = new NodePropertyExtension(nodeSettings);
+        
+        if (templateProperty != null) {
+            property.setHealthProbes(templateProperty.getHealthProbes());
+            property.setResetHooks(templateProperty.getResetHooks());
+        }
+        
+        node.getNodeProperties().replace(property);
+        
+        return node;
+    }
+
+    @Override
+    public void retire(final Node node) throws IOException, InterruptedException {
+
+        NodePropertyExtension property = node.getNodeProperty(NodePropertyExtension.class);
+        
+        Map<String, String> environment = property == null ? new HashMap<>() : property.getSettingsMap();
+        environment.put("NODE_NAME", node.getNodeName());
+        
+        LocalCommand.run(retireCommand, environment, timeoutInMinutes, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Parses <code>KEY=VALUE</code> lines, other lines are ignored.
+     */
+    private static Map<String, String> parseSettings(final String output) {
+        
+        Map<String, String> settings = new HashMap<>();
+        
+        for (String line : StringUtils.split(output, "\r\n")) {
+            int separator = line.indexOf('=');
+            
+            if (separator > 0 && StringUtils.isNotBlank(line.substring(separator + 1))) {
+                settings.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+            }
+        }
+        
+        return settings;
+    }
+
+    @Override
+    public String toString() {
+
+        return "CommandResourceProvisioner [templateNodeName=" + templateNodeName + "]";
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ResourceProvisioner> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Command";
+        }
+        
+        public int defaultTimeout() {
+            
+            return DEFAULT_TIMEOUT_IN_MINUTES;
+        }
+        
+        @Override
+        public ResourceProvisioner newInstance(
+                final StaplerRequest request,
+                final JSONObject formData) throws FormException {
+            
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            
+            return super.newInstance(request, formData);
+        }
+        
+        /**
+         * Checks that the template node is given and exists.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckTemplateNodeName(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            if (!(Jenkins.get().getNode(value) instanceof DumbSlave)) {
+                return FormValidation.error("There is no permanent agent named '" + value + "'.");
+            }
+            
+            return FormValidation.ok();
+        }
+        
+        /**
+         * Checks that the time-out is given and is a positive number.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckTimeoutInMinutes(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.IOException;
+import java.util.Map;
+
+import hudson.DescriptorExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+/**
+ * Health probe checks whether the service behind a reservable resource (e.g. database) is usable.
+ * Probes are executed periodically in the background, never while a build is acquiring a resource.
+ * 
+ * @see NodePropertyExtension
+ */
+public abstract class HealthProbe extends AbstractDescribableImpl<HealthProbe> implements ExtensionPoint {
+
+    /**
+     * Checks the health of given resource.
+     * 
+     * @param node The reservable resource node.
+     * @param settings Settings of the resource keyed by their names.
+     * 
+     * @throws IOException if the resource is not healthy; the message should describe why.
+     * @throws InterruptedException if the check was interrupted.
+     */
+    public abstract void check(
+            Node node,
+            Map<String, String> settings) throws IOException, InterruptedException;
+    
+    /**
+     * Gets all registered health probe descriptors.
+     * 
+     * @return List of the descriptors; never null.
+     */
+    public static DescriptorExtensionList<HealthProbe, Descriptor<HealthProbe>> all() {
+        
+        return Jenkins.get().getDescriptorList(HealthProbe.class);
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+/**
+ * Policy applied to the builds waiting for resources with one label (admission to the queue, provisioning
+ * of extra resources, maximum hold time and earmarking for queued builds), configured globally.
+ * 
+ * @see ReservableResourcesConfiguration
+ */
+public class LabelPolicy extends AbstractDescribableImpl<LabelPolicy> {
+
+    private static final int DEFAULT_SCALE_UP_DELAY_IN_SECONDS = 120;
+    private static final int DEFAULT_PROVISION_INTERVAL_IN_SECONDS = 300;
+    private static final int DEFAULT_MAX_PROVISIONED = 5;
+    private static final int DEFAULT_WARM_UP_IN_MINUTES = 10;
+    private static final int DEFAULT_IDLE_RETIREMENT_IN_MINUTES = 30;
+    private static final int DEFAULT_RESCHEDULE_DELAY_IN_SECONDS = 300;
+    private static final int DEFAULT_HOLD_WARNING_IN_MINUTES = 10;
+    
+    private final String label;
+    
+    private List<ResourceProvisioner> provisioners;
+    private int scaleUpQueueLength;
+    private int scaleUpWaitInMinutes;
+    private int scaleUpDelayInSeconds = DEFAULT_SCALE_UP_DELAY_IN_SECONDS;
+    private int provisionIntervalInSeconds = DEFAULT_PROVISION_INTERVAL_IN_SECONDS;
+    private int maxProvisioned = DEFAULT_MAX_PROVISIONED;
+    private int warmUpInMinutes = DEFAULT_WARM_UP_IN_MINUTES;
+    private int idleRetirementInMinutes = DEFAULT_IDLE_RETIREMENT_IN_MINUTES;
+    private int maxQueueLength;
+    private int maxPredictedWaitInMinutes;
+    private boolean rescheduleRejected;
+    private int rescheduleDelayInSeconds = DEFAULT_RESCHEDULE_DELAY_IN_SECONDS;
+    private int maxHoldInMinutes;
+    private int holdWarningInMinutes = DEFAULT_HOLD_WARNING_IN_MINUTES;
+    private HoldLimitAction holdLimitAction;
+    private int earmarkHoldInSeconds;
+    
+    @DataBoundConstructor
+    public LabelPolicy(final String label) {
+
+        if (StringUtils.isBlank(label)) {
+            throw new IllegalArgumentException("Given resource label is blank.");
+        }
+        
+        this.label = label.trim();
+    }
+
+    public String getLabel() {
+    
+        return label;
+    }
+
+    /**
+     * Gets the provisioners of extra resources, tried in order until one succeeds.
+     * 
+     * @return List of the provisioners; never null.
+     */
+    public List<ResourceProvisioner> getProvisioners() {
+    
+        return provisioners == null ? Collections.emptyList() : provisioners;
+    }
+
+    @DataBoundSetter
+    public void setProvisioners(List<ResourceProvisioner> provisioners) {
+    
+        this.provisioners = provisioners == null ? null : new ArrayList<>(provisioners);
+    }
+
+    /**
+     * Gets the number of waiting builds at which extra resources are provisioned.
+     * 
+     * @return Integer representing the number of builds; 0 means the queue length is not considered.
+     */
+    public int getScaleUpQueueLength() {
+    
+        return scaleUpQueueLength;
+    }
+
+    @DataBoundSetter
+    public void setScaleUpQueueLength(int scaleUpQueueLength) {
+    
+        this.scaleUpQueueLength = Math.max(0, scaleUpQueueLength);
+    }
+
+    /**
+     * Gets the predicted wait of a newly queued build at which extra resources are provisioned.
+     * 
+     * @return Integer representing the number of minutes; 0 means the predicted wait is not considered.
+     */
+    public int getScaleUpWaitInMinutes() {
+    
+        return scaleUpWaitInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setScaleUpWaitInMinutes(int scaleUpWaitInMinutes) {
+    
+        this.scaleUpWaitInMinutes = Math.max(0, scaleUpWaitInMinutes);
+    }
+
+    /**
+     * Gets how long the queue has to stay over the thresholds before extra resources are provisioned.
+     * 
+     * @return Integer representing the number of seconds.
+     */
+    public int getScaleUpDelayInSeconds() {
+    
+        return scaleUpDelayInSeconds;
+    }
+
+    @DataBoundSetter
+    public void setScaleUpDelayInSeconds(int scaleUpDelayInSeconds) {
+    
+        this.scaleUpDelayInSeconds = Math.max(0, scaleUpDelayInSeconds);
+    }
+
+    /**
+     * Gets the minimum time between two provisioning attempts, which limits the rate of provisioning.
+     * 
+     * @return Integer representing the number of seconds.
+     */
+    public int getProvisionIntervalInSeconds() {
+    
+        return provisionIntervalInSeconds;
+    }
+
+    @DataBoundSetter
+    public void setProvisionIntervalInSeconds(int provisionIntervalInSeconds) {
+    
+        this.provisionIntervalInSeconds = Math.max(0, provisionIntervalInSeconds);
+    }
+
+    public int getMaxProvisioned() {
+    
+        return maxProvisioned;
+    }
+
+    @DataBoundSetter
+    public void setMaxProvisioned(int maxProvisioned) {
+    
+        this.maxProvisioned = Math.max(0, maxProvisioned);
+    }
+
+    /**
+     * Gets how long a provisioned resource can take to come online. While it is warming up, it counts
+     * as capacity on its way, so the same demand does not provision it again.
+     * 
+     * @return Integer representing the number of minutes.
+     */
+    public int getWarmUpInMinutes() {
+    
+        return warmUpInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setWarmUpInMinutes(int warmUpInMinutes) {
+    
+        this.warmUpInMinutes = Math.max(0, warmUpInMinutes);
+    }
+
+    /**
+     * Gets how long a provisioned resource has to be idle before it is retired.
+     * 
+     * @return Integer representing the number of minutes.
+     */
+    public int getIdleRetirementInMinutes() {
+    
+        return idleRetirementInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setIdleRetirementInMinutes(int idleRetirementInMinutes) {
+    
+        this.idleRetirementInMinutes = Math.max(1, idleRetirementInMinutes);
+    }
+    
+    /**
+     * Gets the maximum number of builds waiting for the label; more builds are not admitted to the queue.
+     * 
+     * @return Integer representing the number of builds; 0 means unlimited.
+     */
+    public int getMaxQueueLength() {
+    
+        return maxQueueLength;
+    }
+
+    @DataBoundSetter
+    public void setMaxQueueLength(int maxQueueLength) {
+    
+        this.maxQueueLength = Math.max(0, maxQueueLength);
+    }
+
+    /**
+     * Gets the maximum predicted wait of a build; builds that would wait longer are not admitted to the queue.
+     * 
+     * @return Integer representing the number of minutes; 0 means unlimited.
+     */
+    public int getMaxPredictedWaitInMinutes() {
+    
+        return maxPredictedWaitInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setMaxPredictedWaitInMinutes(int maxPredictedWaitInMinutes) {
+    
+        this.maxPredictedWaitInMinutes = Math.max(0, maxPredictedWaitInMinutes);
+    }
+
+    /**
+     * Checks whether builds that are not admitted are scheduled again instead of just failing.
+     * 
+     * @return true if rejected builds are rescheduled, false if they fail.
+     */
+    public boolean isRescheduleRejected() {
+    
+        return rescheduleRejected;
+    }
+
+    @DataBoundSetter
+    public void setRescheduleRejected(boolean rescheduleRejected) {
+    
+        this.rescheduleRejected = rescheduleRejected;
+    }
+
+    /**
+     * Gets the quiet period of rescheduled builds.
+     * 
+     * @return Integer representing the number of seconds.
+     */
+    public int getRescheduleDelayInSeconds() {
+    
+        return rescheduleDelayInSeconds;
+    }
+
+    @DataBoundSetter
+    public void setRescheduleDelayInSeconds(int rescheduleDelayInSeconds) {
+    
+        this.rescheduleDelayInSeconds = Math.max(0, rescheduleDelayInSeconds);
+    }
+
+    /**
+     * Gets the maximum time a build can hold a resource with the label.
+     * 
+     * @return Integer representing the number of minutes; 0 means the hold time is not limited.
+     */
+    public int getMaxHoldInMinutes() {
+    
+        return maxHoldInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setMaxHoldInMinutes(int maxHoldInMinutes) {
+    
+        this.maxHoldInMinutes = Math.max(0, maxHoldInMinutes);
+    }
+
+    /**
+     * Gets how long before reaching the maximum hold time the build is warned.
+     * 
+     * @return Integer representing the number of minutes.
+     */
+    public int getHoldWarningInMinutes() {
+    
+        return holdWarningInMinutes;
+    }
+
+    @DataBoundSetter
+    public void setHoldWarningInMinutes(int holdWarningInMinutes) {
+    
+        this.holdWarningInMinutes = Math.max(0, holdWarningInMinutes);
+    }
+
+    /**
+     * Gets what is done with builds holding a resource longer than the maximum hold time.
+     * 
+     * @return The action; never null.
+     */
+    public HoldLimitAction getHoldLimitAction() {
+    
+        return holdLimitAction == null ? HoldLimitAction.INTERRUPT_BUILD : holdLimitAction;
+    }
+
+    @DataBoundSetter
+    public void setHoldLimitAction(HoldLimitAction holdLimitAction) {
+    
+        this.holdLimitAction = holdLimitAction;
+    }
+    
+    /**
+     * Gets how long resources earmarked for a build entering the Jenkins queue stay earmarked after its quiet
+     * period, before other builds can take them.
+     * 
+     * @return Integer representing the number of seconds; 0 means resources are not earmarked.
+     */
+    public int getEarmarkHoldInSeconds() {
+    
+        return earmarkHoldInSeconds;
+    }
+
+    @DataBoundSetter
+    public void setEarmarkHoldInSeconds(int earmarkHoldInSeconds) {
+    
+        this.earmarkHoldInSeconds = Math.max(0, earmarkHoldInSeconds);
+    }
+    
+    /**
+     * Checks whether extra resources can be provisioned for the label.
+     * 
+     * @return true if there is a provisioner and at least one threshold, false otherwise.
+     */
+    public boolean isAutoscaling() {
+        
+        return !getProvisioners().isEmpty() && maxProvisioned > 0 && (scaleUpQueueLength > 0 || scaleUpWaitInMinutes > 0);
+    }
+
+    @Override
+    public String toString() {
+
+        return "LabelPolicy [label=" + label + "]";
+    }
+    
+    /**
+     * Action taken when a build holds a resource longer than the maximum hold time.
+     */
+    public enum HoldLimitAction {
+        
+        /** The build is aborted and releases its resources as usual. */
+        INTERRUPT_BUILD("Abort the build"),
+        
+        /** The resource is released while the build keeps running, and the build is marked unstable. */
+        RELEASE_RESOURCE("Release the resource and mark the build unstable");
+        
+        private final String description;
+        
+        HoldLimitAction(final String description) {
+            
+            this.description = description;
+        }
+        
+        public String getDescription() {
+            
+            return description;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<LabelPolicy> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "Label policy";
+        }
+        
+        public int defaultScaleUpDelayInSeconds() {
+            
+            return DEFAULT_SCALE_UP_DELAY_IN_SECONDS;
+        }
+        
+        public int defaultProvisionIntervalInSeconds() {
+            
+            return DEFAULT_PROVISION_INTERVAL_IN_SECONDS;
+        }
+        
+        public int defaultMaxProvisioned() {
+            
+            return DEFAULT_MAX_PROVISIONED;
+        }
+        
+        public int defaultWarmUpInMinutes() {
+            
+            return DEFAULT_WARM_UP_IN_MINUTES;
+        }
+        
+        public int defaultIdleRetirementInMinutes() {
+            
+            return DEFAULT_IDLE_RETIREMENT_IN_MINUTES;
+        }
+        
+        public int defaultRescheduleDelayInSeconds() {
+            
+            return DEFAULT_RESCHEDULE_DELAY_IN_SECONDS;
+        }
+        
+        public int defaultHoldWarningInMinutes() {
+            
+            return DEFAULT_HOLD_WARNING_IN_MINUTES;
+        }
+        
+        /**
+         * Checks that the label is given.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckLabel(
+                @QueryParameter
+                final String value) {
+           
+            return FormValidation.validateRequired(value);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Functions;
+import jenkins.model.Jenkins;
+
+/**
+ * Helper for running commands configured for reservable resources on the Jenkins controller.
+ * <p>
+ * Configuring such a command amounts to running arbitrary code on the controller, so describables with a command
+ * must call {@link #checkConfigurePermission()} both when their descriptor creates them from a form and when they
+ * are read from XML, since the node configuration can also be posted as {@code config.xml}.
+ */
+final class LocalCommand {
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private LocalCommand() {
+        
+    }
+    
+    /**
+     * Checks that the current user may configure commands run on the controller, which requires the same
+     * permission as the script console.
+     * 
+     * @throws hudson.security.AccessDeniedException2 if the user does not have the permission.
+     */
+    static void checkConfigurePermission() {
+        
+        Jenkins.get().checkPermission(Jenkins.RUN_SCRIPTS);
+    }
+    
+    /**
+     * Runs given command using system shell and waits for it to finish.
+     * 
+     * @param command String representing the command to run.
+     * @param environment Additional environment variables for the command.
+     * @param timeout Maximum time to wait for the command.
+     * @param unit Unit of the timeout argument.
+     * 
+     * @throws IOException if command could not be started, did not finish in time or exited with non zero code.
+     * @throws InterruptedException if waiting for the command was interrupted.
+     */
+    static void run(
+            final String command,
+            final Map<String, String> environment,
+            final long timeout,
+            final TimeUnit unit) throws IOException, InterruptedException {
+        
+        run(command, environment, new File(Functions.isWindows() ? "NUL" : "/dev/null"), timeout, unit);
+    }
+    
+    /**
+     * Runs given command using system shell, waits for it to finish and returns its standard output.
+     * 
+     * @param command String representing the command to run.
+     * @param environment Additional environment variables for the command.
+     * @param timeout Maximum time to wait for the command.
+     * @param unit Unit of the timeout argument.
+     * 
+     * @return String representing the output of the command; never null.
+     * 
+     * @throws IOException if command could not be started, did not finish in time or exited with non zero code.
+     * @throws InterruptedException if waiting for the command was interrupted.
+     */
+    static String runForOutput(
+            final String command,
+            final Map<String, String> environment,
+            final long timeout,
+            final TimeUnit unit) throws IOException, InterruptedException {
+        
+        // Output goes to a file so that a command printing a lot can never block on a full pipe.
+        File output = File.createTempFile("reservable-resources", ".out");
+        
+        try {
+            run(command, environment, output, timeout, unit);
+            
+            return new String(Files.readAllBytes(output.toPath()), Charset.defaultCharset());
+        }
+        finally {
+            Files.deleteIfExists(output.toPath());
+        }
+    }
+    
+    private static void run(
+            final String command,
+            final Map<String, String> environment,
+            final File output,
+            final long timeout,
+            final TimeUnit unit) throws IOException, InterruptedException {
+        
+        ProcessBuilder processBuilder = Functions.isWindows()
+            ? new ProcessBuilder("cmd", "/c", command)
+            : new ProcessBuilder("sh", "-c", command);
+        
+        processBuilder.environment().putAll(environment);
+        
+        processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(new File(Functions.isWindows() ? "NUL" : "/dev/null")));
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(output));
+        
+        Process process = processBuilder.start();
+        
+        try {
+            if (!process.waitFor(timeout, unit)) {
+                throw new IOException("Command did not finish within " + timeout + " " + unit.name().toLowerCase() + ".");
+            }
+            
+            if (process.exitValue() != 0) {
+                throw new IOException("Command exited with code " + process.exitValue() + ".");
+            }
+        }
+        finally {
+            process.destroyForcibly();
+        }
+    }
+}
@@ -21,10 +21,15 @@
  */
 package org.jenkins.plugins.reservableresources.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
@@ -41,6 +46,9 @@ import hudson.slaves.NodePropertyDescriptor;
 public class NodePropertyExtension extends NodeProperty<DumbSlave> {
 
     private final List<Setting> settings;
+    
+    private List<HealthProbe> healthProbes;
+    private List<ResetHook> resetHooks;
    
     @DataBoundConstructor
     public NodePropertyExtension(List<Setting> settings) {
@@ -55,6 +63,59 @@ public class NodePropertyExtension extends NodeProperty<DumbSlave> {
         return settings;
     }
     
+    /**
+     * Gets the settings as a map keyed by setting names.
+     * 
+     * @return Map of setting values; never null.
+     */
+    public Map<String, String> getSettingsMap() {
+        
+        Map<String, String> settingsMap = new HashMap<>();
+        
+        if (settings != null) {
+            for (Setting setting : settings) {
+                settingsMap.put(setting.key, setting.value);
+            }
+        }
+        
+        return settingsMap;
+    }
+    
+    /**
+     * Gets the value of given setting. Settings such as a zone or a rack also define groups of resources
+     * that builds can require to be co-allocated.
+     * 
+     * @param key The setting name.
+     * 
+     * @return The setting value or null if the resource has no such setting.
+     */
+    public String getSetting(final String key) {
+        
+        return getSettingsMap().get(key);
+    }
+
+    public List<HealthProbe> getHealthProbes() {
+
+        return healthProbes == null ? Collections.emptyList() : healthProbes;
+    }
+
+    @DataBoundSetter
+    public void setHealthProbes(List<HealthProbe> healthProbes) {
+
+        this.healthProbes = healthProbes == null ? null : new ArrayList<>(healthProbes);
+    }
+
+    public List<ResetHook> getResetHooks() {
+
+        return resetHooks == null ? Collections.emptyList() : resetHooks;
+    }
+
+    @DataBoundSetter
+    public void setResetHooks(List<ResetHook> resetHooks) {
+
+        this.resetHooks = resetHooks == null ? null : new ArrayList<>(resetHooks);
+    }
+    
     public static class Setting extends AbstractDescribableImpl<Setting> {
 
         public final String key;
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.jenkins.plugins.reservableresources.backend.InMemoryReservationBackend;
+import org.jenkins.plugins.reservableresources.backend.ReservationBackend;
+import org.jenkins.plugins.reservableresources.scheduling.SchedulingPolicy;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.DescriptorExtensionList;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+
+/**
+ * Global (system wide) configuration of the reservable resources plugin.
+ *
+ * @see GlobalConfiguration
+ */
+@Extension
+public class ReservableResourcesConfiguration extends GlobalConfiguration {
+
+    private static final int DEFAULT_PREEMPTION_MINIMUM_PRIORITY = 1;
+    private static final int DEFAULT_PREEMPTION_WAIT_IN_SECONDS = 60;
+    private static final int DEFAULT_MAX_PARALLEL_RESETS = 2;
+    private static final int DEFAULT_HISTORY_RETENTION_IN_DAYS = 90;
+
+    private int preemptionMinimumPriority = DEFAULT_PREEMPTION_MINIMUM_PRIORITY;
+    private int preemptionWaitInSeconds = DEFAULT_PREEMPTION_WAIT_IN_SECONDS;
+    private int maxParallelResets = DEFAULT_MAX_PARALLEL_RESETS;
+    private int historyRetentionInDays = DEFAULT_HISTORY_RETENTION_IN_DAYS;
+    private String schedulingPolicyName = SchedulingPolicy.DEFAULT.getName();
+    private ReservationBackend reservationBackend;
+    private List<LabelPolicy> labelPolicies;
+
+    public ReservableResourcesConfiguration() {
+
+        load();
+    }
+
+    /**
+     * Gets the minimum build priority that is allowed to preempt manual reservations
+     * that were marked as preemptible.
+     *
+     * @return Integer representing the priority.
+     */
+    public int getPreemptionMinimumPriority() {
+
+        return preemptionMinimumPriority;
+    }
+
+    @DataBoundSetter
+    public void setPreemptionMinimumPriority(int preemptionMinimumPriority) {
+
+        this.preemptionMinimumPriority = preemptionMinimumPriority;
+    }
+
+    /**
+     * Gets the number of seconds a build has to wait for a resource before it can preempt
+     * manual reservation.
+     *
+     * @return Integer representing the number of seconds.
+     */
+    public int getPreemptionWaitInSeconds() {
+
+        return preemptionWaitInSeconds;
+    }
+
+    @DataBoundSetter
+    public void setPreemptionWaitInSeconds(int preemptionWaitInSeconds) {
+
+        if (preemptionWaitInSeconds < 0) {
+            throw new IllegalArgumentException(
+                "Given preemption wait in seconds (" + preemptionWaitInSeconds + ") is negative.");
+        }
+
+        this.preemptionWaitInSeconds = preemptionWaitInSeconds;
+    }
+
+    /**
+     * Gets the maximum number of resource resets (see {@link ResetHook}) running at the same time.
+     *
+     * @return Positive integer representing the number of resets.
+     */
+    public int getMaxParallelResets() {
+
+        return maxParallelResets;
+    }
+
+    @DataBoundSetter
+    public void setMaxParallelResets(int maxParallelResets) {
+
+        if (maxParallelResets < 1) {
+            throw new IllegalArgumentException(
+                "Given maximum parallel resets (" + maxParallelResets + ") is not positive.");
+        }
+
+        this.maxParallelResets = maxParallelResets;
+    }
+
+    /**
+     * Gets the number of days the reservation history is kept for.
+     *
+     * @return Integer representing the number of days; 0 means history is not recorded.
+     */
+    public int getHistoryRetentionInDays() {
+
+        return historyRetentionInDays;
+    }
+
+    @DataBoundSetter
+    public void setHistoryRetentionInDays(int historyRetentionInDays) {
+
+        if (historyRetentionInDays < 0) {
+            throw new IllegalArgumentException(
+                "Given history retention in days (" + historyRetentionInDays + ") is negative.");
+        }
+
+        this.historyRetentionInDays = historyRetentionInDays;
+    }
+
+    /**
+     * Gets the name of the scheduling policy, one of {@link SchedulingPolicy#getBuiltInPolicies()}.
+     *
+     * @return The name; never null.
+     */
+    public String getSchedulingPolicyName() {
+
+        return getSchedulingPolicy().getName();
+    }
+
+    @DataBoundSetter
+    public void setSchedulingPolicyName(String schedulingPolicyName) {
+
+        if (SchedulingPolicy.getBuiltInPolicy(schedulingPolicyName) == null) {
+            throw new IllegalArgumentException("Given scheduling policy '" + schedulingPolicyName + "' does not exist.");
+        }
+
+        this.schedulingPolicyName = schedulingPolicyName;
+    }
+
+    /**
+     * Gets the policy ordering the builds waiting for resources and selecting the resources to hand out.
+     * Policies can be compared on the recorded workload with the {@link org.jenkins.plugins.reservableresources.scheduling.SchedulingSimulator}
+     * before they are configured.
+     *
+     * @return The policy; never null, the default one if the configured policy does not exist.
+     */
+    @Nonnull
+    public SchedulingPolicy getSchedulingPolicy() {
+
+        final SchedulingPolicy schedulingPolicy = SchedulingPolicy.getBuiltInPolicy(schedulingPolicyName);
+
+        return schedulingPolicy == null ? SchedulingPolicy.DEFAULT : schedulingPolicy;
+    }
+
+    /**
+     * Gets the backend used to reserve resources, which allows sharing resources between controllers.
+     *
+     * @return The backend; never null.
+     */
+    @Nonnull
+    public synchronized ReservationBackend getReservationBackend() {
+
+        if (reservationBackend == null) {
+            reservationBackend = new InMemoryReservationBackend();
+        }
+
+        return reservationBackend;
+    }
+
+    @DataBoundSetter
+    public synchronized void setReservationBackend(ReservationBackend reservationBackend) {
+
+        this.reservationBackend = reservationBackend;
+    }
+
+    /**
+     * Gets the policies of individual resource labels.
+     *
+     * @return List of the policies; never null.
+     */
+    public List<LabelPolicy> getLabelPolicies() {
+
+        return labelPolicies == null ? Collections.emptyList() : labelPolicies;
+    }
+
+    @DataBoundSetter
+    public void setLabelPolicies(List<LabelPolicy> labelPolicies) {
+
+        this.labelPolicies = labelPolicies == null ? null : new ArrayList<>(labelPolicies);
+    }
+
+    /**
+     * Gets the policy of given resource label.
+     *
+     * @param label The resource label.
+     *
+     * @return The policy or null if the label has no policy.
+     */
+    public LabelPolicy getLabelPolicy(final String label) {
+
+        return getLabelPolicies().stream()
+            .filter(labelPolicy -> labelPolicy.getLabel().equals(label))
+            .findFirst()
+            .orElse(null);
+    }
+
+    public DescriptorExtensionList<ReservationBackend, Descriptor<ReservationBackend>> getReservationBackendDescriptors() {
+
+        return ReservationBackend.all();
+    }
+
+    @Override
+    public boolean configure(
+            final StaplerRequest request,
+            final JSONObject json) throws FormException {
+
+        // Data bound setters are not called for empty repeatable lists.
+        labelPolicies = null;
+
+        request.bindJSON(this, json);
+        save();
+
+        return true;
+    }
+
+    /**
+     * Fills the built-in scheduling policies.
+     *
+     * @return the list box model.
+     */
+    public ListBoxModel doFillSchedulingPolicyNameItems() {
+
+        final ListBoxModel items = new ListBoxModel();
+
+        for (SchedulingPolicy schedulingPolicy : SchedulingPolicy.getBuiltInPolicies()) {
+            items.add(schedulingPolicy.getName());
+        }
+
+        return items;
+    }
+
+    /**
+     * Checks that the preemption wait is given and is not a negative number.
+     *
+     * @param value The string value to validate.
+     *
+     * @return the validation results.
+     */
+    public FormValidation doCheckPreemptionWaitInSeconds(
+            @QueryParameter
+            final String value) {
+
+        final FormValidation validateRequired = FormValidation.validateRequired(value);
+
+        if (validateRequired != FormValidation.ok()) {
+            return validateRequired;
+        }
+
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Checks that the history retention is given and is not a negative number.
+     *
+     * @param value The string value to validate.
+     *
+     * @return the validation results.
+     */
+    public FormValidation doCheckHistoryRetentionInDays(
+            @QueryParameter
+            final String value) {
+
+        final FormValidation validateRequired = FormValidation.validateRequired(value);
+
+        if (validateRequired != FormValidation.ok()) {
+            return validateRequired;
+        }
+
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Checks that the maximum parallel resets is given and is a positive number.
+     *
+     * @param value The string value to validate.
+     *
+     * @return the validation results.
+     */
+    public FormValidation doCheckMaxParallelResets(
+            @QueryParameter
+            final String value) {
+
+        final FormValidation validateRequired = FormValidation.validateRequired(value);
+
+        if (validateRequired != FormValidation.ok()) {
+            return validateRequired;
+        }
+
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    /**
+     * Gets the {@link ReservableResourcesConfiguration} extension instance.
+     *
+     * @return The instance; never null.
+     */
+    @Nonnull
+    public static ReservableResourcesConfiguration get() {
+
+        ReservableResourcesConfiguration configuration =
+            GlobalConfiguration.all().get(ReservableResourcesConfiguration.class);
+
+        if (configuration == null) {
+            throw new IllegalStateException("Reservable resources configuration is not registered.");
+        }
+
+        return configuration;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.IOException;
+
+import hudson.DescriptorExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+/**
+ * Resource provisioner creates extra reservable resources (e.g. database containers) when builds wait too long
+ * for a label and disposes of them when they are not needed any more.
+ * 
+ * @see LabelPolicy
+ */
+public abstract class ResourceProvisioner extends AbstractDescribableImpl<ResourceProvisioner> implements ExtensionPoint {
+
+    /**
+     * Provisions a new resource with given label. The returned node is added to Jenkins by the caller
+     * and has to have the {@link NodePropertyExtension}; it can still be connecting (warming up).
+     * 
+     * @param label The resource label.
+     * 
+     * @return The new node; never null.
+     * 
+     * @throws IOException if the resource could not be provisioned; the message should describe why.
+     * @throws InterruptedException if the provisioning was interrupted.
+     */
+    public abstract Node provision(String label) throws IOException, InterruptedException;
+    
+    /**
+     * Disposes of a resource provisioned by this provisioner. The node was already removed from Jenkins.
+     * 
+     * @param node The node of the retired resource.
+     * 
+     * @throws IOException if the resource could not be disposed of; the message should describe why.
+     * @throws InterruptedException if the retirement was interrupted.
+     */
+    public abstract void retire(Node node) throws IOException, InterruptedException;
+    
+    /**
+     * Gets all registered resource provisioner descriptors.
+     * 
+     * @return List of the descriptors; never null.
+     */
+    public static DescriptorExtensionList<ResourceProvisioner, Descriptor<ResourceProvisioner>> all() {
+        
+        return Jenkins.get().getDescriptorList(ResourceProvisioner.class);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+
+/**
+ * Health probe that opens a TCP connection to a host and port taken from the resource settings.
+ */
+public class TcpHealthProbe extends HealthProbe {
+
+    private static final int DEFAULT_TIMEOUT_IN_SECONDS = 5;
+    
+    private final String hostSetting;
+    private final String portSetting;
+    private final int timeoutInSeconds;
+    
+    @DataBoundConstructor
+    public TcpHealthProbe(
+            final String hostSetting,
+            final String portSetting,
+            final int timeoutInSeconds) {
+
+        if (StringUtils.isBlank(hostSetting)) {
+            throw new IllegalArgumentException("Given host setting name is blank.");
+        }
+
+        if (StringUtils.isBlank(portSetting)) {
+            throw new IllegalArgumentException("Given port setting name is blank.");
+        }
+        
+        if (timeoutInSeconds < 1) {
+            throw new IllegalArgumentException("Given timeout in seconds (" + timeoutInSeconds + ") is not positive.");
+        }
+        
+        this.hostSetting = hostSetting;
+        this.portSetting = portSetting;
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
+    public String getHostSetting() {
+    
+        return hostSetting;
+    }
+
+    public String getPortSetting() {
+    
+        return portSetting;
+    }
+
+    public int getTimeoutInSeconds() {
+    
+        return timeoutInSeconds;
+    }
+
+    @Override
+    public void check(
+            final Node node,
+            final Map<String, String> settings) throws IOException {
+
+        final String host = settings.get(hostSetting);
+        final String port = settings.get(portSetting);
+        
+        if (host == null || port == null) {
+            throw new IOException("Settings '" + hostSetting + "' and '" + portSetting + "' are not both defined.");
+        }
+        
+        final int portNumber;
+        
+        try {
+            portNumber = Integer.parseInt(port.trim());
+        }
+        catch (NumberFormatException exception) {
+            throw new IOException("Setting '" + portSetting + "' value '" + port + "' is not a port number.");
+        }
+        
+        try (Socket socket = new Socket()) {
+            socket.connect(
+                new InetSocketAddress(host.trim(), portNumber),
+                (int) TimeUnit.SECONDS.toMillis(timeoutInSeconds));
+        }
+        catch (IOException exception) {
+            throw new IOException("Cannot connect to " + host + ":" + port + " (" + exception.getMessage() + ").");
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        return "TcpHealthProbe [hostSetting=" + hostSetting + ", portSetting=" + portSetting + "]";
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<HealthProbe> {
+
+        @Override
+        public String getDisplayName() {
+
+            return "TCP connection";
+        }
+        
+        public int defaultTimeout() {
+            
+            return DEFAULT_TIMEOUT_IN_SECONDS;
+        }
+        
+        /**
+         * Checks that the time-out is given and is a positive number.
+         *
+         * @param value The string value to validate.
+         * 
+         * @return the validation results.
+         */
+        public FormValidation doCheckTimeoutInSeconds(
+                @QueryParameter
+                final String value) {
+           
+            final FormValidation validateRequired = FormValidation.validateRequired(value);
+            
+            if (validateRequired != FormValidation.ok()) {
+                return validateRequired;
+            }
+            
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Scheduling policy deciding the order in which waiting requests are served and which of the free resources
+ * is handed out. The policy is pure (no Jenkins objects, no clock) so that it can be evaluated offline
+ * by the {@link SchedulingSimulator} before it is used in production.
+ */
+public final class SchedulingPolicy {
+
+    /**
+     * How a resource is selected from the free resources.
+     */
+    public enum Selection {
+        
+        /** Random free resource, spreads the load over all resources. */
+        RANDOM,
+        
+        /** First free resource in the order of the resources, packs the load onto as few resources as possible. */
+        FIRST_FREE
+    }
+    
+    /**
+     * First come, first served.
+     */
+    public static final Comparator<SchedulingRequest> FIRST_COME_FIRST_SERVED =
+        Comparator.comparingLong(SchedulingRequest::getQueuedAt).thenComparingLong(SchedulingRequest::getSequence);
+    
+    /**
+     * Higher priority first, first come, first served within the same priority.
+     */
+    public static final Comparator<SchedulingRequest> HIGHEST_PRIORITY_FIRST =
+        Comparator.comparingInt(SchedulingRequest::getPriority).reversed().thenComparing(FIRST_COME_FIRST_SERVED);
+    
+    /**
+     * Shorter expected hold first, first come, first served within the same expected hold.
+     */
+    public static final Comparator<SchedulingRequest> SHORTEST_HOLD_FIRST =
+        Comparator.comparingLong(SchedulingRequest::getExpectedHoldInMillis).thenComparing(FIRST_COME_FIRST_SERVED);
+    
+    /**
+     * The policy used by the {@link org.jenkins.plugins.reservableresources.ReservableResourcesManager}
+     * unless another one is configured.
+     */
+    public static final SchedulingPolicy DEFAULT =
+        new SchedulingPolicy("fifo-random", FIRST_COME_FIRST_SERVED, Selection.RANDOM);
+    
+    private static final List<SchedulingPolicy> BUILT_IN_POLICIES = Collections.unmodifiableList(Arrays.asList(
+        DEFAULT,
+        new SchedulingPolicy("fifo-pack", FIRST_COME_FIRST_SERVED, Selection.FIRST_FREE),
+        new SchedulingPolicy("priority-random", HIGHEST_PRIORITY_FIRST, Selection.RANDOM),
+        new SchedulingPolicy("shortest-hold-random", SHORTEST_HOLD_FIRST, Selection.RANDOM)));
+    
+    private final String name;
+    private final Comparator<SchedulingRequest> queueOrder;
+    private final Selection selection;
+    
+    public SchedulingPolicy(
+            final String name,
+            final Comparator<SchedulingRequest> queueOrder,
+            final Selection selection) {
+
+        if (StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("Given policy name is blank.");
+        }
+        
+        if (queueOrder == null || selection == null) {
+            throw new IllegalArgumentException("Given queue order or selection is null.");
+        }
+        
+        this.name = name;
+        this.queueOrder = queueOrder;
+        this.selection = selection;
+    }
+    
+    public String getName() {
+        
+        return name;
+    }
+    
+    /**
+     * Gets the order in which waiting requests are served; the smallest request is served first.
+     * 
+     * @return The comparator; never null.
+     */
+    public Comparator<SchedulingRequest> getQueueOrder() {
+        
+        return queueOrder;
+    }
+    
+    public Selection getSelection() {
+        
+        return selection;
+    }
+    
+    /**
+     * Selects the resource to hand out.
+     * 
+     * @param <T> Type of the resource.
+     * @param freeResources Non-empty list of the free resources.
+     * @param random Source of randomness; a seeded one gives reproducible simulations.
+     * 
+     * @return The selected resource.
+     */
+    public <T> T selectResource(
+            final List<T> freeResources,
+            final Random random) {
+        
+        if (freeResources.isEmpty()) {
+            throw new IllegalArgumentException("Given list of free resources is empty.");
+        }
+        
+        switch (selection) {
+            case FIRST_FREE:
+                return freeResources.get(0);
+                
+            case RANDOM:
+            default:
+                return freeResources.get(random.nextInt(freeResources.size()));
+        }
+    }
+    
+    /**
+     * Selects given number of distinct resources, one by one as {@link #selectResource(List, Random)} does.
+     * 
+     * @param <T> Type of the resource.
+     * @param freeResources List of the free resources, at least the given number of them.
+     * @param count Number of resources to select; the size of the list orders all of them by preference.
+     * @param random Source of randomness; a seeded one gives reproducible simulations.
+     * 
+     * @return List of the selected resources, in the order they were selected.
+     */
+    public <T> List<T> selectResources(
+            final List<T> freeResources,
+            final int count,
+            final Random random) {
+        
+        if (count < 0 || count > freeResources.size()) {
+            throw new IllegalArgumentException(
+                "Given count (" + count + ") is negative or more than " + freeResources.size() + " free resources.");
+        }
+        
+        final List<T> remaining = new ArrayList<>(freeResources);
+        final List<T> selected = new ArrayList<>(count);
+        
+        while (selected.size() < count) {
+            T resource = selectResource(remaining, random);
+            
+            remaining.remove(resource);
+            selected.add(resource);
+        }
+        
+        return selected;
+    }
+    
+    /**
+     * Picks a distinct candidate for each index, using augmenting paths: when all the candidates of an index are
+     * taken, the indexes holding them try to move to their other candidates. Used to assign the resources
+     * of a bundle, where one resource can be a candidate for more of the required resources.
+     * 
+     * @param <T> Type of the candidate.
+     * @param candidatesByIndex Candidates of each index, in order of preference.
+     * 
+     * @return List of the picked candidates, one for each index, or null if there is no such assignment.
+     */
+    public static <T> List<T> assignDistinct(final List<List<T>> candidatesByIndex) {
+        
+        final Map<T, Integer> indexByCandidate = new HashMap<>();
+        
+        for (int index = 0; index < candidatesByIndex.size(); index++) {
+            if (!assignDistinct(index, candidatesByIndex, indexByCandidate, new HashSet<>())) {
+                return null;
+            }
+        }
+        
+        final List<T> assigned = new ArrayList<>(Collections.nCopies(candidatesByIndex.size(), null));
+        
+        indexByCandidate.forEach((candidate, index) -> assigned.set(index, candidate));
+        
+        return assigned;
+    }
+    
+    private static <T> boolean assignDistinct(
+            final int index,
+            final List<List<T>> candidatesByIndex,
+            final Map<T, Integer> indexByCandidate,
+            final Set<T> visited) {
+        
+        for (T candidate : candidatesByIndex.get(index)) {
+            if (!visited.add(candidate)) {
+                continue;
+            }
+            
+            Integer holder = indexByCandidate.get(candidate);
+            
+            if (holder == null || assignDistinct(holder, candidatesByIndex, indexByCandidate, visited)) {
+                indexByCandidate.put(candidate, index);
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Gets the built-in policy with given name.
+     * 
+     * @param name The policy name.
+     * 
+     * @return The policy or null if there is no built-in policy with the name.
+     */
+    public static SchedulingPolicy getBuiltInPolicy(final String name) {
+        
+        return getBuiltInPolicies().stream()
+            .filter(policy -> policy.getName().equals(name))
+            .findFirst()
+            .orElse(null);
+    }
+    
+    /**
+     * Gets the policies that are worth comparing with the default one.
+     * 
+     * @return Unmodifiable list of the policies, the default one first.
+     */
+    public static List<SchedulingPolicy> getBuiltInPolicies() {
+        
+        return BUILT_IN_POLICIES;
+    }
+
+    @Override
+    public String toString() {
+
+        return "SchedulingPolicy [name=" + name + ", selection=" + selection + "]";
+    }
+}
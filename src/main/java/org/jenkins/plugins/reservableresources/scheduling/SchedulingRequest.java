@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+/**
+ * Simple POJO describing one request waiting for a resource, as seen by a {@link SchedulingPolicy}.
+ * It does not reference any Jenkins objects, so that the same policy can be used by the
+ * {@link org.jenkins.plugins.reservableresources.ReservableResourcesManager} and by the {@link SchedulingSimulator}.
+ */
+public final class SchedulingRequest {
+
+    private final long sequence;
+    private final int priority;
+    private final long queuedAt;
+    private final long expectedHoldInMillis;
+    
+    /**
+     * Constructor.
+     * 
+     * @param sequence Number increasing with every request, used to break ties.
+     * @param priority Integer representing priority of the request.
+     * @param queuedAt Time the request was queued at in milliseconds (real or virtual clock).
+     * @param expectedHoldInMillis Expected time the resource will be held for, 0 if unknown.
+     */
+    public SchedulingRequest(
+            long sequence,
+            int priority,
+            long queuedAt,
+            long expectedHoldInMillis) {
+
+        this.sequence = sequence;
+        this.priority = priority;
+        this.queuedAt = queuedAt;
+        this.expectedHoldInMillis = expectedHoldInMillis;
+    }
+
+    public long getSequence() {
+    
+        return sequence;
+    }
+
+    public int getPriority() {
+    
+        return priority;
+    }
+
+    public long getQueuedAt() {
+    
+        return queuedAt;
+    }
+
+    public long getExpectedHoldInMillis() {
+    
+        return expectedHoldInMillis;
+    }
+
+    @Override
+    public String toString() {
+
+        return "SchedulingRequest [sequence=" + sequence + ", priority=" + priority + ", queuedAt=" + queuedAt
+            + ", expectedHoldInMillis=" + expectedHoldInMillis + "]";
+    }
+}
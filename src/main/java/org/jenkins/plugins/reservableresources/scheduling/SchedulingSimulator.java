@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.HoldStatistics;
+import org.jenkins.plugins.reservableresources.history.ReservationHistory;
+
+/**
+ * Discrete-event simulator replaying a {@link Trace} on a virtual clock with given {@link SchedulingPolicy},
+ * the same policy object that the {@link org.jenkins.plugins.reservableresources.ReservableResourcesManager}
+ * uses to order its build queues and select resources. It does not need a running Jenkins, so policies can be
+ * compared offline, e.g. from command line:
+ * <pre>
+ * java -cp reservable-resources.jar:jenkins-core.jar:... \
+ *     org.jenkins.plugins.reservableresources.scheduling.SchedulingSimulator $JENKINS_HOME/reservable-resources/history 4
+ * </pre>
+ * Each label is served like a build queue of the manager: as soon as the queue is idle it takes the first request
+ * in the order of the policy and serves nothing else until that request gets all its resources or times out,
+ * so requests arriving later cannot overtake it even if they would fit. Requests for more resources and bundles
+ * get all of them at once; a bundle waits in the queue of its first label and is served from the group with
+ * the fewest free resources that fits, like in the manager.
+ * <p>
+ * The simulation is idealised otherwise: resources are always online and healthy and are handed out as soon as
+ * they are free, and there are no preemptions, earmarks, admission limits or calendar reservations.
+ * Like in the manager, the expected hold of a request is the average hold of its label at the time it arrives, here
+ * of the holds completed in the simulation so far, since the actual hold is not known until the resource is released.
+ */
+public final class SchedulingSimulator {
+
+    private enum EventType {
+        ARRIVAL, TIMEOUT, RELEASE
+    }
+    
+    private final Trace trace;
+    private final SchedulingPolicy policy;
+    private final Random random;
+    
+    private final PriorityQueue<Event> events =
+        new PriorityQueue<>(Comparator.comparingLong((Event event) -> event.time).thenComparingLong(event -> event.sequence));
+    private final Map<String, LabelQueue> queuesByLabel = new TreeMap<>();
+    private final Map<String, Set<String>> labelsByResource = new TreeMap<>();
+    private final Map<String, Long> busySinceByResource = new HashMap<>();
+    private final Map<String, HoldStatistics> holdStatisticsByLabel = new HashMap<>();
+    private final List<Long> waits = new ArrayList<>();
+    
+    private long eventSequence;
+    private long busyInMillis;
+    private int timedOutCount;
+    
+    private SchedulingSimulator(
+            final Trace trace,
+            final SchedulingPolicy policy,
+            final long seed) {
+
+        this.trace = trace;
+        this.policy = policy;
+        this.random = new Random(seed);
+        
+        trace.getResourcesByLabel().forEach((label, resources) -> {
+            queuesByLabel.put(label, new LabelQueue(policy));
+            
+            for (String resource : resources) {
+                labelsByResource.computeIfAbsent(resource, k -> new TreeSet<>()).add(label);
+            }
+        });
+    }
+    
+    /**
+     * Replays the trace with given policy.
+     * 
+     * @param trace The trace to replay.
+     * @param policy The scheduling policy.
+     * @param seed Seed of the random resource selection; the same seed gives the same results.
+     * 
+     * @return The results; never null.
+     */
+    public static SimulationResult run(
+            final Trace trace,
+            final SchedulingPolicy policy,
+            final long seed) {
+        
+        return new SchedulingSimulator(trace, policy, seed).run();
+    }
+    
+    /**
+     * Replays the trace with each of given policies.
+     * 
+     * @param trace The trace to replay.
+     * @param policies The scheduling policies.
+     * @param seed Seed of the random resource selection.
+     * 
+     * @return List of the results, in the order of the policies; never null.
+     */
+    public static List<SimulationResult> compare(
+            final Trace trace,
+            final List<SchedulingPolicy> policies,
+            final long seed) {
+        
+        return policies.stream()
+            .map(policy -> run(trace, policy, seed))
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Formats the results as a plain text table.
+     * 
+     * @param results The results to format.
+     * 
+     * @return String representing the table.
+     */
+    public static String format(final List<SimulationResult> results) {
+        
+        StringBuilder table = new StringBuilder(String.format(Locale.ENGLISH,
+            "%-22s %9s %9s %11s %12s %10s %10s %10s%n",
+            "policy", "served", "timed out", "per hour", "utilisation", "wait p50", "wait p90", "wait p99"));
+        
+        for (SimulationResult result : results) {
+            table.append(String.format(Locale.ENGLISH,
+                "%-22s %9d %9d %11.1f %11.1f%% %10s %10s %10s%n",
+                result.getPolicyName(),
+                result.getServedCount(),
+                result.getTimedOutCount(),
+                result.getThroughputPerHour(),
+                result.getUtilisation() * 100,
+                formatDuration(result.getWaitPercentile(0.5)),
+                formatDuration(result.getWaitPercentile(0.9)),
+                formatDuration(result.getWaitPercentile(0.99))));
+        }
+        
+        return table.toString();
+    }
+    
+    /**
+     * Compares the built-in policies on the trace reconstructed from the reservation history.
+     * 
+     * @param args History directory and optionally the number of most recent weeks to replay (default 4).
+     * 
+     * @throws IOException if the history cannot be read.
+     */
+    public static void main(final String[] args) throws IOException {
+        
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SchedulingSimulator <history directory> [weeks]");
+            System.exit(2);
+        }
+        
+        final int weeks = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final long to = System.currentTimeMillis();
+        final long from = to - TimeUnit.DAYS.toMillis(7L * weeks);
+        
+        Trace trace = Trace.fromHistory(ReservationHistory.open(new File(args[0])), from, to);
+        
+        System.out.println(trace);
+        System.out.print(format(compare(trace, SchedulingPolicy.getBuiltInPolicies(), 0)));
+    }
+    
+    private SimulationResult run() {
+        
+        long sequence = 0;
+        
+        for (TraceRequest request : trace.getRequests()) {
+            schedule(request.getArrivalTime(), EventType.ARRIVAL, new Waiting(request, sequence++), null);
+        }
+        
+        long start = trace.getRequests().isEmpty() ? 0 : trace.getRequests().get(0).getArrivalTime();
+        long now = start;
+        
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            
+            now = event.time;
+            
+            switch (event.type) {
+                case ARRIVAL:
+                    arrive(now, event.waiting);
+                    break;
+                    
+                case TIMEOUT:
+                    timeOut(now, event.waiting);
+                    break;
+                    
+                case RELEASE:
+                    release(now, event.waiting, event.resources);
+                    break;
+                    
+                default:
+                    break;
+            }
+        }
+        
+        return new SimulationResult(
+            policy.getName(),
+            trace.getRequests().size(),
+            timedOutCount,
+            labelsByResource.size(),
+            now - start,
+            busyInMillis,
+            waits.stream().mapToLong(Long::longValue).toArray());
+    }
+    
+    private void arrive(
+            final long now,
+            final Waiting waiting) {
+        
+        final TraceRequest request = waiting.trace;
+        
+        waiting.request = new SchedulingRequest(
+            waiting.sequence,
+            request.getPriority(),
+            request.getArrivalTime(),
+            getRequiredLabels(request).stream()
+                .map(holdStatisticsByLabel::get)
+                .mapToLong(holdStatistics -> holdStatistics == null ? 0 : holdStatistics.getAverage())
+                .max()
+                .orElse(0));
+        
+        queuesByLabel.get(request.getLabel()).waiting.add(waiting);
+        
+        if (request.getTimeoutInMillis() != TraceRequest.NO_TIMEOUT) {
+            schedule(now + request.getTimeoutInMillis(), EventType.TIMEOUT, waiting, null);
+        }
+        
+        handOut(now, request.getLabel());
+    }
+    
+    /**
+     * Timed out requests count into the waits with their timeout, otherwise a policy that lets requests time out
+     * would look better than one that serves them late.
+     */
+    private void timeOut(
+            final long now,
+            final Waiting waiting) {
+        
+        final LabelQueue queue = queuesByLabel.get(waiting.trace.getLabel());
+        
+        if (queue.head == waiting) {
+            queue.head = null;
+        }
+        else if (!queue.waiting.remove(waiting)) {
+            return;
+        }
+        
+        timedOutCount++;
+        waits.add(waiting.trace.getTimeoutInMillis());
+        
+        handOut(now, waiting.trace.getLabel());
+    }
+    
+    private void release(
+            final long now,
+            final Waiting waiting,
+            final List<String> resources) {
+        
+        final List<String> labels = getRequiredLabels(waiting.trace);
+        
+        for (int index = 0; index < resources.size(); index++) {
+            final long holdInMillis = now - busySinceByResource.remove(resources.get(index));
+            
+            busyInMillis += holdInMillis;
+            
+            holdStatisticsByLabel.computeIfAbsent(labels.get(index), k -> new HoldStatistics()).record(holdInMillis);
+        }
+        
+        // A resource with more labels may be handed out to a request for any of them, and bundles waiting in the
+        // queue of another label may need it as well.
+        for (String label : queuesByLabel.keySet()) {
+            handOut(now, label);
+        }
+    }
+    
+    private void handOut(
+            final long now,
+            final String label) {
+        
+        final LabelQueue queue = queuesByLabel.get(label);
+        
+        while (true) {
+            if (queue.head == null) {
+                queue.head = queue.waiting.poll();
+                
+                if (queue.head == null) {
+                    return;
+                }
+            }
+            
+            final List<String> resources = selectResources(queue.head.trace);
+            
+            if (resources == null) {
+                return;
+            }
+            
+            final Waiting waiting = queue.head;
+            
+            queue.head = null;
+            
+            for (String resource : resources) {
+                busySinceByResource.put(resource, now);
+            }
+            
+            waits.add(now - waiting.trace.getArrivalTime());
+            
+            schedule(now + waiting.trace.getHoldInMillis(), EventType.RELEASE, waiting, resources);
+        }
+    }
+    
+    /**
+     * Selects the resources the way the manager does.
+     * 
+     * @return List of the resources, in the order of {@link #getRequiredLabels(TraceRequest)},
+     *      or null if they are not free.
+     */
+    private List<String> selectResources(final TraceRequest request) {
+        
+        if (request.getBundleLabels() != null) {
+            return selectBundle(request.getBundleLabels());
+        }
+        
+        final List<String> freeResources = getFreeResources(request.getLabel());
+        
+        if (freeResources.size() < request.getCount()) {
+            return null;
+        }
+        
+        return policy.selectResources(freeResources, request.getCount(), random);
+    }
+    
+    private List<String> selectBundle(final List<String> bundleLabels) {
+        
+        final Map<String, String> groupByResource = trace.getGroupByResource();
+        final Map<String, Integer> freeCapacityByGroup = new TreeMap<>();
+        
+        for (String resource : labelsByResource.keySet()) {
+            String group = groupByResource.get(resource);
+            
+            if (group != null && !busySinceByResource.containsKey(resource)) {
+                freeCapacityByGroup.merge(group, 1, Integer::sum);
+            }
+        }
+        
+        final List<String> groups = new ArrayList<>(freeCapacityByGroup.keySet());
+        
+        groups.sort(Comparator.comparing(freeCapacityByGroup::get));
+        
+        for (String group : groups) {
+            if (freeCapacityByGroup.get(group) < bundleLabels.size()) {
+                continue;
+            }
+            
+            final List<List<String>> candidatesByIndex = new ArrayList<>(bundleLabels.size());
+            
+            for (String label : bundleLabels) {
+                List<String> freeResources = getFreeResources(label).stream()
+                    .filter(resource -> group.equals(groupByResource.get(resource)))
+                    .collect(Collectors.toList());
+                
+                candidatesByIndex.add(policy.selectResources(freeResources, freeResources.size(), random));
+            }
+            
+            final List<String> resources = SchedulingPolicy.assignDistinct(candidatesByIndex);
+            
+            if (resources != null) {
+                return resources;
+            }
+        }
+        
+        return null;
+    }
+    
+    private List<String> getFreeResources(final String label) {
+        
+        return trace.getResourcesByLabel().get(label).stream()
+            .filter(resource -> !busySinceByResource.containsKey(resource))
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Gets the label of each required resource.
+     */
+    private static List<String> getRequiredLabels(final TraceRequest request) {
+        
+        return request.getBundleLabels() == null
+            ? Collections.nCopies(request.getCount(), request.getLabel())
+            : request.getBundleLabels();
+    }
+    
+    private void schedule(
+            final long time,
+            final EventType type,
+            final Waiting waiting,
+            final List<String> resources) {
+        
+        events.add(new Event(time, eventSequence++, type, waiting, resources));
+    }
+    
+    private static String formatDuration(final long millis) {
+        
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        
+        return String.format(Locale.ENGLISH, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+    
+    /**
+     * Requests waiting for the resources of one label.
+     */
+    private static final class LabelQueue {
+        
+        private final PriorityQueue<Waiting> waiting;
+        
+        /**
+         * The request being served, like the current task of a build queue of the manager.
+         */
+        private Waiting head;
+        
+        LabelQueue(SchedulingPolicy policy) {
+            
+            this.waiting = new PriorityQueue<>(
+                Comparator.comparing((Waiting queued) -> queued.request, policy.getQueueOrder()));
+        }
+    }
+    
+    private static final class Waiting {
+        
+        private final TraceRequest trace;
+        private final long sequence;
+        
+        /**
+         * Created when the request arrives, with the hold estimate known at that time.
+         */
+        private SchedulingRequest request;
+        
+        Waiting(
+                TraceRequest trace,
+                long sequence) {
+            
+            this.trace = trace;
+            this.sequence = sequence;
+        }
+    }
+    
+    private static final class Event {
+        
+        private final long time;
+        private final long sequence;
+        private final EventType type;
+        private final Waiting waiting;
+        private final List<String> resources;
+        
+        Event(
+                long time,
+                long sequence,
+                EventType type,
+                Waiting waiting,
+                List<String> resources) {
+            
+            this.time = time;
+            this.sequence = sequence;
+            this.type = type;
+            this.waiting = waiting;
+            this.resources = resources;
+        }
+    }
+}
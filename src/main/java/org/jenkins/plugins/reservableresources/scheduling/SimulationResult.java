@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of replaying one {@link Trace} with one {@link SchedulingPolicy} by the {@link SchedulingSimulator}.
+ */
+public final class SimulationResult {
+
+    private final String policyName;
+    private final int requestCount;
+    private final int timedOutCount;
+    private final int resourceCount;
+    private final long spanInMillis;
+    private final long busyInMillis;
+    private final long[] sortedWaits;
+    
+    SimulationResult(
+            final String policyName,
+            final int requestCount,
+            final int timedOutCount,
+            final int resourceCount,
+            final long spanInMillis,
+            final long busyInMillis,
+            final long[] waits) {
+
+        this.policyName = policyName;
+        this.requestCount = requestCount;
+        this.timedOutCount = timedOutCount;
+        this.resourceCount = resourceCount;
+        this.spanInMillis = spanInMillis;
+        this.busyInMillis = busyInMillis;
+        this.sortedWaits = waits.clone();
+        
+        Arrays.sort(sortedWaits);
+    }
+
+    public String getPolicyName() {
+    
+        return policyName;
+    }
+
+    public int getRequestCount() {
+    
+        return requestCount;
+    }
+
+    /**
+     * Gets the number of requests that acquired a resource.
+     * 
+     * @return Integer representing the number of requests.
+     */
+    public int getServedCount() {
+    
+        return sortedWaits.length - timedOutCount;
+    }
+
+    public int getTimedOutCount() {
+    
+        return timedOutCount;
+    }
+
+    /**
+     * Gets the time between arrival of the first request and the last release.
+     * 
+     * @return Time in milliseconds.
+     */
+    public long getSpanInMillis() {
+    
+        return spanInMillis;
+    }
+
+    /**
+     * Gets the number of served requests per hour of the span.
+     * 
+     * @return Throughput in requests per hour.
+     */
+    public double getThroughputPerHour() {
+        
+        return spanInMillis == 0 ? 0 : getServedCount() * (double) TimeUnit.HOURS.toMillis(1) / spanInMillis;
+    }
+    
+    /**
+     * Gets the share of the time resources were held, over all resources and the whole span.
+     * 
+     * @return Utilisation between 0 and 1.
+     */
+    public double getUtilisation() {
+        
+        return spanInMillis == 0 || resourceCount == 0 ? 0 : (double) busyInMillis / spanInMillis / resourceCount;
+    }
+    
+    /**
+     * Gets the wait time percentile of the served and timed out requests (nearest rank). Timed out requests
+     * count with their timeout, which is the least they would have waited to be served.
+     * 
+     * @param quantile The quantile between 0 and 1, e.g. 0.9 for 90th percentile.
+     * 
+     * @return Wait time in milliseconds or 0 if no request was served or timed out.
+     */
+    public long getWaitPercentile(final double quantile) {
+        
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Given quantile (" + quantile + ") is not between 0 and 1.");
+        }
+        
+        if (sortedWaits.length == 0) {
+            return 0;
+        }
+        
+        int rank = (int) Math.ceil(quantile * sortedWaits.length);
+        
+        return sortedWaits[Math.max(0, rank - 1)];
+    }
+
+    @Override
+    public String toString() {
+
+        return "SimulationResult [policyName=" + policyName + ", served=" + getServedCount()
+            + ", timedOut=" + timedOutCount + ", utilisation=" + getUtilisation() + "]";
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkins.plugins.reservableresources.history.HistoryEvent;
+import org.jenkins.plugins.reservableresources.history.ReservationHistory;
+
+/**
+ * Workload replayed by the {@link SchedulingSimulator}: the resources of every label and the requests for them,
+ * ordered by arrival time. Traces are either reconstructed from the {@link ReservationHistory} or synthetic.
+ */
+public final class Trace {
+
+    private final Map<String, List<String>> resourcesByLabel;
+    private final Map<String, String> groupByResource;
+    private final List<TraceRequest> requests;
+    
+    /**
+     * Constructor of a trace without groups of resources, so without bundles.
+     * 
+     * @param resourcesByLabel Map of resource (node) names by label; a resource can have more labels.
+     * @param requests The requests, in any order.
+     */
+    public Trace(
+            final Map<String, List<String>> resourcesByLabel,
+            final List<TraceRequest> requests) {
+
+        this(resourcesByLabel, Collections.emptyMap(), requests);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param resourcesByLabel Map of resource (node) names by label; a resource can have more labels.
+     * @param groupByResource Map of the groups (values of the group setting) by resource name; resources
+     *      without a group cannot be part of a bundle.
+     * @param requests The requests, in any order.
+     */
+    public Trace(
+            final Map<String, List<String>> resourcesByLabel,
+            final Map<String, String> groupByResource,
+            final List<TraceRequest> requests) {
+
+        for (TraceRequest request : requests) {
+            List<String> labels = request.getBundleLabels() == null
+                ? Collections.singletonList(request.getLabel())
+                : request.getBundleLabels();
+            
+            for (String label : labels) {
+                List<String> resources = resourcesByLabel.get(label);
+                
+                if (resources == null || resources.isEmpty()) {
+                    throw new IllegalArgumentException("There are no resources with label '" + label + "'.");
+                }
+                
+                if (resources.size() < request.getCount() && request.getBundleLabels() == null) {
+                    throw new IllegalArgumentException("There are only " + resources.size()
+                        + " resources with label '" + label + "', but " + request.getCount() + " are required.");
+                }
+            }
+            
+            // The simulation would not end if a request could never be served.
+            if (request.getBundleLabels() != null
+                    && !isBundlePossible(request.getBundleLabels(), resourcesByLabel, groupByResource)) {
+                throw new IllegalArgumentException("There is no group with resources " + request.getBundleLabels() + ".");
+            }
+        }
+        
+        Map<String, List<String>> resourcesCopy = new TreeMap<>();
+        
+        resourcesByLabel.forEach((label, resources) ->
+            resourcesCopy.put(label, Collections.unmodifiableList(new ArrayList<>(resources))));
+        
+        List<TraceRequest> requestsCopy = new ArrayList<>(requests);
+        
+        requestsCopy.sort(Comparator.comparingLong(TraceRequest::getArrivalTime));
+        
+        this.resourcesByLabel = Collections.unmodifiableMap(resourcesCopy);
+        this.groupByResource = Collections.unmodifiableMap(new HashMap<>(groupByResource));
+        this.requests = Collections.unmodifiableList(requestsCopy);
+    }
+    
+    public Map<String, List<String>> getResourcesByLabel() {
+        
+        return resourcesByLabel;
+    }
+    
+    /**
+     * Gets the groups of the resources that bundles are served from.
+     * 
+     * @return Unmodifiable map of the groups by resource name; resources without a group are not in the map.
+     */
+    public Map<String, String> getGroupByResource() {
+        
+        return groupByResource;
+    }
+    
+    public List<TraceRequest> getRequests() {
+        
+        return requests;
+    }
+    
+    private static boolean isBundlePossible(
+            final List<String> bundleLabels,
+            final Map<String, List<String>> resourcesByLabel,
+            final Map<String, String> groupByResource) {
+        
+        for (String group : new HashSet<>(groupByResource.values())) {
+            List<List<String>> candidatesByIndex = bundleLabels.stream()
+                .map(label -> resourcesByLabel.get(label).stream()
+                    .filter(resource -> group.equals(groupByResource.get(resource)))
+                    .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+            
+            if (SchedulingPolicy.assignDistinct(candidatesByIndex) != null) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Reconstructs the trace from the reservation history. Every reservation of a build that was released
+     * becomes a request arriving when the build started to wait and holding the resource for the recorded time.
+     * Requests that timed out keep their recorded wait as timeout and would hold the resource for the average
+     * hold of their label. The resources of a label are the nodes that were reserved with that label.
+     * <p>
+     * Manual reservations and reservations not released within the range are not part of the trace,
+     * and the builds are assumed to have no priority, since neither is recorded. Neither is which reservations
+     * were acquired together, so every reservation becomes a request for one resource.
+     * 
+     * @param history The history to read the events from.
+     * @param from Start of the range (inclusive) in milliseconds since epoch.
+     * @param to End of the range (inclusive) in milliseconds since epoch.
+     * 
+     * @return The trace; never null.
+     * 
+     * @throws IOException if the history cannot be read.
+     */
+    public static Trace fromHistory(
+            final ReservationHistory history,
+            final long from,
+            final long to) throws IOException {
+        
+        final Map<String, Set<String>> resourcesByLabel = new HashMap<>();
+        final Map<String, HistoryEvent> reservationsByNodeName = new HashMap<>();
+        final List<TraceRequest> requests = new ArrayList<>();
+        final List<HistoryEvent> timeouts = new ArrayList<>();
+        
+        history.read(from, to, event -> {
+            if (StringUtils.isEmpty(event.getLabel())) {
+                return;
+            }
+            
+            switch (event.getType()) {
+                case RESERVED:
+                    resourcesByLabel.computeIfAbsent(event.getLabel(), k -> new LinkedHashSet<>()).add(event.getNodeName());
+                    reservationsByNodeName.put(event.getNodeName(), event);
+                    break;
+                    
+                case RELEASED:
+                    HistoryEvent reservation = reservationsByNodeName.remove(event.getNodeName());
+                    
+                    if (reservation != null) {
+                        requests.add(new TraceRequest(
+                            reservation.getLabel(),
+                            reservation.getTimestamp() - reservation.getDurationInMillis(),
+                            event.getDurationInMillis(),
+                            0,
+                            TraceRequest.NO_TIMEOUT));
+                    }
+                    break;
+                    
+                case TIMED_OUT:
+                    timeouts.add(event);
+                    break;
+                    
+                default:
+                    break;
+            }
+        });
+        
+        final Map<String, Long> averageHoldByLabel = new HashMap<>();
+        
+        requests.stream()
+            .collect(Collectors.groupingBy(TraceRequest::getLabel, Collectors.averagingLong(TraceRequest::getHoldInMillis)))
+            .forEach((label, average) -> averageHoldByLabel.put(label, Math.round(average)));
+        
+        for (HistoryEvent timeout : timeouts) {
+            Long averageHold = averageHoldByLabel.get(timeout.getLabel());
+            
+            // Without any reservation of the label there are neither resources nor a hold to replay.
+            if (averageHold != null) {
+                requests.add(new TraceRequest(
+                    timeout.getLabel(),
+                    timeout.getTimestamp() - timeout.getDurationInMillis(),
+                    averageHold,
+                    0,
+                    timeout.getDurationInMillis()));
+            }
+        }
+        
+        Map<String, List<String>> resources = new HashMap<>();
+        
+        resourcesByLabel.forEach((label, nodeNames) -> resources.put(label, new ArrayList<>(nodeNames)));
+        
+        return new Trace(resources, requests);
+    }
+    
+    /**
+     * Generates a synthetic trace for one label with Poisson arrivals and exponentially distributed holds.
+     * 
+     * @param label The resource label.
+     * @param resourceCount Positive integer representing the number of resources.
+     * @param requestCount Number of generated requests.
+     * @param arrivalsPerHour Average number of requests arriving per hour.
+     * @param averageHoldInMillis Average time the resource is held for.
+     * @param maxPriority Priorities of the requests are uniformly distributed between 0 and this value.
+     * @param seed Seed of the random generator; the same seed generates the same trace.
+     * 
+     * @return The trace; never null.
+     */
+    public static Trace synthetic(
+            final String label,
+            final int resourceCount,
+            final int requestCount,
+            final double arrivalsPerHour,
+            final long averageHoldInMillis,
+            final int maxPriority,
+            final long seed) {
+        
+        if (resourceCount < 1 || arrivalsPerHour <= 0) {
+            throw new IllegalArgumentException(
+                "Given resource count (" + resourceCount + ") or arrival rate (" + arrivalsPerHour + ") is not positive.");
+        }
+        
+        final Random random = new Random(seed);
+        final double averageGapInMillis = 3_600_000 / arrivalsPerHour;
+        
+        List<String> resources = new ArrayList<>();
+        
+        for (int index = 1; index <= resourceCount; index++) {
+            resources.add(label + "-" + index);
+        }
+        
+        List<TraceRequest> requests = new ArrayList<>();
+        long arrivalTime = 0;
+        
+        for (int index = 0; index < requestCount; index++) {
+            arrivalTime += Math.round(exponential(random, averageGapInMillis));
+            
+            requests.add(new TraceRequest(
+                label,
+                arrivalTime,
+                Math.round(exponential(random, averageHoldInMillis)),
+                random.nextInt(maxPriority + 1),
+                TraceRequest.NO_TIMEOUT));
+        }
+        
+        return new Trace(Collections.singletonMap(label, resources), requests);
+    }
+    
+    private static double exponential(
+            final Random random,
+            final double mean) {
+        
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    @Override
+    public String toString() {
+
+        return "Trace [labels=" + resourcesByLabel.keySet() + ", groups=" + new TreeSet<>(groupByResource.values())
+            + ", requests=" + requests.size() + "]";
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Simple POJO describing one recorded or synthetic request for a resource, replayed by the {@link SchedulingSimulator}.
+ * Like in the manager, a request is for a number of resources with the same label or for a bundle of resources
+ * from one group, one resource of each required label.
+ */
+public final class TraceRequest {
+
+    /**
+     * Timeout of requests that wait for a resource as long as it takes.
+     */
+    public static final long NO_TIMEOUT = Long.MAX_VALUE;
+    
+    private final String label;
+    private final int count;
+    private final List<String> bundleLabels;
+    private final long arrivalTime;
+    private final long holdInMillis;
+    private final int priority;
+    private final long timeoutInMillis;
+    
+    /**
+     * Constructor of a request for one resource.
+     * 
+     * @param label The resource label.
+     * @param arrivalTime Time the request arrives at in milliseconds.
+     * @param holdInMillis Time the resource is held for once acquired.
+     * @param priority Integer representing priority of the request.
+     * @param timeoutInMillis Maximum wait for the resource or {@link #NO_TIMEOUT}.
+     */
+    public TraceRequest(
+            String label,
+            long arrivalTime,
+            long holdInMillis,
+            int priority,
+            long timeoutInMillis) {
+
+        this(label, 1, null, arrivalTime, holdInMillis, priority, timeoutInMillis);
+    }
+    
+    /**
+     * Constructor of a request for more resources with the same label, all acquired at once.
+     * 
+     * @param label The resource label.
+     * @param count Positive integer representing the number of resources.
+     * @param arrivalTime Time the request arrives at in milliseconds.
+     * @param holdInMillis Time the resources are held for once acquired.
+     * @param priority Integer representing priority of the request.
+     * @param timeoutInMillis Maximum wait for the resources or {@link #NO_TIMEOUT}.
+     */
+    public TraceRequest(
+            String label,
+            int count,
+            long arrivalTime,
+            long holdInMillis,
+            int priority,
+            long timeoutInMillis) {
+
+        this(label, count, null, arrivalTime, holdInMillis, priority, timeoutInMillis);
+    }
+    
+    /**
+     * Constructor of a request for a bundle of resources from one group, see
+     * {@link org.jenkins.plugins.reservableresources.ReservableResourcesManager#acquireBundle}. The bundle waits
+     * in the queue of its first label.
+     * 
+     * @param bundleLabels Non-empty list of the labels of the required resources, one resource each.
+     * @param arrivalTime Time the request arrives at in milliseconds.
+     * @param holdInMillis Time the resources are held for once acquired.
+     * @param priority Integer representing priority of the request.
+     * @param timeoutInMillis Maximum wait for the resources or {@link #NO_TIMEOUT}.
+     */
+    public TraceRequest(
+            List<String> bundleLabels,
+            long arrivalTime,
+            long holdInMillis,
+            int priority,
+            long timeoutInMillis) {
+
+        this(
+            bundleLabels == null || bundleLabels.isEmpty() ? null : bundleLabels.get(0),
+            bundleLabels == null ? 0 : bundleLabels.size(),
+            bundleLabels,
+            arrivalTime,
+            holdInMillis,
+            priority,
+            timeoutInMillis);
+        
+        if (bundleLabels.stream().anyMatch(StringUtils::isBlank)) {
+            throw new IllegalArgumentException("Given bundle labels " + bundleLabels + " contain a blank label.");
+        }
+    }
+    
+    private TraceRequest(
+            String label,
+            int count,
+            List<String> bundleLabels,
+            long arrivalTime,
+            long holdInMillis,
+            int priority,
+            long timeoutInMillis) {
+
+        if (StringUtils.isBlank(label)) {
+            throw new IllegalArgumentException("Given resource label is blank.");
+        }
+        
+        if (count < 1) {
+            throw new IllegalArgumentException("Given count (" + count + ") is not positive.");
+        }
+        
+        if (holdInMillis < 0 || timeoutInMillis < 0) {
+            throw new IllegalArgumentException(
+                "Given hold (" + holdInMillis + ") or timeout (" + timeoutInMillis + ") is negative.");
+        }
+        
+        this.label = label;
+        this.count = count;
+        this.bundleLabels = bundleLabels == null ? null : Collections.unmodifiableList(new ArrayList<>(bundleLabels));
+        this.arrivalTime = arrivalTime;
+        this.holdInMillis = holdInMillis;
+        this.priority = priority;
+        this.timeoutInMillis = timeoutInMillis;
+    }
+
+    /**
+     * Gets the label of the queue the request waits in.
+     * 
+     * @return The label; the first label of a bundle.
+     */
+    public String getLabel() {
+    
+        return label;
+    }
+
+    /**
+     * Gets the number of the required resources.
+     * 
+     * @return Positive integer representing the number of resources.
+     */
+    public int getCount() {
+    
+        return count;
+    }
+
+    /**
+     * Gets the labels of the resources of a bundle.
+     * 
+     * @return Unmodifiable list of the labels or null if the request is not for a bundle.
+     */
+    public List<String> getBundleLabels() {
+    
+        return bundleLabels;
+    }
+
+    public long getArrivalTime() {
+    
+        return arrivalTime;
+    }
+
+    public long getHoldInMillis() {
+    
+        return holdInMillis;
+    }
+
+    public int getPriority() {
+    
+        return priority;
+    }
+
+    public long getTimeoutInMillis() {
+    
+        return timeoutInMillis;
+    }
+
+    @Override
+    public String toString() {
+
+        return "TraceRequest [label=" + label + ", count=" + count + ", bundleLabels=" + bundleLabels
+            + ", arrivalTime=" + arrivalTime + ", holdInMillis=" + holdInMillis
+            + ", priority=" + priority + ", timeoutInMillis=" + timeoutInMillis + "]";
+    }
+}
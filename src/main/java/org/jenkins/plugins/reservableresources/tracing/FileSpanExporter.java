@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends spans to a file, one OTLP/JSON {@code ExportTraceServiceRequest} per line, which is the format
+ * of the OpenTelemetry Collector file exporter and receiver. When the file grows over the size limit it is
+ * rotated to a file with {@code .1} suffix.
+ */
+public final class FileSpanExporter implements SpanExporter {
+
+    private static final Logger log = Logger.getLogger(FileSpanExporter.class.getName());
+    
+    private static final String SCOPE_NAME = "reservable-resources";
+    
+    private static final int SPAN_KIND_INTERNAL = 1;
+    private static final int STATUS_CODE_OK = 1;
+    private static final int STATUS_CODE_ERROR = 2;
+    
+    private final File file;
+    private final long maxFileSize;
+    
+    private Writer writer;
+    
+    /**
+     * Constructor.
+     * 
+     * @param file The file to write to.
+     * @param maxFileSize The size in bytes after which the file is rotated.
+     */
+    public FileSpanExporter(
+            final File file,
+            final long maxFileSize) {
+
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+    }
+
+    @Override
+    public synchronized void export(final Span span) {
+
+        try {
+            if (writer == null) {
+                if (file.length() > maxFileSize) {
+                    Files.move(
+                        file.toPath(),
+                        new File(file.getPath() + ".1").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+                
+                Files.createDirectories(file.getParentFile().toPath());
+                
+                writer = Files.newBufferedWriter(
+                    file.toPath(),
+                    StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            }
+            
+            writer.write(toOtlpJson(span));
+            writer.write('\n');
+            writer.flush();
+            
+            if (file.length() > maxFileSize) {
+                writer.close();
+                writer = null;
+            }
+        }
+        catch (IOException exception) {
+            log.log(Level.WARNING, "Failed to export span to " + file, exception);
+            
+            closeQuietly();
+        }
+    }
+    
+    private void closeQuietly() {
+        
+        if (writer == null) {
+            return;
+        }
+        
+        try {
+            writer.close();
+        }
+        catch (IOException ignoreException) {
+            // Nothing else to do, the file is reopened on next export.
+        }
+        
+        writer = null;
+    }
+    
+    /**
+     * Formats given span as OTLP/JSON trace export request with single span.
+     * 
+     * @param span The ended span.
+     * 
+     * @return JSON string without line breaks.
+     */
+    static String toOtlpJson(final Span span) {
+        
+        StringBuilder json = new StringBuilder(512);
+        
+        json.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        appendAttribute(json, "service.name", "jenkins");
+        json.append("]},\"scopeSpans\":[{\"scope\":{\"name\":");
+        appendString(json, SCOPE_NAME);
+        json.append("},\"spans\":[{\"traceId\":");
+        appendString(json, span.getTraceId());
+        json.append(",\"spanId\":");
+        appendString(json, span.getSpanId());
+        
+        if (span.getParentSpanId() != null) {
+            json.append(",\"parentSpanId\":");
+            appendString(json, span.getParentSpanId());
+        }
+        
+        json.append(",\"name\":");
+        appendString(json, span.getName());
+        json.append(",\"kind\":").append(SPAN_KIND_INTERNAL);
+        
+        // 64-bit integers are strings in OTLP/JSON.
+        json.append(",\"startTimeUnixNano\":\"").append(span.getStartEpochNanos()).append('"');
+        json.append(",\"endTimeUnixNano\":\"").append(span.getEndEpochNanos()).append('"');
+        json.append(",\"attributes\":[");
+        
+        boolean first = true;
+        
+        for (Map.Entry<String, String> attribute : span.getAttributes().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            
+            appendAttribute(json, attribute.getKey(), attribute.getValue());
+            first = false;
+        }
+        
+        json.append("],\"status\":{");
+        
+        if (span.getErrorMessage() == null) {
+            json.append("\"code\":").append(STATUS_CODE_OK);
+        }
+        else {
+            json.append("\"code\":").append(STATUS_CODE_ERROR).append(",\"message\":");
+            appendString(json, span.getErrorMessage());
+        }
+        
+        json.append("}}]}]}]}");
+        
+        return json.toString();
+    }
+    
+    private static void appendAttribute(
+            final StringBuilder json,
+            final String key,
+            final String value) {
+        
+        json.append("{\"key\":");
+        appendString(json, key);
+        json.append(",\"value\":{\"stringValue\":");
+        appendString(json, value);
+        json.append("}}");
+    }
+    
+    private static void appendString(
+            final StringBuilder json,
+            final String value) {
+        
+        json.append('"');
+        
+        for (int index = 0; index < value.length(); index++) {
+            final char character = value.charAt(index);
+            
+            switch (character) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        json.append(String.format("\\u%04x", (int) character));
+                    }
+                    else {
+                        json.append(character);
+                    }
+            }
+        }
+        
+        json.append('"');
+    }
+}
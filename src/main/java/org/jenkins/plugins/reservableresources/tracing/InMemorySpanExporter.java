@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.tracing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Collects the most recent spans in memory, e.g. to inspect them from the script console.
+ */
+public final class InMemorySpanExporter implements SpanExporter {
+
+    private final int capacity;
+    private final Deque<Span> spans = new ArrayDeque<>();
+    
+    /**
+     * Constructor.
+     * 
+     * @param capacity The maximum number of spans kept; the oldest spans are dropped first.
+     */
+    public InMemorySpanExporter(final int capacity) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Given capacity (" + capacity + ") is not positive.");
+        }
+        
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void export(final Span span) {
+
+        if (spans.size() == capacity) {
+            spans.removeFirst();
+        }
+        
+        spans.addLast(span);
+    }
+    
+    /**
+     * Gets the collected spans.
+     * 
+     * @return List of the spans in the order they ended.
+     */
+    public synchronized List<Span> getSpans() {
+        
+        return new ArrayList<>(spans);
+    }
+    
+    /**
+     * Drops all collected spans.
+     */
+    public synchronized void reset() {
+        
+        spans.clear();
+    }
+}
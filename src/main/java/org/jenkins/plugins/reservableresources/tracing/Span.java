@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.tracing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timed phase of the acquisition of resources, modelled after OpenTelemetry spans.
+ * <p>
+ * Spans are started by the {@link Tracer} and ended by {@link #close()}, so that try-with-resources blocks
+ * can be used. Spans of traces that were not sampled are a single no-op instance, which keeps the overhead
+ * of tracing negligible.
+ */
+public class Span implements AutoCloseable {
+
+    /**
+     * Span of traces that were not sampled; all its methods do nothing.
+     */
+    static final Span NOOP = new Span();
+    
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String name;
+    private final long startEpochNanos;
+    private final long startNanoTime;
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    
+    private final Span previousCurrent;
+    
+    private long endEpochNanos;
+    private String errorMessage;
+    
+    private Span() {
+        
+        this.traceId = null;
+        this.spanId = null;
+        this.parentSpanId = null;
+        this.name = null;
+        this.startEpochNanos = 0;
+        this.startNanoTime = 0;
+        this.previousCurrent = null;
+    }
+    
+    Span(
+            final String traceId,
+            final String spanId,
+            final String parentSpanId,
+            final String name,
+            final Span previousCurrent) {
+        
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.startEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        this.startNanoTime = System.nanoTime();
+        this.previousCurrent = previousCurrent;
+    }
+    
+    /**
+     * Checks whether this span is recorded and exported.
+     * 
+     * @return false if the trace was not sampled, true otherwise.
+     */
+    public boolean isSampled() {
+        
+        return this != NOOP;
+    }
+    
+    /**
+     * Sets an attribute of this span.
+     * 
+     * @param key The attribute key.
+     * @param value The attribute value; converted to a string.
+     * 
+     * @return This span.
+     */
+    public Span setAttribute(
+            final String key,
+            final Object value) {
+        
+        if (isSampled()) {
+            synchronized (attributes) {
+                attributes.put(key, String.valueOf(value));
+            }
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Marks this span as failed.
+     * 
+     * @param message The error message.
+     */
+    public void setError(final String message) {
+        
+        if (isSampled()) {
+            this.errorMessage = message;
+        }
+    }
+    
+    /**
+     * Ends this span, restores the span that was current before it and exports it.
+     */
+    @Override
+    public void close() {
+        
+        if (!isSampled() || endEpochNanos != 0) {
+            return;
+        }
+        
+        endEpochNanos = startEpochNanos + (System.nanoTime() - startNanoTime);
+        
+        Tracer.end(this, previousCurrent);
+    }
+
+    public String getTraceId() {
+    
+        return traceId;
+    }
+
+    public String getSpanId() {
+    
+        return spanId;
+    }
+
+    /**
+     * Gets the identifier of the parent span.
+     * 
+     * @return The identifier or null if this is the root span of the trace.
+     */
+    public String getParentSpanId() {
+    
+        return parentSpanId;
+    }
+
+    public String getName() {
+    
+        return name;
+    }
+
+    public long getStartEpochNanos() {
+    
+        return startEpochNanos;
+    }
+
+    /**
+     * Gets the end time of this span.
+     * 
+     * @return Nanoseconds since the epoch or 0 if the span did not end yet.
+     */
+    public long getEndEpochNanos() {
+    
+        return endEpochNanos;
+    }
+
+    public Map<String, String> getAttributes() {
+    
+        synchronized (attributes) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+        }
+    }
+
+    /**
+     * Gets the error message of this span.
+     * 
+     * @return The message or null if the span did not fail.
+     */
+    public String getErrorMessage() {
+    
+        return errorMessage;
+    }
+    
+    @Override
+    public String toString() {
+
+        return name + " (" + TimeUnit.NANOSECONDS.toMicros(endEpochNanos - startEpochNanos) + " us)";
+    }
+}
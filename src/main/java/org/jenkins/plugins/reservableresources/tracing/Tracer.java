@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.tracing;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Creates the spans around the phases of the acquisition of resources.
+ * <p>
+ * Only a sampled fraction of traces is recorded, see the {@code sampleRatio} system property (0 by default, so
+ * tracing is off). Spans started by {@link #startSpan(String)} are children of the current span of the calling
+ * thread, which is the span started last and not ended yet; spans handed to other threads are continued with
+ * {@link #startSpan(String, Span)}.
+ * <p>
+ * Spans are exported to {@code reservable-resources/traces.jsonl} in Jenkins home by default, or kept in memory
+ * when the {@code exporter} system property is {@code memory}.
+ */
+public final class Tracer {
+
+    private static final Logger log = Logger.getLogger(Tracer.class.getName());
+    
+    private static final int IN_MEMORY_CAPACITY = 10_000;
+    
+    private static final long MAX_FILE_SIZE_IN_MEGABYTES = SystemProperties.getLong(
+        Tracer.class.getName() + ".maxFileSizeInMegabytes", 10L);
+    
+    private static final ThreadLocal<Span> currentSpan = new ThreadLocal<>();
+    
+    private static volatile double sampleRatio = parseSampleRatio(
+        SystemProperties.getString(Tracer.class.getName() + ".sampleRatio", "0"));
+    
+    private static volatile SpanExporter exporter;
+    
+    private Tracer() {
+        
+        // Static class.
+    }
+    
+    /**
+     * Starts a new trace, if it is sampled, and makes its root span current.
+     * 
+     * @param name The name of the root span.
+     * 
+     * @return The root span or a no-op span if the trace was not sampled.
+     */
+    public static Span startTrace(final String name) {
+        
+        final double ratio = sampleRatio;
+        
+        if (ratio <= 0 || ThreadLocalRandom.current().nextDouble() >= ratio) {
+            return Span.NOOP;
+        }
+        
+        return start(name, newId(2), null);
+    }
+    
+    /**
+     * Starts a child of the current span of the calling thread and makes it current.
+     * 
+     * @param name The name of the span.
+     * 
+     * @return The span or a no-op span if there is no current span or its trace was not sampled.
+     */
+    public static Span startSpan(final String name) {
+        
+        final Span parent = currentSpan.get();
+        
+        return parent == null ? Span.NOOP : startSpan(name, parent);
+    }
+    
+    /**
+     * Starts a child of given span, e.g. one started by another thread, and makes it current.
+     * 
+     * @param name The name of the span.
+     * @param parent The parent span.
+     * 
+     * @return The span or a no-op span if the trace of the parent span was not sampled.
+     */
+    public static Span startSpan(
+            final String name,
+            final Span parent) {
+        
+        if (parent == null || !parent.isSampled()) {
+            return Span.NOOP;
+        }
+        
+        return start(name, parent.getTraceId(), parent.getSpanId());
+    }
+    
+    /**
+     * Gets the current span of the calling thread.
+     * 
+     * @return The span; a no-op span if there is none.
+     */
+    public static Span currentSpan() {
+        
+        final Span span = currentSpan.get();
+        
+        return span == null ? Span.NOOP : span;
+    }
+    
+    public static double getSampleRatio() {
+        
+        return sampleRatio;
+    }
+    
+    /**
+     * Sets the fraction of traces that are recorded.
+     * 
+     * @param sampleRatio Number from 0 (nothing is recorded) to 1 (everything is recorded).
+     */
+    public static void setSampleRatio(final double sampleRatio) {
+        
+        if (sampleRatio < 0 || sampleRatio > 1) {
+            throw new IllegalArgumentException("Given sample ratio (" + sampleRatio + ") is not between 0 and 1.");
+        }
+        
+        Tracer.sampleRatio = sampleRatio;
+    }
+    
+    /**
+     * Gets the exporter of the ended spans, creating the configured one if needed.
+     * 
+     * @return The exporter; never null.
+     */
+    public static synchronized SpanExporter getExporter() {
+        
+        if (exporter == null) {
+            if ("memory".equals(SystemProperties.getString(Tracer.class.getName() + ".exporter"))) {
+                exporter = new InMemorySpanExporter(IN_MEMORY_CAPACITY);
+            }
+            else {
+                exporter = new FileSpanExporter(
+                    new File(Jenkins.get().getRootDir(), "reservable-resources/traces.jsonl"),
+                    MAX_FILE_SIZE_IN_MEGABYTES * 1024 * 1024);
+            }
+        }
+        
+        return exporter;
+    }
+    
+    public static synchronized void setExporter(final SpanExporter exporter) {
+        
+        Tracer.exporter = exporter;
+    }
+    
+    static void end(
+            final Span span,
+            final Span previousCurrent) {
+        
+        // Span could have been ended by other thread than the one that started it.
+        if (currentSpan.get() == span) {
+            if (previousCurrent == null) {
+                currentSpan.remove();
+            }
+            else {
+                currentSpan.set(previousCurrent);
+            }
+        }
+        
+        try {
+            getExporter().export(span);
+        }
+        catch (RuntimeException exception) {
+            log.log(Level.WARNING, "Failed to export span " + span, exception);
+        }
+    }
+    
+    private static Span start(
+            final String name,
+            final String traceId,
+            final String parentSpanId) {
+        
+        final Span span = new Span(traceId, newId(1), parentSpanId, name, currentSpan.get());
+        
+        currentSpan.set(span);
+        
+        return span;
+    }
+    
+    /**
+     * Generates random identifier of given number of 64-bit words as lower case hex string.
+     */
+    private static String newId(final int words) {
+        
+        StringBuilder id = new StringBuilder(words * 16);
+        
+        for (int word = 0; word < words; word++) {
+            long value = ThreadLocalRandom.current().nextLong();
+            
+            // All zero identifiers are invalid.
+            while (value == 0) {
+                value = ThreadLocalRandom.current().nextLong();
+            }
+            
+            final String hex = Long.toHexString(value);
+            
+            for (int padding = hex.length(); padding < 16; padding++) {
+                id.append('0');
+            }
+            
+            id.append(hex);
+        }
+        
+        return id.toString();
+    }
+    
+    private static double parseSampleRatio(final String value) {
+        
+        try {
+            final double ratio = Double.parseDouble(value);
+            
+            if (ratio >= 0 && ratio <= 1) {
+                return ratio;
+            }
+        }
+        catch (NumberFormatException ignoreException) {
+            // Logged below.
+        }
+        
+        log.warning("Ignoring invalid trace sample ratio '" + value + "', tracing is off.");
+        
+        return 0;
+    }
+}
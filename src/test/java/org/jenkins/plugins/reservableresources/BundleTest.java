@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.TestResources.createResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.jenkins.plugins.reservableresources.model.LabelPolicy;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension.Setting;
+import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+import org.jenkins.plugins.reservableresources.scheduling.SchedulingPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+
+/**
+ * Tests of bundles of resources acquired from one group.
+ */
+public class BundleTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Test
+    public void assignsNodesMissedByGreedyChoice() {
+
+        // Taking n1 for the first and n3 for the second resource would leave nothing for the third one.
+        final List<String> assigned = SchedulingPolicy.assignDistinct(Arrays.asList(
+            Arrays.asList("n1", "n2"),
+            Arrays.asList("n3", "n2"),
+            Arrays.asList("n1", "n3")));
+        
+        assertEquals(Arrays.asList("n2", "n3", "n1"), assigned);
+    }
+    
+    @Test
+    public void assignsNothingWhenNodesCannotBeDistinct() {
+
+        assertNull(SchedulingPolicy.assignDistinct(Arrays.asList(
+            Arrays.asList("n1", "n2"),
+            Collections.singletonList("n1"),
+            Collections.singletonList("n2"))));
+    }
+    
+    @Test
+    public void bundleWaitsInQueueOfFirstLabel() throws Exception {
+
+        final DumbSlave database = createResource(j, "queued-db-1", "queued-db", new Setting("ZONE", "zone-1"));
+        final DumbSlave server = createResource(j, "queued-web-1", "queued-web", new Setting("ZONE", "zone-1"));
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        manager.reserveResource(database.getNodeName(), false);
+        
+        final CompletableFuture<List<Node>> acquired = acquireBundle("queued-db", "queued-web");
+        
+        waitForQueueLength("queued-db", 1);
+        
+        assertEquals(0, manager.getQueueLength("queued-web"));
+        
+        manager.releaseResource(database.getNodeName());
+        
+        final List<String> nodeNames = acquired.get(1, TimeUnit.MINUTES).stream()
+            .map(Node::getNodeName)
+            .collect(Collectors.toList());
+        
+        assertEquals(Arrays.asList(database.getNodeName(), server.getNodeName()), nodeNames);
+    }
+    
+    @Test
+    public void bundleIsRejectedByPolicyOfOtherLabel() throws Exception {
+
+        final DumbSlave server = createResource(j, "rejected-web-1", "rejected-web", new Setting("ZONE", "zone-1"));
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        createResource(j, "rejected-db-1", "rejected-db", new Setting("ZONE", "zone-1"));
+        
+        final LabelPolicy labelPolicy = new LabelPolicy("rejected-web");
+        labelPolicy.setMaxQueueLength(1);
+        
+        ReservableResourcesConfiguration.get().setLabelPolicies(Collections.singletonList(labelPolicy));
+        
+        manager.reserveResource(server.getNodeName(), false);
+        
+        // Fills the queue of the other label of the bundle.
+        acquireBundle("rejected-web");
+        
+        waitForQueueLength("rejected-web", 1);
+        
+        final CompletableFuture<List<Node>> rejected = acquireBundle("rejected-db", "rejected-web");
+        
+        try {
+            rejected.get(1, TimeUnit.MINUTES);
+            
+            throw new AssertionError("The bundle was admitted.");
+        }
+        catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof AdmissionRejectedException);
+        }
+        
+        assertEquals(0, manager.getQueueLength("rejected-db"));
+    }
+    
+    /**
+     * Starts a build acquiring a bundle of one resource with each given label from one zone.
+     */
+    private CompletableFuture<List<Node>> acquireBundle(final String... labels) throws Exception {
+        
+        final List<RequiredReservableResource> requiredResources = Arrays.stream(labels)
+            .map(label -> new RequiredReservableResource(label, "RESOURCE"))
+            .collect(Collectors.toList());
+        
+        final CompletableFuture<List<Node>> acquired = new CompletableFuture<>();
+        
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            
+            @Override
+            public boolean perform(
+                    final AbstractBuild<?, ?> build,
+                    final Launcher launcher,
+                    final BuildListener listener) {
+                
+                try {
+                    acquired.complete(ReservableResourcesManager.getInstance().acquireBundle(
+                        1, requiredResources, "ZONE", build, 0, estimate -> { }));
+                }
+                catch (Exception exception) {
+                    acquired.completeExceptionally(exception);
+                }
+                
+                return true;
+            }
+        });
+        
+        project.scheduleBuild2(0).waitForStart();
+        
+        return acquired;
+    }
+    
+    private static void waitForQueueLength(
+            final String label,
+            final int queueLength) throws InterruptedException {
+        
+        final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        
+        while (ReservableResourcesManager.getInstance().getQueueLength(label) != queueLength) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Queue of '" + label + "' did not reach " + queueLength + " builds.");
+            }
+            
+            Thread.sleep(100);
+        }
+    }
+}
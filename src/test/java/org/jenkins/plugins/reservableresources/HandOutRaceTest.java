@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.TestResources.createResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.jenkins.plugins.reservableresources.ReservableResourcesManager.HandOutHook;
+import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
+
+import hudson.ExtensionList;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.OfflineCause;
+
+/**
+ * Tests of the races between the queue thread handing out resources and the builds waiting for them. The
+ * {@link HandOutHook} stops the hand-out at the racing points, so every interleaving is played out the same way.
+ */
+public class HandOutRaceTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @After
+    public void resetHandOutHook() {
+
+        ReservableResourcesManager.handOutHook = new HandOutHook() { };
+    }
+    
+    @Test
+    public void abortDuringHandOutReleasesResource() throws Exception {
+
+        final DumbSlave node = createResource(j, "abort-db-1", "abort-db");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        final CountDownLatch handingOut = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        
+        ReservableResourcesManager.handOutHook = new HandOutHook() {
+            
+            @Override
+            public void beforeGrant(List<Node> reservedNodes) throws InterruptedException {
+                
+                handingOut.countDown();
+                aborted.await();
+            }
+        };
+        
+        final Acquisition acquisition = startAcquisition("abort-db", 1);
+        
+        assertTrue(handingOut.await(1, TimeUnit.MINUTES));
+        assertEquals(acquisition.build, manager.getReservedInfo(node).get().getReservedBy().getBuild());
+        
+        acquisition.build.getExecutor().interrupt();
+        
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(acquisition.build));
+        
+        aborted.countDown();
+        
+        waitUntil(() -> manager.getQueueLength("abort-db") == 0);
+        
+        assertFalse(manager.getReservedInfo(node).isPresent());
+    }
+    
+    @Test
+    public void timeOutBeforeGrantReleasesResource() throws Exception {
+
+        final DumbSlave node = createResource(j, "timeout-db-1", "timeout-db");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        final CountDownLatch handingOut = new CountDownLatch(1);
+        final CountDownLatch withdrawn = new CountDownLatch(1);
+        
+        ReservableResourcesManager.handOutHook = new HandOutHook() {
+            
+            @Override
+            public void beforeGrant(List<Node> reservedNodes) throws InterruptedException {
+                
+                handingOut.countDown();
+                withdrawn.await();
+            }
+            
+            @Override
+            public void beforeWithdraw(AbstractBuild<?, ?> build) throws InterruptedException {
+                
+                handingOut.await();
+            }
+        };
+        
+        // Zero time-out makes the build withdraw as soon as the queue thread reserved the resource.
+        final Acquisition acquisition = startAcquisition("timeout-db", 0);
+        
+        assertTrue(acquisition.failure().getCause() instanceof TimeoutException);
+        
+        withdrawn.countDown();
+        
+        waitUntil(() -> manager.getQueueLength("timeout-db") == 0);
+        
+        assertFalse(manager.getReservedInfo(node).isPresent());
+    }
+    
+    @Test
+    public void grantAtTimeOutIsKept() throws Exception {
+
+        final DumbSlave node = createResource(j, "granted-db-1", "granted-db");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        final GrantListener grantListener = ExtensionList.lookupSingleton(GrantListener.class);
+        
+        ReservableResourcesManager.handOutHook = new HandOutHook() {
+            
+            @Override
+            public void beforeWithdraw(AbstractBuild<?, ?> build) throws InterruptedException {
+                
+                // The resource is handed out right at the time-out.
+                grantListener.reserved.await();
+            }
+        };
+        
+        final Acquisition acquisition = startAcquisition("granted-db", 0);
+        
+        assertEquals(node.getNodeName(), acquisition.node.get(1, TimeUnit.MINUTES).getNodeName());
+        assertEquals(acquisition.build, manager.getReservedInfo(node).get().getReservedBy().getBuild());
+    }
+    
+    @Test
+    public void releaseDuringHandOutKeepsNewReservation() throws Exception {
+
+        final DumbSlave node = createResource(j, "released-db-1", "released-db");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        final CountDownLatch handingOut = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        
+        ReservableResourcesManager.handOutHook = new HandOutHook() {
+            
+            @Override
+            public void beforeGrant(List<Node> reservedNodes) throws InterruptedException {
+                
+                handingOut.countDown();
+                aborted.await();
+            }
+        };
+        
+        final Acquisition acquisition = startAcquisition("released-db", 1);
+        
+        assertTrue(handingOut.await(1, TimeUnit.MINUTES));
+        
+        // An administrator releases the resource and reserves it for themselves before the build gets it.
+        manager.releaseResource(node.getNodeName());
+        manager.reserveResource(node.getNodeName(), false);
+        
+        acquisition.build.getExecutor().interrupt();
+        
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(acquisition.build));
+        
+        aborted.countDown();
+        
+        waitUntil(() -> manager.getQueueLength("released-db") == 0);
+        
+        assertTrue(manager.getReservedInfo(node).isPresent());
+        assertNull(manager.getReservedInfo(node).get().getReservedBy().getBuild());
+    }
+    
+    @Test
+    public void abortRightAfterPreemptionRestoresManualReservation() throws Exception {
+
+        final DumbSlave node = createResource(j, "preempted-db-1", "preempted-db");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        final PreemptionListener preemptionListener = ExtensionList.lookupSingleton(PreemptionListener.class);
+        
+        ReservableResourcesConfiguration.get().setPreemptionMinimumPriority(1);
+        ReservableResourcesConfiguration.get().setPreemptionWaitInSeconds(0);
+        
+        manager.reserveResource(node.getNodeName(), true);
+        
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            
+            @Override
+            public boolean perform(
+                    final AbstractBuild<?, ?> build,
+                    final Launcher launcher,
+                    final BuildListener listener) throws InterruptedException, IOException {
+                
+                try {
+                    ReservableResourcesManager.getInstance().acquireResource(
+                        1, new RequiredReservableResource("preempted-db", "DB"), build, 1, estimate -> {
+                            // The build is aborted once the preempted node was granted, before it notices.
+                            try {
+                                preemptionListener.preempted.await();
+                            }
+                            catch (InterruptedException exception) {
+                                Thread.currentThread().interrupt();
+                            }
+                            
+                            Thread.currentThread().interrupt();
+                        });
+                }
+                catch (TimeoutException | AdmissionRejectedException exception) {
+                    throw new IOException(exception);
+                }
+                
+                return true;
+            }
+        });
+        
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(project.scheduleBuild2(0).waitForStart()));
+        
+        waitUntil(() -> manager.getQueueLength("preempted-db") == 0);
+        
+        assertTrue(manager.getReservedInfo(node).isPresent());
+        assertNull(manager.getReservedInfo(node).get().getReservedBy().getBuild());
+        assertTrue(manager.getReservedInfo(node).get().isPreemptible());
+    }
+    
+    @Test
+    public void nodeGoingOfflineDuringSelectionIsNotHandedOut() throws Exception {
+
+        createResource(j, "offline-db-1", "offline-db");
+        createResource(j, "offline-db-2", "offline-db");
+        
+        final AtomicReference<String> offlineNodeName = new AtomicReference<>();
+        
+        ReservableResourcesManager.handOutHook = new HandOutHook() {
+            
+            @Override
+            public void beforeReserve(List<Node> selectedNodes) {
+                
+                final Node selectedNode = selectedNodes.get(0);
+                
+                if (offlineNodeName.compareAndSet(null, selectedNode.getNodeName())) {
+                    selectedNode.toComputer().setTemporarilyOffline(
+                        true, new OfflineCause.ByCLI("Went offline during selection."));
+                }
+            }
+        };
+        
+        final Acquisition acquisition = startAcquisition("offline-db", 1);
+        
+        final Node node = acquisition.node.get(1, TimeUnit.MINUTES);
+        
+        assertNotEquals(offlineNodeName.get(), node.getNodeName());
+    }
+    
+    /**
+     * Starts a build acquiring a resource with given label.
+     */
+    private Acquisition startAcquisition(
+            final String label,
+            final int timeoutInMinutes) throws Exception {
+        
+        final CompletableFuture<Node> acquired = new CompletableFuture<>();
+        
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            
+            @Override
+            public boolean perform(
+                    final AbstractBuild<?, ?> build,
+                    final Launcher launcher,
+                    final BuildListener listener) throws InterruptedException {
+                
+                try {
+                    acquired.complete(ReservableResourcesManager.getInstance().acquireResource(
+                        timeoutInMinutes, new RequiredReservableResource(label, "DB"), build, 0, estimate -> { }));
+                }
+                catch (InterruptedException exception) {
+                    acquired.completeExceptionally(exception);
+                    
+                    throw exception;
+                }
+                catch (Exception exception) {
+                    acquired.completeExceptionally(exception);
+                }
+                
+                return true;
+            }
+        });
+        
+        return new Acquisition(project.scheduleBuild2(0).waitForStart(), acquired);
+    }
+    
+    private static void waitUntil(final BooleanSupplier condition) throws InterruptedException {
+        
+        final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Condition was not met in time.");
+            }
+            
+            Thread.sleep(100);
+        }
+    }
+    
+    private static final class Acquisition {
+        
+        private final FreeStyleBuild build;
+        private final CompletableFuture<Node> node;
+        
+        Acquisition(
+                FreeStyleBuild build,
+                CompletableFuture<Node> node) {
+            
+            this.build = build;
+            this.node = node;
+        }
+        
+        /**
+         * Waits for the acquisition to fail.
+         * 
+         * @return The failure.
+         */
+        ExecutionException failure() throws Exception {
+            
+            try {
+                node.get(1, TimeUnit.MINUTES);
+            }
+            catch (ExecutionException exception) {
+                return exception;
+            }
+            
+            throw new AssertionError("The resource was acquired.");
+        }
+    }
+    
+    /**
+     * Lets the build waiting in {@link #abortRightAfterPreemptionRestoresManualReservation()} know that
+     * the manual reservation was preempted.
+     */
+    @TestExtension("abortRightAfterPreemptionRestoresManualReservation")
+    public static class PreemptionListener extends ReservableResourcesListener {
+        
+        private final CountDownLatch preempted = new CountDownLatch(1);
+        
+        @Override
+        public void onPreempted(
+                ReservedResource preemptedResource,
+                AbstractBuild<?, ?> build) {
+            
+            preempted.countDown();
+        }
+    }
+    
+    /**
+     * Lets the build waiting in {@link #grantAtTimeOutIsKept()} know that the resource was handed out to it.
+     */
+    @TestExtension("grantAtTimeOutIsKept")
+    public static class GrantListener extends ReservableResourcesListener {
+        
+        private final CountDownLatch reserved = new CountDownLatch(1);
+        
+        @Override
+        public void onReserved(
+                ReservedResource reservedResource,
+                long waitInMillis) {
+            
+            reserved.countDown();
+        }
+    }
+}
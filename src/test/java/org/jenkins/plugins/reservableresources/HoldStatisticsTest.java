@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link HoldStatistics}.
+ */
+public class HoldStatisticsTest {
+
+    private static final long LAST_BUCKET_START_IN_MILLIS = Math.round(TimeUnit.SECONDS.toMillis(1) * Math.pow(1.2, 78));
+    
+    @Test
+    public void lastBucketStartsAtAboutSeventeenDays() {
+
+        assertEquals(17, TimeUnit.MILLISECONDS.toDays(LAST_BUCKET_START_IN_MILLIS));
+        
+        // Durations from the start of the last bucket on are not told apart.
+        assertEquals(
+            maximumOf(LAST_BUCKET_START_IN_MILLIS + 1000),
+            maximumOf(TimeUnit.DAYS.toMillis(365)));
+        
+        assertNotEquals(
+            maximumOf(LAST_BUCKET_START_IN_MILLIS - 1000),
+            maximumOf(LAST_BUCKET_START_IN_MILLIS + 1000));
+    }
+    
+    @Test
+    public void quantileIsUpperBoundOfItsBucket() {
+
+        final HoldStatistics statistics = new HoldStatistics();
+        
+        for (int seconds = 1; seconds <= 10; seconds++) {
+            statistics.record(TimeUnit.SECONDS.toMillis(seconds));
+        }
+        
+        assertEquals(10, statistics.getCount());
+        
+        // 5 seconds fall into the bucket from 1.2^8 to 1.2^9 seconds.
+        assertEquals(Math.round(1000 * Math.pow(1.2, 9)), statistics.getQuantile(0.5));
+        assertEquals(0, new HoldStatistics().getQuantile(0.5));
+    }
+    
+    private static long maximumOf(final long durationInMillis) {
+        
+        final HoldStatistics statistics = new HoldStatistics();
+        statistics.record(durationInMillis);
+        
+        return statistics.getQuantile(1);
+    }
+}
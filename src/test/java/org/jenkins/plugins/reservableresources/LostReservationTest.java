@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.jenkins.plugins.reservableresources.TestResources.createResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkins.plugins.reservableresources.backend.SharedDirectoryReservationBackend;
+import org.jenkins.plugins.reservableresources.model.RequiredReservableResource;
+import org.jenkins.plugins.reservableresources.model.ReservableResourcesConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.slaves.DumbSlave;
+import jenkins.model.InterruptedBuildAction;
+
+/**
+ * Tests of resources whose reservation in the shared directory backend was taken over by another controller.
+ */
+public class LostReservationTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Before
+    public void setUpBackend() {
+
+        ReservableResourcesConfiguration.get().setReservationBackend(
+            new SharedDirectoryReservationBackend(temporaryFolder.getRoot().getAbsolutePath(), 120));
+    }
+    
+    @Test
+    public void manualReservationIsDroppedWhenLeaseIsLost() throws Exception {
+
+        final DumbSlave node = createResource(j, null, "lost-manual");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        manager.reserveResource(node.getNodeName(), false);
+        
+        takeOver(node.getNodeName());
+        
+        manager.refreshReservationBackend();
+        
+        assertFalse(manager.getReservedInfo(node).isPresent());
+        assertTrue(manager.isReservedElsewhere(node));
+    }
+    
+    @Test
+    public void buildIsInterruptedWhenLeaseIsLost() throws Exception {
+
+        final DumbSlave node = createResource(j, null, "lost-build");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            
+            @Override
+            public boolean perform(
+                    final AbstractBuild<?, ?> build,
+                    final Launcher launcher,
+                    final BuildListener listener) throws InterruptedException {
+                
+                try {
+                    manager.acquireResource(
+                        1, new RequiredReservableResource("lost-build", "DB"), build, 0, estimate -> { });
+                }
+                catch (Exception exception) {
+                    throw new AssertionError(exception);
+                }
+                
+                acquired.countDown();
+                
+                // Keep using the resource until interrupted.
+                Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+                
+                return true;
+            }
+        });
+        
+        final FreeStyleBuild build = project.scheduleBuild2(0).waitForStart();
+        
+        assertTrue(acquired.await(1, TimeUnit.MINUTES));
+        assertTrue(manager.getReservedInfo(node).isPresent());
+        
+        takeOver(node.getNodeName());
+        
+        manager.refreshReservationBackend();
+        
+        j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(build));
+        
+        assertFalse(manager.getReservedInfo(node).isPresent());
+        
+        final InterruptedBuildAction interruption = build.getAction(InterruptedBuildAction.class);
+        
+        assertEquals(1, interruption.getCauses().size());
+        assertTrue(interruption.getCauses().get(0) instanceof ReservableResourcesInterruption);
+    }
+    
+    /**
+     * Simulates another controller that took over the lease after it expired.
+     */
+    private void takeOver(final String nodeName) throws Exception {
+        
+        final Path leaseFile = temporaryFolder.getRoot().toPath().resolve(nodeName + ".lease");
+        final Properties lease = new Properties();
+        
+        try (InputStream input = Files.newInputStream(leaseFile)) {
+            lease.load(input);
+        }
+        
+        lease.setProperty("controller", "other-controller");
+        lease.setProperty("fencingToken", Long.toString(Long.parseLong(lease.getProperty("fencingToken")) + 1));
+        lease.setProperty("expiresAt", Long.toString(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+        
+        try (OutputStream output = Files.newOutputStream(leaseFile)) {
+            lease.store(output, null);
+        }
+    }
+}
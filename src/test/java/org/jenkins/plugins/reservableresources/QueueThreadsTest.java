@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link QueueThreads}.
+ */
+public class QueueThreadsTest {
+
+    @Test
+    public void createsVirtualThreadsWhenAvailable() throws Exception {
+
+        final Thread thread = QueueThreads.newThreadFactory("ReservableResourcesQueue test").newThread(() -> { });
+        
+        assertTrue(thread.getName().startsWith("ReservableResourcesQueue test"));
+        assertTrue(thread.isDaemon());
+        
+        Method isVirtual;
+        
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        }
+        catch (NoSuchMethodException exception) {
+            // Java older than 21, platform threads are used.
+            return;
+        }
+        
+        assertEquals(true, isVirtual.invoke(thread));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.DumbSlave;
+
+/**
+ * Tests of {@link ResourceLabelIndex}.
+ */
+public class ResourceLabelIndexTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Test
+    public void labelsFollowNodeChanges() throws Exception {
+
+        final ResourceLabelIndex index = ResourceLabelIndex.getInstance();
+        final DumbSlave node = j.createOnlineSlave(new LabelAtom("index-database"));
+        
+        assertFalse(index.contains("index-database"));
+        
+        node.getNodeProperties().add(new NodePropertyExtension(Collections.emptyList()));
+        
+        assertTrue(index.contains("index-database"));
+        assertEquals(Collections.singletonList("index-database"), index.find("DATA", 10));
+        
+        node.setLabelString("index-database-2 index-queue");
+        
+        assertFalse(index.contains("index-database"));
+        assertTrue(index.contains("index-database-2"));
+        assertTrue(index.contains("index-queue"));
+    }
+    
+    @Test
+    public void labelsFollowBulkNodeChanges() throws Exception {
+
+        final ResourceLabelIndex index = ResourceLabelIndex.getInstance();
+        final DumbSlave node = j.createOnlineSlave(new LabelAtom("index-bulk"));
+        
+        node.getNodeProperties().add(new NodePropertyExtension(Collections.emptyList()));
+        
+        assertTrue(index.contains("index-bulk"));
+        
+        // Replacing all nodes at once does not notify node listeners.
+        j.jenkins.setNodes(Collections.emptyList());
+        
+        assertFalse(index.contains("index-bulk"));
+    }
+}
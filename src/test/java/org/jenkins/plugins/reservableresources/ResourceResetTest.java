@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.jenkins.plugins.reservableresources.ReservedResource.Status;
+import org.jenkins.plugins.reservableresources.model.CommandResetHook;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension.Setting;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.Functions;
+import hudson.slaves.DumbSlave;
+
+/**
+ * Tests of resetting released resources by their reset hooks.
+ */
+public class ResourceResetTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void failedResetQuarantinesResource() throws Exception {
+
+        assumeFalse(Functions.isWindows());
+        
+        final File gate = new File(temporaryFolder.getRoot(), "gate");
+        final DumbSlave node = createResource(
+            "reset-quarantine",
+            gate,
+            "while [ ! -f \"$GATE\" ]; do sleep 0.1; done; exit 1");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        manager.reserveResource(node.getNodeName(), false);
+        manager.releaseResource(node.getNodeName());
+        
+        assertEquals(Status.CLEANING, manager.getReservedInfo(node).get().getStatus());
+        
+        assertTrue(gate.createNewFile());
+        
+        final ReservedResource quarantined = waitForStatus(manager, node, Status.QUARANTINED);
+        
+        assertTrue(
+            quarantined.getReservedBy().getDisplayName(),
+            quarantined.getReservedBy().getDisplayName().contains("exited with code 1"));
+        
+        manager.releaseResource(node.getNodeName());
+        
+        assertFalse(manager.getReservedInfo(node).isPresent());
+    }
+    
+    @Test
+    public void successfulResetFreesResource() throws Exception {
+
+        assumeFalse(Functions.isWindows());
+        
+        final File gate = new File(temporaryFolder.getRoot(), "gate");
+        final DumbSlave node = createResource(
+            "reset-success",
+            gate,
+            "while [ ! -f \"$GATE\" ]; do sleep 0.1; done");
+        final ReservableResourcesManager manager = ReservableResourcesManager.getInstance();
+        
+        manager.reserveResource(node.getNodeName(), false);
+        manager.releaseResource(node.getNodeName());
+        
+        assertEquals(Status.CLEANING, manager.getReservedInfo(node).get().getStatus());
+        
+        assertTrue(gate.createNewFile());
+        
+        for (int attempt = 0; attempt < 300 && manager.getReservedInfo(node).isPresent(); attempt++) {
+            Thread.sleep(100);
+        }
+        
+        assertFalse(manager.getReservedInfo(node).isPresent());
+    }
+    
+    private DumbSlave createResource(
+            final String nodeName,
+            final File gate,
+            final String resetCommand) throws Exception {
+        
+        final DumbSlave node = TestResources.createResource(
+            j, nodeName, "reset-db", new Setting("GATE", gate.getAbsolutePath()));
+        
+        node.getNodeProperties().get(NodePropertyExtension.class).setResetHooks(
+            Collections.singletonList(new CommandResetHook(resetCommand, 1)));
+        
+        return node;
+    }
+    
+    private static ReservedResource waitForStatus(
+            final ReservableResourcesManager manager,
+            final DumbSlave node,
+            final Status status) throws InterruptedException {
+        
+        for (int attempt = 0; attempt < 300; attempt++) {
+            Optional<ReservedResource> reservation = manager.getReservedInfo(node);
+            
+            if (reservation.isPresent() && reservation.get().getStatus() == status) {
+                return reservation.get();
+            }
+            
+            Thread.sleep(100);
+        }
+        
+        throw new AssertionError("Resource " + node.getNodeName() + " did not become " + status + ".");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension;
+import org.jenkins.plugins.reservableresources.model.NodePropertyExtension.Setting;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.slaves.DumbSlave;
+
+/**
+ * Reservable resources used by the tests.
+ */
+public final class TestResources {
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private TestResources() {
+        
+    }
+    
+    /**
+     * Creates an online reservable resource which exposes its node name as the {@code HOST} setting. Node names
+     * have to be unique across the tests, since the manager outlives Jenkins.
+     * 
+     * @param j The Jenkins rule of the test.
+     * @param nodeName Name of the node, or null to let Jenkins pick a unique one.
+     * @param labels Labels of the node separated by spaces.
+     * @param settings Additional settings of the resource.
+     * 
+     * @return The node; never null.
+     * 
+     * @throws Exception if the node cannot be created or does not come online.
+     */
+    public static DumbSlave createResource(
+            final JenkinsRule j,
+            final String nodeName,
+            final String labels,
+            final Setting... settings) throws Exception {
+        
+        final DumbSlave node = nodeName == null ? j.createSlave(labels, null) : j.createSlave(nodeName, labels, null);
+        final List<Setting> allSettings = new ArrayList<>();
+        
+        allSettings.add(new Setting("HOST", node.getNodeName()));
+        allSettings.addAll(Arrays.asList(settings));
+        
+        node.getNodeProperties().add(new NodePropertyExtension(allSettings));
+        
+        j.waitOnline(node);
+        
+        return node;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.util.FormValidation;
+
+/**
+ * Tests of {@link SharedDirectoryReservationBackend}.
+ */
+public class SharedDirectoryReservationBackendTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    private SharedDirectoryReservationBackend backend;
+    
+    @Before
+    public void setUpBackend() {
+
+        backend = new SharedDirectoryReservationBackend(temporaryFolder.getRoot().getAbsolutePath(), 120);
+    }
+    
+    @Test
+    public void leaseTakenAfterSnapshotIsKept() throws Exception {
+
+        final long snapshotTakenAt = System.nanoTime();
+        
+        assertTrue(backend.tryReserve("db-1"));
+        
+        // The reservation is not published yet, so the snapshot does not contain it.
+        assertTrue(backend.refresh(Collections.emptySet(), snapshotTakenAt).isEmpty());
+        
+        assertEquals(j.jenkins.getLegacyInstanceId(), readLease("db-1").getProperty("controller"));
+    }
+    
+    @Test
+    public void leakedLeaseIsReleased() throws Exception {
+
+        assertTrue(backend.tryReserve("db-1"));
+        
+        TimeUnit.MILLISECONDS.sleep(10);
+        
+        assertTrue(backend.refresh(Collections.emptySet(), System.nanoTime()).isEmpty());
+        
+        assertEquals("", readLease("db-1").getProperty("controller"));
+    }
+    
+    @Test
+    public void reservedLeaseIsRenewed() throws Exception {
+
+        assertTrue(backend.tryReserve("db-1"));
+        
+        final long expiresAt = Long.parseLong(readLease("db-1").getProperty("expiresAt"));
+        
+        TimeUnit.MILLISECONDS.sleep(10);
+        
+        assertTrue(backend.refresh(Collections.singleton("db-1"), System.nanoTime()).isEmpty());
+        
+        assertTrue(Long.parseLong(readLease("db-1").getProperty("expiresAt")) > expiresAt);
+    }
+    
+    @Test
+    public void lostLeaseIsReported() throws Exception {
+
+        assertTrue(backend.tryReserve("db-1"));
+        
+        takeOver("db-1");
+        
+        assertEquals(
+            Collections.singleton("db-1"),
+            backend.refresh(Collections.singleton("db-1"), System.nanoTime()));
+        
+        assertTrue(backend.isReservedElsewhere("db-1"));
+        assertFalse(backend.tryReserve("db-1"));
+        
+        // Reported once, the lease is not tracked as own any more.
+        assertTrue(backend.refresh(Collections.singleton("db-1"), System.nanoTime()).isEmpty());
+    }
+    
+    @Test
+    public void reconfiguredBackendKeepsLeases() throws Exception {
+
+        assertTrue(backend.tryReserve("db-1"));
+        
+        final long expiresAt = Long.parseLong(readLease("db-1").getProperty("expiresAt"));
+        
+        // Saving the global configuration creates a new backend.
+        final SharedDirectoryReservationBackend reconfigured =
+            new SharedDirectoryReservationBackend(temporaryFolder.getRoot().getAbsolutePath(), 300);
+        
+        TimeUnit.MILLISECONDS.sleep(10);
+        
+        assertTrue(reconfigured.refresh(Collections.singleton("db-1"), System.nanoTime()).isEmpty());
+        assertTrue(Long.parseLong(readLease("db-1").getProperty("expiresAt")) > expiresAt);
+        
+        takeOver("db-1");
+        
+        assertEquals(
+            Collections.singleton("db-1"),
+            reconfigured.refresh(Collections.singleton("db-1"), System.nanoTime()));
+    }
+    
+    @Test
+    public void reconfiguredBackendReleasesLeases() throws Exception {
+
+        assertTrue(backend.tryReserve("db-1"));
+        
+        new SharedDirectoryReservationBackend(temporaryFolder.getRoot().getAbsolutePath(), 300).release("db-1");
+        
+        assertEquals("", readLease("db-1").getProperty("controller"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void leaseTimeoutShorterThanTwoRenewalsIsRejected() {
+
+        new SharedDirectoryReservationBackend(temporaryFolder.getRoot().getAbsolutePath(), 59);
+    }
+    
+    @Test
+    public void leaseTimeoutShorterThanTwoRenewalsFailsFormCheck() {
+
+        final SharedDirectoryReservationBackend.DescriptorImpl descriptor =
+            j.jenkins.getDescriptorByType(SharedDirectoryReservationBackend.DescriptorImpl.class);
+        
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckLeaseTimeoutInSeconds("30").kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckLeaseTimeoutInSeconds("60").kind);
+    }
+    
+    /**
+     * Simulates another controller that took over the lease after it expired.
+     */
+    private void takeOver(final String nodeName) throws IOException {
+        
+        final Properties lease = readLease(nodeName);
+        
+        lease.setProperty("controller", "other-controller");
+        lease.setProperty("fencingToken", Long.toString(Long.parseLong(lease.getProperty("fencingToken")) + 1));
+        lease.setProperty("expiresAt", Long.toString(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+        
+        try (OutputStream output = Files.newOutputStream(getLeasePath(nodeName))) {
+            lease.store(output, null);
+        }
+    }
+    
+    private Properties readLease(final String nodeName) throws IOException {
+        
+        final Properties lease = new Properties();
+        
+        try (InputStream input = Files.newInputStream(getLeasePath(nodeName))) {
+            lease.load(input);
+        }
+        
+        return lease;
+    }
+    
+    private Path getLeasePath(final String nodeName) {
+        
+        return temporaryFolder.getRoot().toPath().resolve(nodeName + ".lease");
+    }
+}
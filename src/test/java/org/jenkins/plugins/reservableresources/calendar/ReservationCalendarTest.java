@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.calendar;
+
+import static org.jenkins.plugins.reservableresources.TestResources.createResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jenkins.plugins.reservableresources.ReservableResourcesManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.slaves.DumbSlave;
+
+/**
+ * Tests of {@link ReservationCalendar}.
+ */
+public class ReservationCalendarTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Test
+    public void labelIsMatchedExactly() throws Exception {
+
+        createResource(j, null, "db-large");
+        
+        final DumbSlave database = createResource(j, null, "linux db");
+        final long from = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        
+        final AdvanceReservation reservation = ReservationCalendar.get().book(
+            "db", from, from + TimeUnit.HOURS.toMillis(1), "alice", "Maintenance");
+        
+        assertEquals(database.getNodeName(), reservation.getNodeName());
+        assertEquals("db", reservation.getRequestedLabel());
+        
+        // The other resource is free, but its label only starts with the requested one.
+        try {
+            ReservationCalendar.get().book("db", from, from + TimeUnit.HOURS.toMillis(1), "alice", "Maintenance");
+            
+            throw new AssertionError("A resource without the label was booked.");
+        }
+        catch (IllegalStateException expected) {
+            // All the resources with the label are booked.
+        }
+    }
+    
+    @Test
+    public void labelsAreParsedLikeNodeLabels() {
+
+        assertTrue(ReservableResourcesManager.hasLabel("linux db", "db"));
+        assertTrue(ReservableResourcesManager.hasLabel("\"db server\" linux", "db server"));
+        assertFalse(ReservableResourcesManager.hasLabel("db-large linux", "db"));
+        assertFalse(ReservableResourcesManager.hasLabel("", "db"));
+    }
+}
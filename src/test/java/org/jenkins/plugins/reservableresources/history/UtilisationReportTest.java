@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.history;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkins.plugins.reservableresources.history.HistoryEvent.Type;
+import org.jenkins.plugins.reservableresources.history.UtilisationReport.LabelHeatMap;
+import org.junit.Test;
+
+/**
+ * Tests of {@link UtilisationReport}.
+ */
+public class UtilisationReportTest {
+
+    private static final ZoneId INDIA = ZoneId.of("Asia/Kolkata");
+    
+    private static final double MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    
+    @Test
+    public void holdIsSplitOnLocalHoursInZoneWithHalfHourOffset() {
+
+        final UtilisationReport report = new UtilisationReport(1, toMillis(2021, 3, 10, 12, 0), INDIA);
+        final long start = toMillis(2021, 3, 10, 9, 15);
+        final long end = toMillis(2021, 3, 10, 10, 45);
+        
+        report.add(new HistoryEvent(Type.RELEASED, end, "db", "db-1", end - start));
+        
+        final LabelHeatMap heatMap = report.getHeatMaps().iterator().next();
+        
+        // The last of the seven days.
+        assertEquals(45 * MINUTE_IN_MILLIS, heatMap.getHeldMillis(6, 9), 0);
+        assertEquals(45 * MINUTE_IN_MILLIS, heatMap.getHeldMillis(6, 10), 0);
+        assertEquals(0, heatMap.getHeldMillis(6, 11), 0);
+    }
+    
+    @Test
+    public void holdOverMidnightIsSplitBetweenDays() {
+
+        final UtilisationReport report = new UtilisationReport(1, toMillis(2021, 3, 10, 12, 0), INDIA);
+        final long start = toMillis(2021, 3, 9, 23, 30);
+        final long end = toMillis(2021, 3, 10, 0, 10);
+        
+        report.add(new HistoryEvent(Type.RELEASED, end, "db", "db-1", end - start));
+        
+        final LabelHeatMap heatMap = report.getHeatMaps().iterator().next();
+        
+        assertEquals(30 * MINUTE_IN_MILLIS, heatMap.getHeldMillis(5, 23), 0);
+        assertEquals(10 * MINUTE_IN_MILLIS, heatMap.getHeldMillis(6, 0), 0);
+    }
+    
+    private static long toMillis(
+            final int year,
+            final int month,
+            final int day,
+            final int hour,
+            final int minute) {
+        
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(INDIA).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+import hudson.Functions;
+import hudson.model.Computer;
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.AccessDeniedException2;
+import hudson.slaves.DumbSlave;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+/**
+ * Tests of {@link CommandHealthProbe}.
+ */
+public class CommandHealthProbeTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Before
+    public void setUpSecurity() {
+
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+            .grant(Jenkins.ADMINISTER).everywhere().to("admin")
+            .grant(Jenkins.READ, Computer.CONFIGURE).everywhere().to("developer"));
+    }
+    
+    @Test
+    public void healthyWhenCommandSucceeds() throws Exception {
+
+        assumeFalse(Functions.isWindows());
+        
+        new CommandHealthProbe("test \"$NODE_NAME\" = \"\" && test \"$DB_HOST\" = db1", 10)
+            .check(j.jenkins, Collections.singletonMap("DB_HOST", "db1"));
+    }
+    
+    @Test
+    public void unhealthyWhenCommandFails() throws Exception {
+
+        assumeFalse(Functions.isWindows());
+        
+        try {
+            new CommandHealthProbe("exit 3", 10).check(j.jenkins, Collections.emptyMap());
+            fail("Failing command was reported healthy.");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("exited with code 3"));
+        }
+    }
+    
+    @Test
+    public void unhealthyWhenCommandTimesOut() throws Exception {
+
+        assumeFalse(Functions.isWindows());
+        
+        try {
+            new CommandHealthProbe("sleep 30", 1).check(j.jenkins, Collections.emptyMap());
+            fail("Hanging command was reported healthy.");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("did not finish"));
+        }
+    }
+    
+    @Test
+    public void userWithoutRunScriptsCannotConfigureCommand() throws Exception {
+
+        final JSONObject formData = new JSONObject();
+        formData.put("command", "touch /tmp/owned");
+        formData.put("timeoutInSeconds", 10);
+        
+        try (ACLContext context = ACL.as(User.getById("developer", true))) {
+            j.jenkins.getDescriptorByType(CommandHealthProbe.DescriptorImpl.class).newInstance(null, formData);
+            fail("Node configurator without script permission configured a controller command.");
+        }
+        catch (AccessDeniedException2 expected) {
+            assertTrue(expected.permission == Jenkins.RUN_SCRIPTS);
+        }
+    }
+    
+    @Test
+    public void userWithoutRunScriptsCannotPostCommandInNodeXml() throws Exception {
+
+        final DumbSlave node = j.createSlave();
+        final NodePropertyExtension property = new NodePropertyExtension(Collections.emptyList());
+        
+        property.setHealthProbes(Collections.singletonList(new CommandHealthProbe("touch /tmp/owned", 10)));
+        node.getNodeProperties().add(property);
+        
+        final String xml = Jenkins.XSTREAM2.toXML(node);
+        
+        node.getNodeProperties().remove(property);
+        
+        try (ACLContext context = ACL.as(User.getById("developer", true))) {
+            node.toComputer().updateByXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (RuntimeException expected) {
+            // XStream either rejects the whole node or drops the probe it could not read.
+        }
+        
+        final NodePropertyExtension updatedProperty =
+            j.jenkins.getNode(node.getNodeName()).getNodeProperty(NodePropertyExtension.class);
+        
+        assertTrue(updatedProperty == null || updatedProperty.getHealthProbes().isEmpty());
+    }
+    
+    @Test
+    public void administratorCanConfigureCommand() {
+
+        try (ACLContext context = ACL.as(User.getById("admin", true))) {
+            LocalCommand.checkConfigurePermission();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.AccessDeniedException2;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+/**
+ * Tests of {@link CommandResourceProvisioner}.
+ */
+public class CommandResourceProvisionerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+    
+    @Before
+    public void setUpSecurity() {
+
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+            .grant(Jenkins.ADMINISTER).everywhere().to("admin")
+            .grant(Jenkins.READ, Jenkins.RUN_SCRIPTS).everywhere().to("developer"));
+    }
+    
+    @Test
+    public void nonAdministratorCannotConfigureCommands() throws Exception {
+
+        final JSONObject formData = new JSONObject();
+        formData.put("templateNodeName", "template");
+        formData.put("provisionCommand", "touch /tmp/owned");
+        formData.put("retireCommand", "true");
+        formData.put("timeoutInMinutes", 10);
+        
+        try (ACLContext context = ACL.as(User.getById("developer", true))) {
+            j.jenkins.getDescriptorByType(CommandResourceProvisioner.DescriptorImpl.class).newInstance(null, formData);
+            fail("User without administer permission configured controller commands.");
+        }
+        catch (AccessDeniedException2 expected) {
+            assertTrue(expected.permission == Jenkins.ADMINISTER);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.model;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TcpHealthProbe} against a local server socket standing in for the resource.
+ */
+public class TcpHealthProbeTest {
+
+    private final TcpHealthProbe probe = new TcpHealthProbe("DB_HOST", "DB_PORT", 1);
+    
+    @Test
+    public void healthyWhenPortAcceptsConnections() throws IOException {
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            probe.check(null, settings("127.0.0.1", Integer.toString(serverSocket.getLocalPort())));
+        }
+    }
+    
+    @Test
+    public void unhealthyWhenNothingListens() throws IOException {
+
+        final int port;
+        
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = serverSocket.getLocalPort();
+        }
+        
+        try {
+            probe.check(null, settings("127.0.0.1", Integer.toString(port)));
+            fail("Closed port was reported healthy.");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Cannot connect to 127.0.0.1:" + port));
+        }
+    }
+    
+    @Test
+    public void unhealthyWhenSettingIsMissing() {
+
+        Map<String, String> settings = new HashMap<>();
+        settings.put("DB_HOST", "127.0.0.1");
+        
+        try {
+            probe.check(null, settings);
+            fail("Missing port setting was reported healthy.");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("are not both defined"));
+        }
+    }
+    
+    @Test
+    public void unhealthyWhenPortIsNotNumber() {
+
+        try {
+            probe.check(null, settings("127.0.0.1", "postgres"));
+            fail("Invalid port was reported healthy.");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("is not a port number"));
+        }
+    }
+    
+    private static Map<String, String> settings(
+            final String host,
+            final String port) {
+        
+        Map<String, String> settings = new HashMap<>();
+        settings.put("DB_HOST", host);
+        settings.put("DB_PORT", port);
+        
+        return settings;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2021 Maciek Siemczyk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.plugins.reservableresources.scheduling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkins.plugins.reservableresources.scheduling.SchedulingPolicy.Selection;
+import org.junit.Test;
+
+/**
+ * Tests of {@link SchedulingSimulator} on small hand-made traces.
+ */
+public class SchedulingSimulatorTest {
+
+    private static final Map<String, List<String>> ONE_RESOURCE =
+        Collections.singletonMap("db", Collections.singletonList("db-1"));
+    
+    private static final Map<String, List<String>> TWO_RESOURCES =
+        Collections.singletonMap("db", Arrays.asList("db-1", "db-2"));
+    
+    private static final Map<String, List<String>> THREE_RESOURCES =
+        Collections.singletonMap("db", Arrays.asList("db-1", "db-2", "db-3"));
+    
+    private static final SchedulingPolicy SHORTEST_HOLD =
+        new SchedulingPolicy("shortest-hold-pack", SchedulingPolicy.SHORTEST_HOLD_FIRST, Selection.FIRST_FREE);
+    
+    @Test
+    public void requestsAreServedInOrderOfArrival() {
+
+        final SimulationResult result = SchedulingSimulator.run(
+            new Trace(ONE_RESOURCE, Arrays.asList(
+                request(0, 100, TraceRequest.NO_TIMEOUT),
+                request(0, 100, TraceRequest.NO_TIMEOUT))),
+            SchedulingPolicy.DEFAULT,
+            0);
+        
+        assertEquals(2, result.getServedCount());
+        assertEquals(0, result.getTimedOutCount());
+        assertEquals(200, result.getSpanInMillis());
+        assertEquals(1.0, result.getUtilisation(), 0);
+        assertEquals(0, result.getWaitPercentile(0.5));
+        assertEquals(100, result.getWaitPercentile(1));
+    }
+    
+    @Test
+    public void shortestHoldFirstDoesNotKnowActualHolds() {
+
+        // The resource is held until 100 and the request arriving at 10 is served next. Until then no hold
+        // completed, so the two requests behind it are expected to hold the resource equally long and are served
+        // in order of arrival, not by their actual holds.
+        final SimulationResult result = SchedulingSimulator.run(
+            new Trace(ONE_RESOURCE, Arrays.asList(
+                request(0, 100, TraceRequest.NO_TIMEOUT),
+                request(10, 10, TraceRequest.NO_TIMEOUT),
+                request(20, 1000, TraceRequest.NO_TIMEOUT),
+                request(30, 1, TraceRequest.NO_TIMEOUT))),
+            SHORTEST_HOLD,
+            0);
+        
+        assertEquals(4, result.getServedCount());
+        assertEquals(90, result.getWaitPercentile(0.75));
+        assertEquals(1080, result.getWaitPercentile(1));
+    }
+    
+    @Test
+    public void laterRequestDoesNotOvertakeRequestBeingServed() {
+
+        // Like in the manager, the request for both resources is served next as soon as it arrives, so the request
+        // arriving after it waits even though one resource is free.
+        final SimulationResult result = SchedulingSimulator.run(
+            new Trace(TWO_RESOURCES, Arrays.asList(
+                request(0, 100, TraceRequest.NO_TIMEOUT),
+                new TraceRequest("db", 2, 10, 50, 0, TraceRequest.NO_TIMEOUT),
+                request(20, 10, TraceRequest.NO_TIMEOUT))),
+            SchedulingPolicy.DEFAULT,
+            0);
+        
+        // Waits are 0, 90 (served at 100) and 130 (served at 150).
+        assertEquals(3, result.getServedCount());
+        assertEquals(90, result.getWaitPercentile(2.0 / 3));
+        assertEquals(130, result.getWaitPercentile(1));
+    }
+    
+    @Test
+    public void shortestHoldFirstUsesHoldsCompletedBeforeArrival() {
+
+        // The request for all three resources arriving at 41 is served at 200. Meanwhile holds complete at 51 (50)
+        // and 60 (20), so the request arriving at 55 is expected to hold the resources for 50 and the one arriving
+        // at 65 for 44 (moving average); the latter is served first, when the resources are released at 210.
+        final SimulationResult result = SchedulingSimulator.run(
+            new Trace(THREE_RESOURCES, Arrays.asList(
+                request(0, 200, TraceRequest.NO_TIMEOUT),
+                request(1, 50, TraceRequest.NO_TIMEOUT),
+                request(40, 20, TraceRequest.NO_TIMEOUT),
+                new TraceRequest("db", 3, 41, 10, 0, TraceRequest.NO_TIMEOUT),
+                new TraceRequest("db", 3, 55, 10, 0, TraceRequest.NO_TIMEOUT),
+                new TraceRequest("db", 3, 65, 10, 0, TraceRequest.NO_TIMEOUT))),
+            SHORTEST_HOLD,
+            0);
+        
+        // Waits are 0, 0, 0, 159, 165 (served at 220) and 145 (served at 210).
+        assertEquals(6, result.getServedCount());
+        assertEquals(145, result.getWaitPercentile(4.0 / 6));
+        assertEquals(165, result.getWaitPercentile(1));
+    }
+    
+    @Test
+    public void bundleIsServedFromOneGroup() {
+
+        final Map<String, List<String>> resourcesByLabel = new HashMap<>();
+        final Map<String, String> groupByResource = new HashMap<>();
+        
+        resourcesByLabel.put("db", Arrays.asList("db-1", "db-2"));
+        resourcesByLabel.put("web", Arrays.asList("web-2", "web-1"));
+        
+        groupByResource.put("db-1", "zone-1");
+        groupByResource.put("web-1", "zone-1");
+        groupByResource.put("db-2", "zone-2");
+        groupByResource.put("web-2", "zone-2");
+        
+        // The free database and web server are in different zones until the first database is released at 100.
+        final SimulationResult result = SchedulingSimulator.run(
+            new Trace(resourcesByLabel, groupByResource, Arrays.asList(
+                request(0, 100, TraceRequest.NO_TIMEOUT),
+                new TraceRequest("web", 0, 100, 0, TraceRequest.NO_TIMEOUT),
+                new TraceRequest(Arrays.asList("db", "web"), 10, 10, 0, TraceRequest.NO_TIMEOUT))),
+            new SchedulingPolicy("fifo-pack", SchedulingPolicy.FIRST_COME_FIRST_SERVED, Selection.FIRST_FREE),
+            0);
+        
+        assertEquals(3, result.getServedCount());
+        assertEquals(0, result.getWaitPercentile(2.0 / 3));
+        assertEquals(90, result.getWaitPercentile(1));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void bundleWithoutGroupIsRejected() {
+
+        new Trace(TWO_RESOURCES, Collections.singletonList(
+            new TraceRequest(Arrays.asList("db", "db"), 0, 10, 0, TraceRequest.NO_TIMEOUT)));
+    }
+    
+    @Test
+    public void timedOutRequestsCountWithTheirTimeout() {
+
+        final SimulationResult result = SchedulingSimulator.run(
+            new Trace(ONE_RESOURCE, Arrays.asList(
+                request(0, 100, TraceRequest.NO_TIMEOUT),
+                request(10, 5, 30))),
+            SchedulingPolicy.DEFAULT,
+            0);
+        
+        assertEquals(1, result.getServedCount());
+        assertEquals(1, result.getTimedOutCount());
+        assertEquals(0, result.getWaitPercentile(0.5));
+        assertEquals(30, result.getWaitPercentile(1));
+    }
+    
+    private static TraceRequest request(
+            final long arrivalTime,
+            final long holdInMillis,
+            final long timeoutInMillis) {
+        
+        return new TraceRequest("db", arrivalTime, holdInMillis, 0, timeoutInMillis);
+    }
+}